@@ -4,6 +4,7 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
 
 import java.io.IOException;
 /*
@@ -43,6 +44,10 @@ public class DirectoryIndexWriterFacade extends IndexWriterFacade {
     indexWriter.addDocument(document);
   }
 
+  public void deleteDocuments(Term term) throws IOException {
+    indexWriter.deleteDocuments(term);
+  }
+
   public void close() throws IOException {
     indexWriter.close();
   }
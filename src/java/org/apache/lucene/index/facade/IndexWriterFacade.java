@@ -2,6 +2,7 @@ package org.apache.lucene.index.facade;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.Term;
 
 import java.io.IOException;
 /*
@@ -31,6 +32,8 @@ public abstract class IndexWriterFacade {
 
   public abstract void addDocument(Document document) throws IOException;
 
+  public abstract void deleteDocuments(Term term) throws IOException;
+
   public abstract void close() throws IOException;
 
   public abstract void commit() throws IOException;
@@ -6,6 +6,7 @@ import org.apache.lucene.store.instantiated.InstantiatedIndexWriter;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
 
 import java.io.IOException;
 /*
@@ -60,6 +61,19 @@ public class InstantiatedIndexFacade extends IndexFacade {
         iw.addDocument(document);
       }
 
+      /**
+       * The instantiated writer can't delete, so a new reader deletes in the
+       * index itself. This is seen at once by every open reader of the index.
+       */
+      public void deleteDocuments(Term term) throws IOException {
+        IndexReader reader = ii.indexReaderFactory();
+        try {
+          reader.deleteDocuments(term);
+        } finally {
+          reader.close();
+        }
+      }
+
       public void close() throws IOException {
         iw.close();
       }
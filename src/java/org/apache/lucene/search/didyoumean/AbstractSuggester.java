@@ -36,5 +36,19 @@ public abstract class AbstractSuggester implements Suggester {
     }
   }
 
+  /**
+   * Decide whether the top suggestion {@code nested} for the suggested query of
+   * {@code current} should be suggested instead of {@code current}. This is
+   * used when collapsing suggestion chains in
+   * {@link Dictionary#optimize(Suggester)}. The default implementation never
+   * follows nested suggestions.
+   *
+   * @param current the top suggestion for a query
+   * @param nested the top suggestion for the suggested query of {@code current}
+   * @return true if {@code nested} is a better suggestion than {@code current}
+   */
+  public boolean isNestedSuggestionPreferred(Suggestion current, Suggestion nested) {
+    return false;
+  }
 
 }
@@ -0,0 +1,163 @@
+package org.apache.lucene.search.didyoumean;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+/**
+ * Damerau-Levenshtein edit distance in its optimal string alignment form:
+ * swapping two adjacent chars counts as one edit, so <i>"teh"</i> is one edit
+ * from <i>"the"</i> rather than two, but no substring is edited more than once.
+ * <p/>
+ * Optionally the distance is weighted by a {@link SubstitutionCosts} table,
+ * for instance to make typing a neighbouring key cheaper than other
+ * substitutions. Weighted distances are measured in units of
+ * {@link SubstitutionCosts#getUnitCost()}, which the normalized distances
+ * take into account, so they can be compared to the thresholds used with
+ * {@link Levenshtein}.
+ * <p/>
+ * Like {@link Levenshtein} the matrix is filled in rows kept per thread,
+ * only within the diagonal band a bounded distance can reach, so instances
+ * are thread safe, allocate nothing once the rows of the thread have grown,
+ * and give up early on distant queries. Use it by returning it from one of
+ * the {@code editDistanceFactory} methods, such as
+ * {@link org.apache.lucene.search.didyoumean.secondlevel.token.ngram.NgramTokenSuggester#editDistanceFactory}.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public final class DamerauLevenshtein extends EditDistance {
+
+  // Three rolling rows per thread, grown as needed, so instances can be shared
+  private static final ThreadLocal<int[][]> rows = new ThreadLocal<int[][]>();
+
+  private final int n;
+  private final SubstitutionCosts costs;
+  private final int unit;
+  private final int transposition;
+
+  /**
+   * Create an unweighted distance, where all edits cost 1
+   * @param sa the string to measure distances from
+   */
+  public DamerauLevenshtein(String sa) {
+    this(sa, null);
+  }
+
+  /**
+   * @param sa    the string to measure distances from
+   * @param costs the costs of the edits, or {@code null} for all edits to cost 1
+   */
+  public DamerauLevenshtein(String sa, SubstitutionCosts costs) {
+    super(sa);
+    n = sa.length();
+    this.costs = costs;
+    unit = costs == null ? 1 : costs.getUnitCost();
+    transposition = costs == null ? 1 : costs.getTranspositionCost();
+  }
+
+  public SubstitutionCosts getCosts() {
+    return costs;
+  }
+
+  @Override
+  protected int getUnitCost() {
+    return unit;
+  }
+
+  public int getDistance(String query) {
+    // The distance never exceeds deleting and inserting everything, so this band is the whole matrix
+    return getDistance(query, (n + query.length()) * unit);
+  }
+
+  /**
+   * Calculate the distance within the diagonal band the bound can reach, as
+   * cells further from the diagonal need more insertions or deletions than
+   * {@code maxDistance} pays for. Gives up as soon as two rows in a row of the
+   * band exceed {@code maxDistance}, as a transposition reaches back two rows.
+   */
+  @Override
+  public int getDistance(String query, int maxDistance) {
+    final int m = query.length();
+    final int band = maxDistance / unit;
+    if (Math.abs(n - m) > band) {
+      return maxDistance + 1;
+    }
+    if (n == 0 || m == 0) {
+      return Math.max(n, m) * unit;
+    }
+
+    int[][] scratch = rows.get();
+    if (scratch == null || scratch[0].length <= m) {
+      scratch = new int[][]{new int[m + 1], new int[m + 1], new int[m + 1]};
+      rows.set(scratch);
+    }
+    int[] pp = scratch[0]; // two rows up
+    int[] p = scratch[1];  // the row above
+    int[] d = scratch[2];
+    final int outside = maxDistance + 1;
+
+    for (int j = 0; j <= Math.min(m, band); j++) {
+      p[j] = j * unit;
+    }
+    if (band < m) {
+      p[band + 1] = outside;
+    }
+
+    int previousRowMin = 0;
+    for (int i = 1; i <= n; i++) {
+      final char s_i = sa[i - 1];
+      final int from = Math.max(1, i - band);
+      final int to = Math.min(m, i + band);
+      d[from - 1] = from == 1 ? Math.min(i * unit, outside) : outside;
+      int rowMin = d[from - 1];
+      for (int j = from; j <= to; j++) {
+        final char t_j = query.charAt(j - 1);
+        final int substitution = s_i == t_j ? 0 : costs == null ? 1 : costs.getCost(s_i, t_j);
+        int v = min3(p[j] + unit, d[j - 1] + unit, p[j - 1] + substitution);
+        if (i > 1 && j > 1 && s_i == query.charAt(j - 2) && sa[i - 2] == t_j && s_i != t_j) {
+          v = Math.min(v, pp[j - 2] + transposition);
+        }
+        d[j] = v;
+        if (v < rowMin) {
+          rowMin = v;
+        }
+      }
+      if (rowMin > maxDistance && previousRowMin > maxDistance) {
+        return outside;
+      }
+      previousRowMin = rowMin;
+      // The cell right of the band is read as "above" by the next row
+      if (to < m) {
+        d[to + 1] = outside;
+      }
+      int[] t = pp;
+      pp = p;
+      p = d;
+      d = t;
+    }
+    return Math.min(p[m], outside);
+  }
+
+  private static int min3(int a, int b, int c) {
+    int mi = a;
+    if (b < mi) {
+      mi = b;
+    }
+    if (c < mi) {
+      mi = c;
+    }
+    return mi;
+  }
+}
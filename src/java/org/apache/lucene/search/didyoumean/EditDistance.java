@@ -39,11 +39,58 @@ public abstract class EditDistance {
 
   public double getNormalizedDistance(String query) {
     return
-        1.0d - ((double) getDistance(query) / Math
-            .min(query.length(), sa.length));
+        1.0d - ((double) getDistance(query) / (getUnitCost() * Math
+            .min(query.length(), sa.length)));
 
   }
 
+  /**
+   * Weighted edit distances measure distances in fractions of a plain edit.
+   * The normalized distances divide by this.
+   *
+   * @return the cost of inserting or deleting a char, 1 unless the distance is weighted
+   */
+  protected int getUnitCost() {
+    return 1;
+  }
+
+  /**
+   * Calculate the distance to {@code query}, giving up as soon as it is known
+   * to exceed {@code maxDistance}. Implementations should override this to
+   * skip the work the default implementation, which calculates the full
+   * distance, does for distant queries.
+   *
+   * @param query       string to measure distance to.
+   * @param maxDistance the largest distance of interest.
+   * @return distance to query if it is at most {@code maxDistance}, otherwise {@code maxDistance + 1}
+   */
+  public int getDistance(String query, int maxDistance) {
+    int distance = getDistance(query);
+    return distance > maxDistance ? maxDistance + 1 : distance;
+  }
+
+  /**
+   * Calculate the normalized distance to {@code query} for callers only interested
+   * in queries at least {@code minSimilarity} similar. The edit distance is bounded
+   * accordingly, see {@link #getDistance(String, int)}, so distant queries are
+   * rejected cheaply.
+   *
+   * @param query         string to measure distance to.
+   * @param minSimilarity the smallest normalized distance of interest.
+   * @return the same as {@link #getNormalizedDistance(String)} if that is at least
+   *         {@code minSimilarity}, otherwise some value less than {@code minSimilarity}
+   */
+  public double getNormalizedDistance(String query, double minSimilarity) {
+    int length = Math.min(query.length(), sa.length);
+    if (length == 0) {
+      return getNormalizedDistance(query);
+    }
+    double scale = (double) getUnitCost() * length;
+    // Rounded up, the comparison of the caller decides on the edge
+    int maxDistance = (int) Math.max(0, Math.min(Integer.MAX_VALUE - 1, Math.ceil((1.0d - minSimilarity) * scale)));
+    return 1.0d - (getDistance(query, maxDistance) / scale);
+  }
+
   public char[] getSa() {
     return sa;
   }
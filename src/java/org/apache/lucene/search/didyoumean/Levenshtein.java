@@ -20,6 +20,10 @@ package org.apache.lucene.search.didyoumean;
  * Levenshtein edit distance.
  * http://en.wikipedia.org/wiki/Levenshtein_distance
  * <p/>
+ * The matrix is filled in two rolling rows kept per thread, so instances
+ * are thread safe and calculating a distance allocates nothing once the rows
+ * of the thread have grown to the longest query seen.
+ * <p/>
  * todo: this is currenly just a copy of the TRStringDistance,
  * todo: the thought is to make this in to an interface that TRStringDistance implements
  * todo: but that requires a bit of refactoring.
@@ -27,7 +31,9 @@ package org.apache.lucene.search.didyoumean;
 public final class Levenshtein extends EditDistance {
 
   private final int n;
-  private final int[][][] cache = new int[30][][];
+
+  // Two rolling rows per thread, grown as needed, so instances can be shared
+  private static final ThreadLocal<int[][]> rows = new ThreadLocal<int[][]>();
 
 
   /**
@@ -41,69 +47,69 @@ public final class Levenshtein extends EditDistance {
 
 
   public final int getDistance(String query) {
-    int d[][]; // matrix
-    int cost; // cost
-
-    // Step 1
-    final char[] ta = query.toCharArray();
-    final int m = ta.length;
-    if (n == 0) {
-      return m;
+    // The distance never exceeds the longest string, so this band is the whole matrix
+    return getDistance(query, Math.max(n, query.length()));
+  }
+
+
+  /**
+   * Calculate the distance within the diagonal band of width {@code 2 * maxDistance + 1}
+   * of the matrix (Ukkonen), as cells further from the diagonal can only hold
+   * distances above {@code maxDistance}. Gives up as soon as a whole row of the
+   * band exceeds {@code maxDistance}.
+   */
+  @Override
+  public final int getDistance(String query, int maxDistance) {
+    final int m = query.length();
+    if (Math.abs(n - m) > maxDistance) {
+      return maxDistance + 1;
     }
-    if (m == 0) {
-      return n;
+    if (n == 0 || m == 0) {
+      return Math.max(n, m);
     }
 
-    if (m >= cache.length) {
-      d = form(n, m);
-    } else if (cache[m] != null) {
-      d = cache[m];
-    } else {
-      d = cache[m] = form(n, m);
-
-      // Step 3
+    int[][] scratch = rows.get();
+    if (scratch == null || scratch[0].length <= m) {
+      scratch = new int[][]{new int[m + 1], new int[m + 1]};
+      rows.set(scratch);
+    }
+    int[] p = scratch[0];
+    int[] d = scratch[1];
+    final int outside = maxDistance + 1;
 
+    for (int j = 0; j <= Math.min(m, maxDistance); j++) {
+      p[j] = j;
     }
+    if (maxDistance < m) {
+      p[maxDistance + 1] = outside;
+    }
+
     for (int i = 1; i <= n; i++) {
       final char s_i = sa[i - 1];
-
-      // Step 4
-
-      for (int j = 1; j <= m; j++) {
-        final char t_j = ta[j - 1];
-
-        // Step 5
-
-        if (s_i == t_j) { // same
-          cost = 0;
-        } else { // not a match
-          cost = 1;
-
-          // Step 6
-
+      final int from = Math.max(1, i - maxDistance);
+      final int to = Math.min(m, i + maxDistance);
+      d[from - 1] = from == 1 ? Math.min(i, outside) : outside;
+      int rowMin = d[from - 1];
+      for (int j = from; j <= to; j++) {
+        final int cost = s_i == query.charAt(j - 1) ? 0 : 1;
+        final int v = min3(p[j] + 1, d[j - 1] + 1, p[j - 1] + cost);
+        d[j] = v;
+        if (v < rowMin) {
+          rowMin = v;
         }
-        d[i][j] = min3(d[i - 1][j] + 1, d[i][j - 1] + 1, d[i - 1][j - 1] + cost);
       }
+      if (rowMin > maxDistance) {
+        return outside;
+      }
+      // The cell right of the band is read as "above" by the next row
+      if (to < m) {
+        d[to + 1] = outside;
+      }
+      int[] t = p;
+      p = d;
+      d = t;
     }
-
-    // Step 7
-    return d[n][m];
-
-  }
-
-
-  private static int[][] form(int n, int m) {
-    int[][] d = new int[n + 1][m + 1];
-    // Step 2
-
-    for (int i = 0; i <= n; i++) {
-      d[i][0] = i;
-
-    }
-    for (int j = 0; j <= m; j++) {
-      d[0][j] = j;
-    }
-    return d;
+    return Math.min(p[m], outside);
   }
 
 
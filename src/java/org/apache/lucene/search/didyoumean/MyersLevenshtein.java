@@ -0,0 +1,270 @@
+package org.apache.lucene.search.didyoumean;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * Levenshtein edit distance calculated with Myers' bit-vector algorithm.
+ * It returns the same distances as {@link Levenshtein}.
+ * <p/>
+ * Instead of filling in the dynamic programming matrix one cell at a time,
+ * a column of up to 64 cells is encoded as two bit vectors of vertical
+ * +1 and -1 deltas and updated with a handful of word operations per char
+ * in the query. Patterns longer than 64 chars are split into blocks of 64
+ * rows, and the horizontal delta leaving the bottom of one block is carried
+ * into the top of the next (Hyyr&ouml;'s blocked variant). The distance is thus
+ * calculated in O(m * n / 64) time without filling in a matrix.
+ * <p/>
+ * The match vectors of the pattern are calculated once, in the constructor.
+ * {@link #getDistance} keeps no state in the instance, so an instance can be
+ * used by any number of threads, and
+ * it allocates nothing once the scratch space of the thread has grown to the
+ * longest pattern seen.
+ * <p/>
+ * G. Myers, <i>A fast bit-vector algorithm for approximate string matching based
+ * on dynamic programming</i>, Journal of the ACM 46(3), 1999.<br/>
+ * H. Hyyr&ouml;, <i>A bit-vector algorithm for computing Levenshtein and Damerau edit
+ * distances</i>, Nordic Journal of Computing 10(1), 2003.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public final class MyersLevenshtein extends EditDistance {
+
+  private static final int ASCII = 128;
+  private static final int UNBOUNDED = -1;
+
+  // The bit vectors of the blocked algorithm, per thread, so instances can be shared
+  private static final ThreadLocal<long[][]> scratch = new ThreadLocal<long[][]>();
+
+  private final int n;
+  private final int blocks;
+  /** The bit of the last row of the pattern within the last block */
+  private final long lastRowBit;
+
+  /** Match vectors of the ASCII chars, block by block: peq[c * blocks + block] */
+  private final long[] asciiPeq;
+  /** The non-ASCII chars of the pattern, sorted, and their match vectors */
+  private final char[] otherChars;
+  private final long[] otherPeq;
+
+  public MyersLevenshtein(String sa) {
+    super(sa);
+    n = this.sa.length;
+    blocks = Math.max(1, (n + 63) >>> 6);
+    lastRowBit = n == 0 ? 0 : 1L << ((n - 1) & 63);
+
+    char[] others = new char[n];
+    int numOthers = 0;
+    for (char c : this.sa) {
+      if (c >= ASCII) {
+        others[numOthers++] = c;
+      }
+    }
+    Arrays.sort(others, 0, numOthers);
+    int distinct = 0;
+    for (int i = 0; i < numOthers; i++) {
+      if (distinct == 0 || others[distinct - 1] != others[i]) {
+        others[distinct++] = others[i];
+      }
+    }
+    otherChars = new char[distinct];
+    System.arraycopy(others, 0, otherChars, 0, distinct);
+
+    asciiPeq = new long[ASCII * blocks];
+    otherPeq = new long[distinct * blocks];
+    for (int i = 0; i < n; i++) {
+      char c = this.sa[i];
+      long bit = 1L << (i & 63);
+      if (c < ASCII) {
+        asciiPeq[c * blocks + (i >>> 6)] |= bit;
+      } else {
+        otherPeq[Arrays.binarySearch(otherChars, c) * blocks + (i >>> 6)] |= bit;
+      }
+    }
+  }
+
+  public int getDistance(String query) {
+    final int m = query.length();
+    if (n == 0) {
+      return m;
+    }
+    if (m == 0) {
+      return n;
+    }
+    return blocks == 1 ? distance64(query, UNBOUNDED) : distanceBlocked(query, UNBOUNDED);
+  }
+
+  /**
+   * Gives up as soon as the distance is known to exceed {@code maxDistance}.
+   * The distance never decreases along a diagonal of the matrix, so after each
+   * char of the query the cell on the diagonal ending in the final cell is
+   * calculated from the bit vectors, and if it exceeds {@code maxDistance}
+   * so does the distance.
+   */
+  @Override
+  public int getDistance(String query, int maxDistance) {
+    final int m = query.length();
+    if (Math.abs(n - m) > maxDistance) {
+      return maxDistance + 1;
+    }
+    if (n == 0 || m == 0) {
+      return Math.max(n, m);
+    }
+    // The distance is at most max(n, m), so large bounds need no checking
+    int bound = maxDistance >= Math.max(n, m) ? UNBOUNDED : maxDistance;
+    return blocks == 1 ? distance64(query, bound) : distanceBlocked(query, bound);
+  }
+
+  /**
+   * The position of the match vectors of {@code c} in {@code peq}, or -1 if
+   * {@code c} is not in the pattern
+   */
+  private int peqOffset(char c) {
+    if (c < ASCII) {
+      return c * blocks;
+    }
+    int i = Arrays.binarySearch(otherChars, c);
+    return i < 0 ? -1 : i * blocks;
+  }
+
+  /**
+   * The single word algorithm, for patterns of up to 64 chars
+   * @return the distance, or maxDistance + 1 if it exceeds maxDistance
+   */
+  private int distance64(String query, int maxDistance) {
+    final int m = query.length();
+    long pv = -1L;
+    long mv = 0L;
+    int score = n;
+    for (int j = 0; j < m; j++) {
+      char c = query.charAt(j);
+      long eq;
+      if (c < ASCII) {
+        eq = asciiPeq[c];
+      } else {
+        int offset = peqOffset(c);
+        eq = offset < 0 ? 0L : otherPeq[offset];
+      }
+
+      long xv = eq | mv;
+      long xh = (((eq & pv) + pv) ^ pv) | eq;
+      long ph = mv | ~(xh | pv);
+      long mh = pv & xh;
+      if ((ph & lastRowBit) != 0) {
+        score++;
+      } else if ((mh & lastRowBit) != 0) {
+        score--;
+      }
+      // The top row of the matrix is 0, 1, 2, ..., so a +1 delta enters at the top
+      ph = (ph << 1) | 1L;
+      mh <<= 1;
+      pv = mh | ~(xv | ph);
+      mv = ph & xv;
+
+      if (maxDistance != UNBOUNDED) {
+        // The row of the final diagonal in column j + 1
+        int row = n - (m - j - 1);
+        if (row > 0) {
+          long rows = row == 64 ? -1L : (1L << row) - 1;
+          if (j + 1 + Long.bitCount(pv & rows) - Long.bitCount(mv & rows) > maxDistance) {
+            return maxDistance + 1;
+          }
+        }
+      }
+    }
+    return score;
+  }
+
+  /**
+   * The blocked algorithm, for patterns longer than 64 chars
+   * @return the distance, or maxDistance + 1 if it exceeds maxDistance
+   */
+  private int distanceBlocked(String query, int maxDistance) {
+    final int m = query.length();
+    long[][] vectors = scratch.get();
+    if (vectors == null || vectors[0].length < blocks) {
+      vectors = new long[][]{new long[blocks], new long[blocks]};
+      scratch.set(vectors);
+    }
+    long[] pvs = vectors[0];
+    long[] mvs = vectors[1];
+    Arrays.fill(pvs, 0, blocks, -1L);
+    Arrays.fill(mvs, 0, blocks, 0L);
+    int score = n;
+    for (int j = 0; j < m; j++) {
+      char c = query.charAt(j);
+      long[] peq;
+      int offset;
+      if (c < ASCII) {
+        peq = asciiPeq;
+        offset = c * blocks;
+      } else {
+        peq = otherPeq;
+        offset = peqOffset(c);
+      }
+
+      // The horizontal delta entering the top of the block, -1, 0 or +1
+      int hin = 1;
+      for (int b = 0; b < blocks; b++) {
+        long eq = offset < 0 ? 0L : peq[offset + b];
+        long pv = pvs[b];
+        long mv = mvs[b];
+        long highBit = b == blocks - 1 ? lastRowBit : Long.MIN_VALUE;
+
+        long xv = eq | mv;
+        if (hin < 0) {
+          eq |= 1L;
+        }
+        long xh = (((eq & pv) + pv) ^ pv) | eq;
+        long ph = mv | ~(xh | pv);
+        long mh = pv & xh;
+        int hout = (ph & highBit) != 0 ? 1 : (mh & highBit) != 0 ? -1 : 0;
+        ph <<= 1;
+        mh <<= 1;
+        if (hin < 0) {
+          mh |= 1L;
+        } else if (hin > 0) {
+          ph |= 1L;
+        }
+        pvs[b] = mh | ~(xv | ph);
+        mvs[b] = ph & xv;
+        hin = hout;
+      }
+      score += hin;
+
+      if (maxDistance != UNBOUNDED) {
+        int row = n - (m - j - 1);
+        if (row > 0) {
+          int cell = j + 1;
+          int b = 0;
+          for (; (b + 1) << 6 <= row; b++) {
+            cell += Long.bitCount(pvs[b]) - Long.bitCount(mvs[b]);
+          }
+          if ((row & 63) != 0) {
+            long rows = (1L << (row & 63)) - 1;
+            cell += Long.bitCount(pvs[b] & rows) - Long.bitCount(mvs[b] & rows);
+          }
+          if (cell > maxDistance) {
+            return maxDistance + 1;
+          }
+        }
+      }
+    }
+    return score;
+  }
+}
@@ -0,0 +1,167 @@
+package org.apache.lucene.search.didyoumean;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The costs of the edits of a weighted {@link DamerauLevenshtein} distance.
+ * Costs are integers in units of {@link #getUnitCost()}, the cost of inserting
+ * or deleting a char. Substituting a char with another costs one unit unless
+ * the pair is given another cost, so that for instance typing a neighbouring
+ * key on the keyboard, see {@link #createQwerty}, can be made cheaper than
+ * typing something else entirely.
+ * <p/>
+ * Costs must be set up before the table is used by an edit distance. After
+ * that the table may be shared between any number of edit distances and threads.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class SubstitutionCosts {
+
+  private static final int ASCII = 128;
+
+  private static final String[] QWERTY_ROWS = {"1234567890", "qwertyuiop", "asdfghjkl", "zxcvbnm"};
+
+  private final int unitCost;
+  private int transpositionCost;
+  /** Substitution costs of ASCII pairs, asciiCosts[a * ASCII + b] */
+  private final int[] asciiCosts = new int[ASCII * ASCII];
+  /** Substitution costs of other pairs, keyed by a << 16 | b */
+  private final Map<Integer, Integer> otherCosts = new HashMap<Integer, Integer>();
+
+  /**
+   * Create a table where all edits cost {@code unitCost}
+   * @param unitCost the cost of inserting or deleting a char. The larger it
+   *                 is, the more finely other costs can be graded
+   */
+  public SubstitutionCosts(int unitCost) {
+    if (unitCost < 1) {
+      throw new IllegalArgumentException("unitCost must be positive, was " + unitCost);
+    }
+    this.unitCost = unitCost;
+    this.transpositionCost = unitCost;
+    for (int a = 0; a < ASCII; a++) {
+      for (int b = 0; b < ASCII; b++) {
+        asciiCosts[a * ASCII + b] = a == b ? 0 : unitCost;
+      }
+    }
+  }
+
+  /**
+   * Create a table for typing errors on a QWERTY keyboard: substituting a char
+   * with a horizontally or diagonally neighbouring key costs
+   * {@code neighbourCost}, all other edits cost {@code unitCost}.
+   *
+   * @param unitCost      the cost of inserting or deleting a char
+   * @param neighbourCost the cost of substituting a char with a neighbouring key
+   * @return a new table
+   */
+  public static SubstitutionCosts createQwerty(int unitCost, int neighbourCost) {
+    SubstitutionCosts costs = new SubstitutionCosts(unitCost);
+    for (int row = 0; row < QWERTY_ROWS.length; row++) {
+      String keys = QWERTY_ROWS[row];
+      for (int col = 0; col < keys.length(); col++) {
+        char key = keys.charAt(col);
+        if (col + 1 < keys.length()) {
+          costs.setCaseInsensitiveCost(key, keys.charAt(col + 1), neighbourCost);
+        }
+        // Each row is shifted half a key to the right of the row above it
+        if (row + 1 < QWERTY_ROWS.length) {
+          String below = QWERTY_ROWS[row + 1];
+          for (int belowCol = col - 1; belowCol <= col; belowCol++) {
+            if (belowCol >= 0 && belowCol < below.length()) {
+              costs.setCaseInsensitiveCost(key, below.charAt(belowCol), neighbourCost);
+            }
+          }
+        }
+      }
+    }
+    return costs;
+  }
+
+  /**
+   * Set the cost of substituting {@code a} with {@code b} and vice versa
+   * @param a    a char
+   * @param b    another char
+   * @param cost the cost of the substitution, in the same units as {@link #getUnitCost()}
+   * @return this table, for chaining
+   */
+  public SubstitutionCosts setCost(char a, char b, int cost) {
+    if (cost < 0) {
+      throw new IllegalArgumentException("cost must not be negative, was " + cost);
+    }
+    if (a == b) {
+      return this;
+    }
+    if (a < ASCII && b < ASCII) {
+      asciiCosts[a * ASCII + b] = cost;
+      asciiCosts[b * ASCII + a] = cost;
+    } else {
+      otherCosts.put(a << 16 | b, cost);
+      otherCosts.put(b << 16 | a, cost);
+    }
+    return this;
+  }
+
+  private void setCaseInsensitiveCost(char a, char b, int cost) {
+    setCost(a, b, cost);
+    setCost(Character.toUpperCase(a), Character.toUpperCase(b), cost);
+  }
+
+  /**
+   * @param a a char
+   * @param b another char
+   * @return the cost of substituting {@code a} with {@code b}, 0 if they are the same char
+   */
+  public int getCost(char a, char b) {
+    if (a < ASCII && b < ASCII) {
+      return asciiCosts[a * ASCII + b];
+    }
+    if (a == b) {
+      return 0;
+    }
+    if (otherCosts.isEmpty()) {
+      return unitCost;
+    }
+    Integer cost = otherCosts.get(a << 16 | b);
+    return cost == null ? unitCost : cost;
+  }
+
+  /**
+   * @return the cost of inserting or deleting a char
+   */
+  public int getUnitCost() {
+    return unitCost;
+  }
+
+  /**
+   * @return the cost of swapping two adjacent chars, by default {@link #getUnitCost()}
+   */
+  public int getTranspositionCost() {
+    return transpositionCost;
+  }
+
+  public SubstitutionCosts setTranspositionCost(int transpositionCost) {
+    if (transpositionCost < 0) {
+      throw new IllegalArgumentException("transpositionCost must not be negative, was " + transpositionCost);
+    }
+    this.transpositionCost = transpositionCost;
+    return this;
+  }
+}
@@ -23,11 +23,13 @@ import org.apache.lucene.index.facade.IndexFacade;
 import org.apache.lucene.index.facade.IndexFacadeFactory;
 import org.apache.lucene.index.facade.InstantiatedIndexFacade;
 import org.apache.lucene.search.didyoumean.dictionary.Dictionary;
+import org.apache.lucene.search.didyoumean.dictionary.NegativeCache;
 import org.apache.lucene.search.didyoumean.dictionary.QueryException;
 import org.apache.lucene.search.didyoumean.secondlevel.token.SpanNearTokenPhraseSuggester;
 import org.apache.lucene.search.didyoumean.secondlevel.token.TermTokenPhraseSuggester;
 import org.apache.lucene.search.didyoumean.secondlevel.token.SecondLevelTokenPhraseSuggester;
 import org.apache.lucene.search.didyoumean.secondlevel.token.TokenPhraseSuggester;
+import org.apache.lucene.search.didyoumean.secondlevel.token.automaton.LevenshteinTokenSuggester;
 import org.apache.lucene.search.didyoumean.secondlevel.token.ngram.NgramTokenSuggester;
 import org.apache.lucene.search.didyoumean.secondlevel.token.ngram.TermEnumIterator;
 import org.apache.lucene.search.didyoumean.session.*;
@@ -37,6 +39,7 @@ import org.apache.lucene.util.Version;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -222,6 +225,10 @@ public class SuggestionFacade<R> {
 
   /**
    * Compiles algorithmic second level suggesters based on the data in the dictionary.
+   * The n-gram indexes are instantiated, so their tokens can't be updated with
+   * {@link #indexSecondLevelTokens} once built. Use
+   * {@link #secondLevelSuggestionFactory(IndexFacadeFactory)} with Directory
+   * indexes for that.
    *
    * @return
    * @throws IOException
@@ -285,6 +292,7 @@ public class SuggestionFacade<R> {
     NgramTokenSuggester ngramTokenSuggester = new NgramTokenSuggester(aprioriNgramIndex);
     IndexReader aprioriIndexReader = aprioriIndex.indexReaderFactory();
     ngramTokenSuggester.indexDictionary(new TermEnumIterator(aprioriIndexReader, aprioriField), minNgramSize);
+    ngramTokenSuggester.optimize();
     aprioriIndexReader.close();
 
     TokenPhraseSuggester phraseSuggester = new SpanNearTokenPhraseSuggester(
@@ -297,16 +305,124 @@ public class SuggestionFacade<R> {
       systemNgramIndex.indexWriterFactory(null, true).close(); // reset
       NgramTokenSuggester sysetmNgramTokenSuggester = new NgramTokenSuggester(systemNgramIndex);
       IndexReader systemIndexReader = systemIndex.indexReaderFactory();
-      ngramTokenSuggester.indexDictionary(new TermEnumIterator(systemIndexReader, systemIndexField), minNgramSize);
+      sysetmNgramTokenSuggester.indexDictionary(new TermEnumIterator(systemIndexReader, systemIndexField), minNgramSize);
+      sysetmNgramTokenSuggester.optimize();
       systemIndexReader.close();
 
       ret.put(new TermTokenPhraseSuggester(
                  sysetmNgramTokenSuggester, systemIndexField, true, maxSuggestionsPerWord, analyzer, systemIndex), 1d);
     }
 
+    // Queries the old suggesters could not fix may be fixable now
+    clearSecondLevelNegativeCache();
+
+    return ret;
+  }
+
+  /**
+   * Compiles an algorithmic second level suggester based on the data in the dictionary,
+   * suggesting tokens with a {@link LevenshteinTokenSuggester} over the terms of the a priori corpus
+   * rather than from an ngram index.
+   *
+   * @return a second level suggester
+   * @throws IOException
+   * @see #levenshteinSecondLevelSuggestionFactory(IndexFacadeFactory, String, int, int)
+   */
+  public Map<SecondLevelSuggester, Double> levenshteinSecondLevelSuggestionFactory() throws IOException {
+    return levenshteinSecondLevelSuggestionFactory(
+        new IndexFacadeFactory() {
+          public IndexFacade factory() throws IOException {
+            return new InstantiatedIndexFacade(new InstantiatedIndex());
+          }
+        }, "apriori", 2, 7
+    );
+  }
+
+  /**
+   * Compiles an algorithmic second level suggester based on the data in the dictionary,
+   * like {@link #secondLevelSuggestionFactory(IndexFacadeFactory)}, but without building an ngram index.
+   * The terms of the a priori corpus are kept as a sorted term dictionary that
+   * a {@link LevenshteinTokenSuggester} runs the query tokens against.
+   *
+   * @param aprioriIndexFacadeFactory index in which to store the created a priori corpus
+   * @param aprioriField field in a priori index to store values
+   * @param maxEditDistance maximum number of edits between a query token and a suggested token. 2 makes sense.
+   * @param maxSuggestionsPerWord maximum number of suggestions per word in matrix. A maximum of n^w queries will be placed.
+   * @return a second level suggester
+   * @throws IOException
+   */
+  public Map<SecondLevelSuggester, Double> levenshteinSecondLevelSuggestionFactory(IndexFacadeFactory aprioriIndexFacadeFactory, String aprioriField, int maxEditDistance, int maxSuggestionsPerWord) throws IOException {
+    Map<SecondLevelSuggester, Double> ret = new HashMap<SecondLevelSuggester, Double>(1);
+
+    Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_CURRENT, Collections.emptySet());
+
+    System.out.println("Creating a priori corpus...");
+    IndexFacade aprioriIndex = aprioriIndexFacadeFactory.factory();
+
+    getAprioriCorpusFactory().factory(getDictionary(), getSuggester(), aprioriIndex, aprioriField, analyzer);
+
+    System.out.println("Creating term dictionary from a priori corpus terms...");
+    LevenshteinTokenSuggester tokenSuggester = new LevenshteinTokenSuggester(maxEditDistance);
+    IndexReader aprioriIndexReader = aprioriIndex.indexReaderFactory();
+    tokenSuggester.indexDictionary(new TermEnumIterator(aprioriIndexReader, aprioriField), 2);
+    aprioriIndexReader.close();
+
+    TokenPhraseSuggester phraseSuggester = new SpanNearTokenPhraseSuggester(
+                             tokenSuggester, aprioriField, false, maxSuggestionsPerWord, analyzer, aprioriIndex);
+    ret.put(new SecondLevelTokenPhraseSuggester(phraseSuggester), 3d);
+
+    // Queries the old suggesters could not fix may be fixable now
+    clearSecondLevelNegativeCache();
+
     return ret;
   }
 
+  /**
+   * Adds tokens to an n-gram token suggester the second level suggesters use,
+   * e.g. the terms of documents added to the system index since the suggesters
+   * were created. Queries the second level suggesters had no suggestions for
+   * may have some now, so the negative cache of the dictionary is cleared.
+   * Updating the token suggester directly leaves those queries unanswered
+   * until they expire from the cache.
+   * <p/>
+   * The n-gram index of the token suggester must be in a Directory, an
+   * instantiated index can't be updated once built.
+   *
+   * @param tokenSuggester a token suggester used by the second level suggesters
+   * @param tokens the tokens to add
+   * @param minTokenLength minimum size of token to be suggestable
+   * @throws IOException if the n-gram index could not be updated
+   * @throws UnsupportedOperationException if the n-gram index is instantiated
+   * @see NgramTokenSuggester#indexDictionary(java.util.Iterator, int)
+   */
+  public void indexSecondLevelTokens(NgramTokenSuggester tokenSuggester, Iterator<String> tokens, int minTokenLength) throws IOException {
+    tokenSuggester.indexDictionary(tokens, minTokenLength);
+    clearSecondLevelNegativeCache();
+  }
+
+  /**
+   * Removes tokens from an n-gram token suggester the second level suggesters
+   * use. Queries near the removed tokens get other candidates measured than
+   * before, so the negative cache of the dictionary is cleared as well.
+   *
+   * @param tokenSuggester a token suggester used by the second level suggesters
+   * @param tokens the tokens to remove
+   * @throws IOException if the n-gram index could not be updated
+   * @throws UnsupportedOperationException if the n-gram index is instantiated
+   * @see NgramTokenSuggester#removeFromDictionary(java.util.Iterator)
+   */
+  public void removeSecondLevelTokens(NgramTokenSuggester tokenSuggester, Iterator<String> tokens) throws IOException {
+    tokenSuggester.removeFromDictionary(tokens);
+    clearSecondLevelNegativeCache();
+  }
+
+  private void clearSecondLevelNegativeCache() {
+    NegativeCache negativeCache = getDictionary().getSecondLevelNegativeCache();
+    if (negativeCache != null) {
+      negativeCache.clear();
+    }
+  }
+
 
   public Dictionary getDictionary() {
     return dictionary;
@@ -0,0 +1,414 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import org.apache.lucene.search.didyoumean.SecondLevelSuggester;
+import org.apache.lucene.search.didyoumean.Suggester;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-through cache in front of any {@link Dictionary}. Lookups of cached
+ * query keys, including query keys without suggestions, are answered from
+ * memory without touching the backing dictionary.
+ * <p/>
+ * The cache holds at most {@code maxSize} query keys. It is split into
+ * segments. Cache hits take no lock: the entries of a segment are read from a
+ * concurrent map, and the frequency sketch and the recency of the entries are
+ * updated without locking, so they are only approximate. Loading, admitting
+ * and evicting entries locks the segment. When a segment is full, the victim
+ * is the oldest entry not read since the eviction last passed it (CLOCK, an
+ * approximation of LRU), and a newly loaded query key is only admitted if it
+ * has been looked up more often than the victim, as estimated by a small
+ * frequency sketch (TinyLFU). Since query popularity is heavily skewed, this
+ * keeps the head queries cached even when a burst of one-off queries passes
+ * through.
+ * <p/>
+ * {@link #put} writes through to the backing dictionary and invalidates the
+ * cached entry for the query key. {@link #prune} and {@link #optimize} clear
+ * the whole cache. Changes made to the backing dictionary directly are not
+ * seen until the entry is evicted or {@link #clear()} is called.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 11, 2010
+ */
+public class CachingDictionary extends Dictionary {
+
+  private static final int MAX_SEGMENTS = 16;
+
+  private final Dictionary backend;
+  private final Segment[] segments;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Create a cache of at most {@code maxSize} query keys in front of {@code backend}.
+   * The cache shares the second level suggesters of {@code backend}.
+   * @param backend the dictionary to cache lookups from
+   * @param maxSize the maximum number of query keys to cache
+   */
+  public CachingDictionary(Dictionary backend, int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be positive, was " + maxSize);
+    }
+    this.backend = backend;
+    this.prioritiesBySecondLevelSuggester = backend.getPrioritiesBySecondLevelSuggester();
+
+    int numSegments = 1;
+    while (numSegments < MAX_SEGMENTS && numSegments * 2 * 16 <= maxSize) {
+      numSegments *= 2;
+    }
+    segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      segments[i] = new Segment(maxSize / numSegments + (i < maxSize % numSegments ? 1 : 0));
+    }
+  }
+
+  /**
+   * @return the dictionary behind the cache
+   */
+  public Dictionary getBackend() {
+    return backend;
+  }
+
+  @Override
+  public String formatQueryKey(String userQuery) {
+    return backend.formatQueryKey(userQuery);
+  }
+
+  @Override
+  public long queryKeyHash(String userQuery) {
+    return backend.queryKeyHash(userQuery);
+  }
+
+  @Override
+  public boolean isQueryKeyOf(String userQuery, String queryKey) {
+    return backend.isQueryKeyOf(userQuery, queryKey);
+  }
+
+  @Override
+  public QueryKeyNormalizer getQueryKeyNormalizer() {
+    return backend.getQueryKeyNormalizer();
+  }
+
+  /**
+   * Set the query key normalizer of the backing dictionary and clear the cache
+   * @param queryKeyNormalizer the normalizer to use
+   */
+  @Override
+  public void setQueryKeyNormalizer(QueryKeyNormalizer queryKeyNormalizer) {
+    backend.setQueryKeyNormalizer(queryKeyNormalizer);
+    clear();
+  }
+
+  @Override
+  public void setPrioritiesBySecondLevelSuggester(Map<SecondLevelSuggester, Double> prioritiesBySecondLevelSuggester) {
+    super.setPrioritiesBySecondLevelSuggester(prioritiesBySecondLevelSuggester);
+    backend.setPrioritiesBySecondLevelSuggester(prioritiesBySecondLevelSuggester);
+  }
+
+  @Override
+  public SuggestionList getSuggestions(String query) throws QueryException {
+    // Cache hits are found by the 64 bit hash of the query key, without building the query key
+    long keyHash = queryKeyHash(query);
+    int hash = spread(keyHash);
+    Segment segment = segments[(hash >>> 16) & (segments.length - 1)];
+
+    segment.sketch.increment(hash);
+    Entry cached = segment.map.get(keyHash);
+    if (cached != null && isQueryKeyOf(query, cached.suggestions.getQueryKey())) {
+      if (!cached.referenced) {
+        cached.referenced = true;
+      }
+      hits.incrementAndGet();
+      // Cached lists are never changed, so they are copied without locking
+      return new SuggestionList(cached.suggestions);
+    }
+    // Read before loading, a put of the query key after this is seen below
+    int invalidations = segment.invalidations;
+
+    misses.incrementAndGet();
+    String queryKey = formatQueryKey(query);
+    SuggestionList suggestions = backend.getSuggestions(queryKey);
+    Entry loaded = new Entry(keyHash, new SuggestionList(suggestions));
+
+    synchronized (segment) {
+      // Don't cache what we loaded if a put may have changed it meanwhile.
+      // On the (very unlikely) collision of two query keys, the last one loaded wins
+      if (segment.invalidations == invalidations) {
+        if (segment.map.containsKey(keyHash)) {
+          segment.add(loaded);
+        } else {
+          segment.admit(loaded, hash);
+        }
+      }
+    }
+    return suggestions;
+  }
+
+  @Override
+  public void put(SuggestionList suggestions) {
+    backend.put(suggestions);
+    invalidate(suggestions.getQueryKey());
+  }
+
+  @Override
+  public void update(String query, Update update) throws QueryException {
+    String queryKey = formatQueryKey(query);
+    backend.update(queryKey, update);
+    invalidate(queryKey);
+  }
+
+  @Override
+  public void optimize(Suggester suggester) throws IOException {
+    backend.optimize(suggester);
+    clear();
+  }
+
+  @Override
+  public void prune(int maxSize, double maxScoreGap, double minTopScore) throws IOException {
+    backend.prune(maxSize, maxScoreGap, minTopScore);
+    clear();
+  }
+
+  @Override
+  public void close() throws IOException {
+    clear();
+    backend.close();
+  }
+
+  @Override
+  public int size() {
+    return backend.size();
+  }
+
+  /**
+   * Iterate over the suggestion lists of the backing dictionary. Removing a
+   * list through the iterator also invalidates it in the cache.
+   * @return an iterator over all suggestion lists in the backing dictionary
+   */
+  public Iterator<SuggestionList> iterator() {
+    final Iterator<SuggestionList> it = backend.iterator();
+    return new Iterator<SuggestionList>() {
+      private SuggestionList current;
+
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      public SuggestionList next() {
+        current = it.next();
+        return current;
+      }
+
+      public void remove() {
+        it.remove();
+        invalidate(current.getQueryKey());
+      }
+    };
+  }
+
+  /**
+   * Drop {@code queryKey} from the cache
+   * @param queryKey the query key to invalidate
+   */
+  public void invalidate(String queryKey) {
+    long keyHash = hashQueryKey(queryKey);
+    Segment segment = segments[(spread(keyHash) >>> 16) & (segments.length - 1)];
+    synchronized (segment) {
+      segment.remove(keyHash);
+      segment.invalidations++;
+    }
+  }
+
+  /**
+   * Drop all entries from the cache. The hit, miss and eviction counters are kept
+   */
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.map.clear();
+        segment.clock.clear();
+        segment.invalidations++;
+      }
+    }
+  }
+
+  /**
+   * @return the number of lookups answered from the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of lookups passed on to the backing dictionary
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of entries evicted to make room for more frequently used ones
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * @return the number of query keys currently cached
+   */
+  public int getCachedSize() {
+    int size = 0;
+    for (Segment segment : segments) {
+      size += segment.map.size();
+    }
+    return size;
+  }
+
+  private static int spread(long keyHash) {
+    return mixHash((int) (keyHash ^ (keyHash >>> 32)));
+  }
+
+  /**
+   * A cached suggestion list, never changed once cached, and whether it has
+   * been read since the eviction last passed it
+   */
+  private static class Entry {
+    final long keyHash;
+    final SuggestionList suggestions;
+    // Set by readers without locking, a lost update only makes eviction less exact
+    boolean referenced = false;
+
+    Entry(long keyHash, SuggestionList suggestions) {
+      this.keyHash = keyHash;
+      this.suggestions = suggestions;
+    }
+  }
+
+  /**
+   * A map from query key hashes to suggestion lists with CLOCK eviction and
+   * TinyLFU admission. The map is read without locking, all changes to it and
+   * to the clock are made holding the monitor of the segment
+   */
+  private class Segment {
+    final int capacity;
+    final ConcurrentHashMap<Long,Entry> map;
+    /** The entries of the map, oldest first */
+    final LinkedHashMap<Long,Entry> clock;
+    final FrequencySketch sketch;
+    volatile int invalidations = 0;
+
+    Segment(int capacity) {
+      this.capacity = capacity;
+      map = new ConcurrentHashMap<Long,Entry>();
+      clock = new LinkedHashMap<Long,Entry>();
+      sketch = new FrequencySketch(capacity);
+    }
+
+    void add(Entry entry) {
+      clock.remove(entry.keyHash);
+      clock.put(entry.keyHash, entry);
+      map.put(entry.keyHash, entry);
+    }
+
+    void remove(long keyHash) {
+      clock.remove(keyHash);
+      map.remove(keyHash);
+    }
+
+    void admit(Entry entry, int hash) {
+      if (clock.size() < capacity) {
+        add(entry);
+        return;
+      }
+
+      Entry victim = victim();
+      if (sketch.frequency(hash) > sketch.frequency(spread(victim.keyHash))) {
+        remove(victim.keyHash);
+        add(entry);
+        evictions.incrementAndGet();
+      }
+    }
+
+    /**
+     * @return the oldest entry not read since it was last passed over. Entries
+     *         read meanwhile get a second chance at the back of the clock
+     */
+    private Entry victim() {
+      // Readers keep marking entries, so give up after a full round
+      for (int i = clock.size(); i > 0; i--) {
+        Iterator<Entry> eldest = clock.values().iterator();
+        Entry entry = eldest.next();
+        if (!entry.referenced) {
+          return entry;
+        }
+        entry.referenced = false;
+        eldest.remove();
+        clock.put(entry.keyHash, entry);
+      }
+      return clock.values().iterator().next();
+    }
+  }
+
+  /**
+   * A count-min sketch of 4 bit counters estimating how often keys are looked
+   * up. All counters are halved periodically, so old popularity fades out.
+   * Cache hits increment it without locking, so concurrent increments may be
+   * lost, which only makes the estimate a little lower
+   */
+  private static class FrequencySketch {
+    private static final int[] SEEDS = {0x97cb3127, 0xb9e1f2a3, 0xc2b2ae35, 0x85ebca6b};
+    private static final int MAX_COUNT = 15;
+
+    final byte[] counters;
+    final int mask;
+    final int sampleSize;
+    int additions = 0;
+
+    FrequencySketch(int capacity) {
+      int size = 64;
+      while (size < capacity * 4 && size < (1 << 24)) {
+        size *= 2;
+      }
+      counters = new byte[size];
+      mask = size - 1;
+      sampleSize = 10 * Math.max(capacity, 16);
+    }
+
+    void increment(int hash) {
+      for (int i = 0; i < SEEDS.length; i++) {
+        int index = indexOf(hash, i);
+        byte count = counters[index];
+        if (count < MAX_COUNT) {
+          counters[index] = (byte) (count + 1);
+        }
+      }
+      // At least, as racing increments may skip the sample size
+      if (++additions >= sampleSize) {
+        for (int i = 0; i < counters.length; i++) {
+          counters[i] >>= 1;
+        }
+        additions = 0;
+      }
+    }
+
+    int frequency(int hash) {
+      int frequency = MAX_COUNT;
+      for (int i = 0; i < SEEDS.length; i++) {
+        frequency = Math.min(frequency, counters[indexOf(hash, i)]);
+      }
+      return frequency;
+    }
+
+    private int indexOf(int hash, int i) {
+      int h = (hash + SEEDS[i]) * SEEDS[i];
+      return (h ^ (h >>> 17)) & mask;
+    }
+  }
+}
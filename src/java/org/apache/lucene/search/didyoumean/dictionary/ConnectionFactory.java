@@ -0,0 +1,17 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Creates new connections to the database backing a {@link JDBCDictionary}.
+ * All connections returned by a factory must talk to the same database.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 9, 2010
+ */
+public interface ConnectionFactory {
+
+  public abstract Connection factory() throws SQLException;
+
+}
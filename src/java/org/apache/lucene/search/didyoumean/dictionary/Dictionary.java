@@ -15,6 +15,7 @@ package org.apache.lucene.search.didyoumean.dictionary;
  *
  */
 
+import org.apache.lucene.search.didyoumean.AbstractSuggester;
 import org.apache.lucene.search.didyoumean.SecondLevelSuggester;
 import org.apache.lucene.search.didyoumean.Suggester;
 import org.apache.lucene.search.didyoumean.Suggestion;
@@ -24,7 +25,10 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Essentially a dictionary with a bunch of weighted suggestions, created by a
@@ -39,8 +43,20 @@ import java.util.Map;
  */
 public abstract class Dictionary implements Iterable<SuggestionList> {
 
+  /**
+   * The maximum number of nested suggestions followed by {@link #collapseSuggestionChains}
+   */
+  public static final int MAX_CHAIN_LENGTH = 100;
+
   protected Map<SecondLevelSuggester, Double> prioritiesBySecondLevelSuggester = new HashMap<SecondLevelSuggester, Double>();
 
+  private volatile NegativeCache secondLevelNegativeCache = new NegativeCache();
+
+  private volatile QueryKeyNormalizer queryKeyNormalizer = LetterQueryKeyNormalizer.INSTANCE;
+
+  static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  static final long FNV_PRIME = 0x100000001b3L;
+
   /**
    * Create a new {@link SuggestionList} for {@code query}. The query will automatically be
    * converted to a query key internally by calling {@link #formatQueryKey}.
@@ -53,8 +69,8 @@ public abstract class Dictionary implements Iterable<SuggestionList> {
 
   /**
    * Calculate a normalized <i>query key</i> for a user query. The query key is used
-   * for dictionary lookups. The default implementation strips all non-letter characters
-   * from {@code userQuery} and converts it to lowercase.
+   * for dictionary lookups. By default all non-letter characters are stripped
+   * from {@code userQuery} and the rest is converted to lowercase.
    * <p/>
    * Using query keys enables features such as <i>"allwork and no fun"</i> suggesting
    * <i>"all work and no fun"</i>.
@@ -63,20 +79,98 @@ public abstract class Dictionary implements Iterable<SuggestionList> {
    * everything the users type in might consume a lot of resources.
    * See {@link org.apache.lucene.search.didyoumean.impl.DefaultTrainer#setTrainingFinalGoalAsSelf(boolean)} ()}
    *
+   * <p/>
+   * The query key is calculated by the {@link #getQueryKeyNormalizer() query key normalizer}
+   * of the dictionary, by default a {@link LetterQueryKeyNormalizer}.
+   * Subclasses overriding this method must override {@link #queryKeyHash} and
+   * {@link #isQueryKeyOf} accordingly.
+   *
    * @param userQuery the user string to calculate the query key for
-   * @return {@code userQuery} stripped from all non-letter characters and converted to lower case
+   * @return the query key for {@code userQuery}
    */
   public String formatQueryKey(String userQuery) {
-    // This implementation is an (much) optimized version of:
-    //  return userQuery.replaceAll("\\p{Punct}", "").replaceAll("\\s", "").toLowerCase();
-    StringBuilder buf = new StringBuilder(userQuery.length());
-    for (int i = 0; i < userQuery.length(); i++) {
-      char c = userQuery.charAt(i);
-      if (Character.isLetter(c)) {
-        buf.append(Character.toLowerCase(c));
-      }
-    }    
-    return buf.toString();
+    return queryKeyNormalizer.normalize(userQuery);
+  }
+
+  /**
+   * Calculate a 64 bit hash of the query key for {@code userQuery}. For all queries
+   * {@code queryKeyHash(q) == hashQueryKey(formatQueryKey(q))}. With the default
+   * normalizer the hash is calculated without building the query key.
+   *
+   * @param userQuery the user string to calculate the query key hash for
+   * @return the 64 bit hash of the query key for {@code userQuery}
+   */
+  public long queryKeyHash(String userQuery) {
+    QueryKeyNormalizer normalizer = queryKeyNormalizer;
+    if (normalizer instanceof LetterQueryKeyNormalizer) {
+      return ((LetterQueryKeyNormalizer) normalizer).hash(userQuery);
+    }
+    return hashQueryKey(normalizer.normalize(userQuery));
+  }
+
+  /**
+   * Check whether {@code queryKey} is the query key for {@code userQuery}. With the
+   * default normalizer this is done without building the query key for {@code userQuery}
+   *
+   * @param userQuery the user string
+   * @param queryKey a query key
+   * @return {@code formatQueryKey(userQuery).equals(queryKey)}
+   */
+  public boolean isQueryKeyOf(String userQuery, String queryKey) {
+    QueryKeyNormalizer normalizer = queryKeyNormalizer;
+    if (normalizer instanceof LetterQueryKeyNormalizer) {
+      return ((LetterQueryKeyNormalizer) normalizer).isNormalizedFormOf(userQuery, queryKey);
+    }
+    return normalizer.normalize(userQuery).equals(queryKey);
+  }
+
+  /**
+   * Calculate the 64 bit FNV-1a hash of the chars of a query key
+   *
+   * @param queryKey a query key as returned by {@link #formatQueryKey}
+   * @return the 64 bit hash of {@code queryKey}
+   * @see #queryKeyHash
+   */
+  public static long hashQueryKey(String queryKey) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < queryKey.length(); i++) {
+      hash = (hash ^ queryKey.charAt(i)) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * Spread the bits of a hash code so that tables indexed by either its low or
+   * its high bits are filled evenly, even by hash codes such as those of short
+   * strings that only differ in their low bits
+   *
+   * @param h the hash code to mix
+   * @return the mixed hash code
+   */
+  static int mixHash(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return the normalizer calculating the query keys of this dictionary
+   */
+  public QueryKeyNormalizer getQueryKeyNormalizer() {
+    return queryKeyNormalizer;
+  }
+
+  /**
+   * Set the normalizer calculating the query keys of this dictionary. This changes
+   * which query keys existing suggestions are found under, so it should be set before
+   * the dictionary is trained, and a persistent dictionary must always be opened with
+   * the normalizer it was trained with.
+   * @param queryKeyNormalizer the normalizer to use
+   */
+  public void setQueryKeyNormalizer(QueryKeyNormalizer queryKeyNormalizer) {
+    if (queryKeyNormalizer == null) {
+      throw new NullPointerException("queryKeyNormalizer");
+    }
+    this.queryKeyNormalizer = queryKeyNormalizer;
   }
 
   /**
@@ -96,12 +190,31 @@ public abstract class Dictionary implements Iterable<SuggestionList> {
    * {@link org.apache.lucene.search.didyoumean.SecondLevelSuggester}
    * <p/>
    * This metod also adds the suggestion to the dictionary!
+   * <p/>
+   * Queries the second level suggesters have no suggestions for are remembered in the
+   * {@link #getSecondLevelNegativeCache() negative cache} for a while.
    *
    * @param query the user input
    * @param n     number of suggestions requested
    * @return the best suggestion the second level suggesters could come up with
    */
   public Suggestion[] getSecondLevelSuggestion(String query, int n) throws QueryException {
+    if (prioritiesBySecondLevelSuggester.isEmpty()) {
+      return null;
+    }
+
+    // Skip queries the current second level suggesters recently failed to fix.
+    // New suggesters have new hash codes, which clears the cache
+    String queryKey = null;
+    NegativeCache negativeCache = secondLevelNegativeCache;
+    if (negativeCache != null) {
+      queryKey = formatQueryKey(query);
+      negativeCache.validate(prioritiesBySecondLevelSuggester.hashCode());
+      if (negativeCache.contains(queryKey)) {
+        return null;
+      }
+    }
+
     Map<String, Suggestion> suggestionsBySuggested = new HashMap<String, Suggestion>();
     for (Map.Entry<SecondLevelSuggester, Double> suggester_boost : prioritiesBySecondLevelSuggester.entrySet()) {
       SuggestionPriorityQueue suggestions = suggester_boost.getKey().suggest(query);
@@ -119,6 +232,9 @@ public abstract class Dictionary implements Iterable<SuggestionList> {
     }
 
     if (suggestionsBySuggested.size() == 0) {
+      if (negativeCache != null) {
+        negativeCache.add(queryKey);
+      }
       return null;
     }
 
@@ -137,18 +253,20 @@ public abstract class Dictionary implements Iterable<SuggestionList> {
   }
 
   /**
-   * Used to extract bootstrapped a priori corpus from the dictionary
+   * Used to extract bootstrapped a priori corpus from the dictionary. The whole inverted
+   * dictionary is kept in memory, large dictionaries should use {@link #invertedIterator()}.
    * @return a map where suggestion is key and the value is a list of misspelled words that suggests the key.
    * @throws QueryException
    * @see org.apache.lucene.search.didyoumean.SuggestionFacade#secondLevelSuggestionFactory()
    */
   public Map<String, SuggestionList> inverted() throws QueryException {
 
-    // todo use a temporary bdb for this so we dont run out of memory
-
     Map<String, SuggestionList> inverted = new HashMap<String, SuggestionList>();
 
     for (SuggestionList suggestions : this) {
+      if (suggestions.size() == 0) {
+        continue;
+      }
       Suggestion s = suggestions.get(0);
 
       SuggestionList sl = inverted.get(s.getSuggested());
@@ -156,12 +274,114 @@ public abstract class Dictionary implements Iterable<SuggestionList> {
         sl = new SuggestionList(s.getSuggested());
         inverted.put(s.getSuggested(), sl);
       }
-      sl.addSuggested(sl.getQueryKey(), s.getScore(), s.getCorpusQueryResults());
+      sl.addSuggested(suggestions.getQueryKey(), s.getScore(), s.getCorpusQueryResults());
     }
 
     return inverted;
   }
 
+  /**
+   * Collapse suggestion chains for the given query keys. If the top suggestion
+   * for a query key in its own turn has a top suggestion that the suggester
+   * prefers, as decided by {@link AbstractSuggester#isNestedSuggestionPreferred},
+   * the chain is followed to its end and the top suggestion is rewritten to
+   * suggest the final target directly. Chains that lead back to a query
+   * already seen, or that are longer than {@link #MAX_CHAIN_LENGTH}, are left
+   * untouched, as the suggester would give up on them in real time too.
+   * <p/>
+   * This is intended as a helper for implementations of {@link #optimize}.
+   * Suggesters not extending {@link AbstractSuggester} never prefer a nested
+   * suggestion, so nothing is changed for them.
+   *
+   * @param suggester the suggester deciding whether to follow a nested suggestion
+   * @param queryKeys the query keys to collapse chains for
+   * @return the number of query keys that were rewritten
+   * @throws QueryException if there is an error looking up suggestions
+   */
+  protected int collapseSuggestionChains(Suggester suggester, Iterable<String> queryKeys) throws QueryException {
+    if (!(suggester instanceof AbstractSuggester)) {
+      return 0;
+    }
+    AbstractSuggester abstractSuggester = (AbstractSuggester) suggester;
+
+    int collapsed = 0;
+    Set<String> visited = new HashSet<String>();
+    for (String queryKey : queryKeys) {
+      SuggestionList suggestions = getSuggestions(queryKey);
+      if (suggestions.size() == 0) {
+        continue;
+      }
+
+      Suggestion top = suggestions.get(0);
+      Suggestion current = top;
+      visited.clear();
+      visited.add(suggestions.getQueryKey());
+      boolean broken = false;
+      for (int i = 0; ; i++) {
+        if (!visited.add(formatQueryKey(current.getSuggested())) || i == MAX_CHAIN_LENGTH) {
+          broken = true;
+          break;
+        }
+        SuggestionList nestedSuggestions = getSuggestions(current.getSuggested());
+        if (nestedSuggestions.size() == 0
+            || !abstractSuggester.isNestedSuggestionPreferred(current, nestedSuggestions.get(0))) {
+          break;
+        }
+        current = nestedSuggestions.get(0);
+      }
+
+      if (broken || current == top || current.getSuggested().equals(top.getSuggested())) {
+        continue;
+      }
+
+      // Point the top suggestion at the final target, dropping any other
+      // suggestion of the same target, as it would suggest the same thing
+      SuggestionList rewritten = suggestionListFactory(suggestions.getQueryKey());
+      rewritten.addSuggested(current.getSuggested(), top.getScore(), current.getCorpusQueryResults());
+      for (int i = 1; i < suggestions.size(); i++) {
+        Suggestion suggestion = suggestions.get(i);
+        if (!rewritten.containsSuggested(suggestion.getSuggested())) {
+          rewritten.addSuggested(suggestion.getSuggested(), suggestion.getScore(), suggestion.getCorpusQueryResults());
+        }
+      }
+      put(rewritten);
+      collapsed++;
+    }
+    return collapsed;
+  }
+
+  /**
+   * Like {@link #inverted()}, but streams the inverted suggestion lists ordered
+   * by suggested string instead of collecting them in a map. The inversion is
+   * done by an external sort, so the heap used does not depend on the size of
+   * the dictionary. See {@link DictionaryInverter}.
+   * @return an iterator over the inverted suggestion lists
+   * @throws IOException if there is an error writing or reading the temporary files
+   */
+  public Iterator<SuggestionList> invertedIterator() throws IOException {
+    return new DictionaryInverter().invert(this);
+  }
+
+  /**
+   * @return the cache of query keys the second level suggesters have no suggestions for,
+   *         or {@code null} if there is none
+   * @see #getSecondLevelSuggestion
+   */
+  public NegativeCache getSecondLevelNegativeCache() {
+    return secondLevelNegativeCache;
+  }
+
+  /**
+   * Set the cache of query keys the second level suggesters have no suggestions for.
+   * The cache is cleared automatically when the second level suggesters change, but
+   * must be cleared explicitly if a second level suggester is rebuilt in place.
+   * @param secondLevelNegativeCache the cache to use, or {@code null} to always ask
+   *                                 the second level suggesters
+   */
+  public void setSecondLevelNegativeCache(NegativeCache secondLevelNegativeCache) {
+    this.secondLevelNegativeCache = secondLevelNegativeCache;
+  }
+
   public Map<SecondLevelSuggester, Double> getPrioritiesBySecondLevelSuggester() {
     return prioritiesBySecondLevelSuggester;
   }
@@ -193,23 +413,119 @@ public abstract class Dictionary implements Iterable<SuggestionList> {
    */
   public abstract void put(SuggestionList suggestions);
 
+  /**
+   * A change to the suggestion list of a query, see {@link Dictionary#update}
+   */
+  public interface Update {
+    /**
+     * Change {@code suggestions} in place. The update may be applied more than
+     * once, each time to a fresh copy of the stored list, so it must not have
+     * side effects besides changing the list.
+     * @param suggestions a copy of the stored list, or an empty list if the query has none
+     * @return true if the list was changed and should be stored
+     */
+    public boolean apply(SuggestionList suggestions);
+  }
+
+  /**
+   * Atomically change the suggestion list of a query. Unlike getting the list,
+   * changing it and putting it back, two updates of the same query at the same
+   * time never lose each others changes.
+   * <p/>
+   * The default implementation serializes all updates of the dictionary, it is
+   * not atomic with respect to concurrent calls to {@link #put}. Subclasses
+   * should override it when they can do better.
+   *
+   * @param query  unformatted key
+   * @param update the change to make
+   * @throws QueryException if the suggestions could not be looked up
+   */
+  public synchronized void update(String query, Update update) throws QueryException {
+    SuggestionList suggestions = getSuggestions(query);
+    if (suggestions == null) {
+      suggestions = suggestionListFactory(query);
+    }
+    if (update.apply(suggestions)) {
+      put(suggestions);
+    }
+  }
+
   /**
    * Scans the dictionary for queries that suggests a query
    * that in their own turn suggest something else.
    * These bad suggestions will be replaced by the final suggestion,
    * so that the suggester don't have to spend clock ticks doing this in real time. 
    *
-   * @param suggester
+   * @param suggester the suggester deciding which nested suggestions are better
+   * @see #collapseSuggestionChains
    */
   public abstract void optimize(Suggester suggester) throws IOException;
 
   /**
    * Removes excess suggestions that probably never be suggested,
-   * for instance those with too great distance from top suggestion.
+   * keeping at most the {@code maxSize} best suggestions for each query key.
+   *
+   * @param maxSize the maximum number of suggestions for a given query
+   * @see #prune(int, double, double)
+   */
+  public void prune(int maxSize) throws IOException {
+    prune(maxSize, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+  }
+
+  /**
+   * Removes excess suggestions that probably never be suggested. For each query key
+   * the suggestions are pruned by these policies:
+   * <ul>
+   *   <li>keep at most the {@code maxSize} best suggestions</li>
+   *   <li>remove suggestions scoring more than {@code maxScoreGap} below the
+   *       top suggestion</li>
+   *   <li>remove the query key altogether if the top suggestion scores below
+   *       {@code minTopScore}, typically the suppression threshold of the suggester
+   *       as such a query key never produces a suggestion</li>
+   * </ul>
+   * Query keys left without any suggestions are removed from the dictionary.
+   *
+   * @param maxSize the maximum number of suggestions for a given query
+   * @param maxScoreGap the maximum score difference to the top suggestion, or
+   *                    {@link Double#POSITIVE_INFINITY} to keep all
+   * @param minTopScore the minimum score of the top suggestion, or
+   *                    {@link Double#NEGATIVE_INFINITY} to keep all
+   * @see #prunedSize
+   */
+  public abstract void prune(int maxSize, double maxScoreGap, double minTopScore) throws IOException;
+
+  /**
+   * Calculate how many of the top suggestions in {@code suggestions} to keep when pruning
+   * with the policies described in {@link #prune(int, double, double)}. The suggestions must
+   * be sorted, best first.
    *
+   * @param suggestions the suggestion list to prune
    * @param maxSize the maximum number of suggestions for a given query
+   * @param maxScoreGap the maximum score difference to the top suggestion
+   * @param minTopScore the minimum score of the top suggestion
+   * @return the number of suggestions to keep. If this is zero the query key should be removed
    */
-  public abstract void prune(int maxSize) throws IOException;
+  protected static int prunedSize(SuggestionList suggestions, int maxSize, double maxScoreGap, double minTopScore) {
+    int size = Math.min(maxSize, suggestions.size());
+    if (size <= 0) {
+      return 0;
+    }
+
+    // A single pass with the iterator, get(int) is linear in the default form
+    Iterator<Suggestion> it = suggestions.iterator();
+    double topScore = it.next().getScore();
+    if (topScore < minTopScore) {
+      return 0;
+    }
+    if (maxScoreGap != Double.POSITIVE_INFINITY) {
+      for (int i = 1; i < size; i++) {
+        if (topScore - it.next().getScore() > maxScoreGap) {
+          return i;
+        }
+      }
+    }
+    return size;
+  }
 
   /**
    * Returns the number of unique query keys stored in the dictionary
@@ -0,0 +1,369 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import org.apache.lucene.search.didyoumean.Suggestion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Inverts a dictionary with an external merge sort, so the heap needed does
+ * not depend on the size of the dictionary.
+ * <p/>
+ * The top suggestion of each suggestion list is turned into an entry
+ * <i>(suggested, query key, score, corpus query results)</i>. Entries are
+ * buffered, sorted and spilled to temporary files in runs of
+ * {@code maxBufferedEntries}. The runs are then merged, at most
+ * {@code maxMergeFanIn} at a time, and the merged stream is grouped by
+ * suggested string into inverted suggestion lists. Each inverted list has
+ * the suggested string as its query key and the query keys suggesting it as
+ * suggestions, just like the lists from {@link Dictionary#inverted()}.
+ * <p/>
+ * The dictionary is read to the end before the first inverted list is
+ * returned, so it is safe to look up suggestions in the dictionary while
+ * consuming the inverted lists. Temporary files are deleted when the
+ * iterator is exhausted.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 10, 2010
+ */
+public class DictionaryInverter {
+
+  public static final int DEFAULT_MAX_BUFFERED_ENTRIES = 100000;
+  public static final int DEFAULT_MAX_MERGE_FAN_IN = 64;
+
+  private static final int NO_RESULTS = Integer.MIN_VALUE;
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+  private static final Comparator<Entry> entryComparator = new Comparator<Entry>() {
+    public int compare(Entry e1, Entry e2) {
+      int cmp = e1.suggested.compareTo(e2.suggested);
+      return cmp != 0 ? cmp : e1.queryKey.compareTo(e2.queryKey);
+    }
+  };
+
+  private final File tmpDir;
+  private final int maxBufferedEntries;
+  private final int maxMergeFanIn;
+
+  /**
+   * Create an inverter spilling to the default temporary directory with the
+   * default buffer size and merge fan in
+   */
+  public DictionaryInverter() {
+    this(null, DEFAULT_MAX_BUFFERED_ENTRIES, DEFAULT_MAX_MERGE_FAN_IN);
+  }
+
+  /**
+   * @param tmpDir directory for the temporary run files, or {@code null} for the
+   *               default temporary directory
+   * @param maxBufferedEntries the number of entries to sort in memory before
+   *                           spilling them to a run file
+   * @param maxMergeFanIn the maximum number of run files to merge at a time
+   */
+  public DictionaryInverter(File tmpDir, int maxBufferedEntries, int maxMergeFanIn) {
+    if (maxBufferedEntries < 1) {
+      throw new IllegalArgumentException("maxBufferedEntries must be positive, was " + maxBufferedEntries);
+    }
+    if (maxMergeFanIn < 2) {
+      throw new IllegalArgumentException("maxMergeFanIn must be at least 2, was " + maxMergeFanIn);
+    }
+    this.tmpDir = tmpDir;
+    this.maxBufferedEntries = maxBufferedEntries;
+    this.maxMergeFanIn = maxMergeFanIn;
+  }
+
+  /**
+   * Invert {@code dictionary}, see the class docs
+   * @param dictionary the suggestion lists to invert
+   * @return the inverted suggestion lists, ordered by their query key
+   * @throws IOException if there is an error writing or reading the run files
+   */
+  public Iterator<SuggestionList> invert(Iterable<SuggestionList> dictionary) throws IOException {
+    List<File> runs = new ArrayList<File>();
+    try {
+      List<Entry> buffer = new ArrayList<Entry>();
+      for (SuggestionList suggestions : dictionary) {
+        if (suggestions.size() == 0) {
+          continue;
+        }
+        Suggestion top = suggestions.get(0);
+        Integer results = top.getCorpusQueryResults();
+        buffer.add(new Entry(top.getSuggested(), suggestions.getQueryKey(),
+                             top.getScore(), results == null ? NO_RESULTS : results));
+        if (buffer.size() == maxBufferedEntries) {
+          runs.add(spill(buffer));
+          buffer.clear();
+        }
+      }
+      if (!buffer.isEmpty() || runs.isEmpty()) {
+        runs.add(spill(buffer));
+      }
+
+      while (runs.size() > maxMergeFanIn) {
+        List<File> merged = new ArrayList<File>();
+        for (int i = 0; i < runs.size(); i += maxMergeFanIn) {
+          merged.add(merge(runs.subList(i, Math.min(i + maxMergeFanIn, runs.size()))));
+        }
+        runs = merged;
+      }
+      return new InvertedIterator(runs);
+    } catch (IOException e) {
+      delete(runs);
+      throw e;
+    } catch (RuntimeException e) {
+      delete(runs);
+      throw e;
+    }
+  }
+
+  private File spill(List<Entry> buffer) throws IOException {
+    Collections.sort(buffer, entryComparator);
+    File file = File.createTempFile("didyoumean-inverted", ".run", tmpDir);
+    boolean written = false;
+    try {
+      DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE));
+      try {
+        out.writeInt(buffer.size());
+        for (Entry entry : buffer) {
+          entry.write(out);
+        }
+      } finally {
+        out.close();
+      }
+      written = true;
+    } finally {
+      if (!written) {
+        file.delete();
+      }
+    }
+    return file;
+  }
+
+  /**
+   * Merge {@code runs} into a new run file, deleting them
+   */
+  private File merge(List<File> runs) throws IOException {
+    Merger merger = new Merger(runs);
+    boolean written = false;
+    File file = null;
+    try {
+      file = File.createTempFile("didyoumean-inverted", ".run", tmpDir);
+      DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE));
+      try {
+        out.writeInt(merger.remaining);
+        for (Entry entry = merger.next(); entry != null; entry = merger.next()) {
+          entry.write(out);
+        }
+      } finally {
+        out.close();
+      }
+      written = true;
+    } finally {
+      merger.close();
+      if (!written && file != null) {
+        file.delete();
+      }
+    }
+    return file;
+  }
+
+  private static void delete(List<File> files) {
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  private static class Entry {
+    final String suggested;
+    final String queryKey;
+    final double score;
+    final int results;
+
+    Entry(String suggested, String queryKey, double score, int results) {
+      this.suggested = suggested;
+      this.queryKey = queryKey;
+      this.score = score;
+      this.results = results;
+    }
+
+    static Entry read(DataInputStream in) throws IOException {
+      return new Entry(in.readUTF(), in.readUTF(), in.readDouble(), in.readInt());
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeUTF(suggested);
+      out.writeUTF(queryKey);
+      out.writeDouble(score);
+      out.writeInt(results);
+    }
+  }
+
+  /**
+   * A run file being read, positioned at its current entry
+   */
+  private static class Run {
+    final File file;
+    final DataInputStream in;
+    int remaining;
+    Entry current;
+
+    Run(File file) throws IOException {
+      this.file = file;
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+      remaining = in.readInt();
+    }
+
+    boolean advance() throws IOException {
+      if (remaining == 0) {
+        current = null;
+        return false;
+      }
+      remaining--;
+      current = Entry.read(in);
+      return true;
+    }
+
+    void close() throws IOException {
+      in.close();
+      file.delete();
+    }
+  }
+
+  /**
+   * Merges sorted runs in order, deleting them when closed
+   */
+  private static class Merger {
+    final List<Run> runs = new ArrayList<Run>();
+    final PriorityQueue<Run> queue;
+    int remaining = 0;
+
+    Merger(List<File> files) throws IOException {
+      queue = new PriorityQueue<Run>(files.size(), new Comparator<Run>() {
+        public int compare(Run r1, Run r2) {
+          return entryComparator.compare(r1.current, r2.current);
+        }
+      });
+      try {
+        for (File file : files) {
+          Run run = new Run(file);
+          runs.add(run);
+          remaining += run.remaining;
+          if (run.advance()) {
+            queue.add(run);
+          }
+        }
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    /**
+     * @return the next entry in order or {@code null} if there are no more entries
+     */
+    Entry next() throws IOException {
+      Run run = queue.poll();
+      if (run == null) {
+        return null;
+      }
+      Entry entry = run.current;
+      if (run.advance()) {
+        queue.add(run);
+      }
+      return entry;
+    }
+
+    void close() throws IOException {
+      IOException error = null;
+      for (Run run : runs) {
+        try {
+          run.close();
+        } catch (IOException e) {
+          error = e;
+        }
+      }
+      if (error != null) {
+        throw error;
+      }
+    }
+  }
+
+  /**
+   * Groups the merged entries by suggested string
+   */
+  private static class InvertedIterator implements Iterator<SuggestionList> {
+    private final Merger merger;
+    private Entry pending;
+    private SuggestionList next = null;
+    private boolean closed = false;
+
+    InvertedIterator(List<File> runs) throws IOException {
+      merger = new Merger(runs);
+      pending = merger.next();
+    }
+
+    public boolean hasNext() {
+      if (next != null) {
+        return true;
+      }
+      if (closed) {
+        return false;
+      }
+
+      try {
+        if (pending == null) {
+          closed = true;
+          merger.close();
+          return false;
+        }
+        next = new SuggestionList(pending.suggested);
+        // Query keys are unique, so skip the duplicate check of addSuggested()
+        // and sort once, popular suggestions may have long inverted lists
+        List<Suggestion> suggestions = next.getSuggestions();
+        while (pending != null && pending.suggested.equals(next.getQueryKey())) {
+          suggestions.add(new Suggestion(pending.queryKey, pending.score,
+                                         pending.results == NO_RESULTS ? null : pending.results));
+          pending = merger.next();
+        }
+        next.sort();
+      } catch (IOException e) {
+        closed = true;
+        try {
+          merger.close();
+        } catch (IOException e1) {
+          e1.printStackTrace();
+        }
+        throw new RuntimeException("Failed to read inverted dictionary", e);
+      }
+      return true;
+    }
+
+    public SuggestionList next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      SuggestionList suggestions = next;
+      next = null;
+      return suggestions;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A {@link QueryKeyNormalizer} folding the different ways of writing the same
+ * text into one, so they share query keys. The query is
+ * <ul>
+ *   <li>normalized to Unicode NFKC, folding compatibility forms such as
+ *       full width letters and ligatures into their plain counterparts,</li>
+ *   <li>optionally stripped from diacritics, so <i>"caf&eacute;"</i> becomes <i>"cafe"</i>, and</li>
+ *   <li>converted to lower case by the rules of a given locale, so the Turkish
+ *       dotted capital I becomes a plain i in Turkish.</li>
+ * </ul>
+ * Only diacritics from the combining diacritical marks blocks are stripped, so
+ * the vowel signs of scripts such as Devanagari are left alone.
+ * <p/>
+ * Folding a query with the JDK normalizer is slow, so the folded form of each
+ * char in the basic multilingual plane is calculated once, when the first
+ * normalizer for a locale is created, and queries are folded by table lookups.
+ * Queries containing chars whose folding depends on their neighbours, such as
+ * combining marks, Hangul jamo, surrogates and the Greek capital sigma, are
+ * folded by the JDK normalizer.
+ * <p/>
+ * This normalizer leaves punctuation and white space in place, so it is
+ * usually followed by a {@link LetterQueryKeyNormalizer} in a
+ * {@link QueryKeyNormalizerChain}, see {@link QueryKeyNormalizerChain#createFolding}.
+ * <p/>
+ * The folding is done by {@link Normalizer}, so unlike the rest of the module
+ * this normalizer needs a Java 6 runtime. The default
+ * {@link LetterQueryKeyNormalizer} does not depend on it.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class FoldingQueryKeyNormalizer implements QueryKeyNormalizer {
+
+  /** The char folds to a string other than a single char, see {@link Table#expansion} */
+  private static final char EXPAND = '\uFFFE';
+  /** The folding of the char depends on its neighbours, so the query must be folded by the JDK */
+  private static final char SLOW = '\uFFFF';
+
+  private static final Map<String, Table> tables = new HashMap<String, Table>();
+
+  private final Locale locale;
+  private final boolean foldDiacritics;
+  private final Table table;
+
+  /**
+   * Create a normalizer folding compatibility forms, diacritics and case
+   * @param locale the locale of the queries, used for case folding
+   */
+  public FoldingQueryKeyNormalizer(Locale locale) {
+    this(locale, true);
+  }
+
+  /**
+   * @param locale the locale of the queries, used for case folding
+   * @param foldDiacritics whether to strip diacritics from the queries
+   */
+  public FoldingQueryKeyNormalizer(Locale locale, boolean foldDiacritics) {
+    this.locale = locale;
+    this.foldDiacritics = foldDiacritics;
+
+    String tableKey = locale + (foldDiacritics ? "/diacritics" : "");
+    synchronized (tables) {
+      Table t = tables.get(tableKey);
+      if (t == null) {
+        t = new Table(this);
+        tables.put(tableKey, t);
+      }
+      table = t;
+    }
+  }
+
+  public Locale getLocale() {
+    return locale;
+  }
+
+  public boolean isFoldDiacritics() {
+    return foldDiacritics;
+  }
+
+  public String normalize(String query) {
+    final char[] folded = table.folded;
+    int length = query.length();
+    int i = 0;
+    while (i < length && folded[query.charAt(i)] == query.charAt(i)) {
+      i++;
+    }
+    if (i == length) {
+      return query;
+    }
+
+    StringBuilder buf = new StringBuilder(length + 8);
+    buf.append(query, 0, i);
+    for (; i < length; i++) {
+      char c = query.charAt(i);
+      char f = folded[c];
+      if (f == SLOW) {
+        return fold(query);
+      } else if (f == EXPAND) {
+        buf.append(table.expansion(c));
+      } else {
+        buf.append(f);
+      }
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Fold {@code query} with the JDK normalizer. This is the definition of what
+   * {@link #normalize} does, and it is used to build the lookup tables.
+   * @param query the string to fold
+   * @return the folded string
+   */
+  private String fold(String query) {
+    // Case first, as the case rules of some locales look at the diacritics
+    String lower = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(locale);
+    if (!foldDiacritics) {
+      return lower;
+    }
+
+    String decomposed = Normalizer.normalize(lower, Normalizer.Form.NFD);
+    StringBuilder buf = new StringBuilder(decomposed.length());
+    for (int i = 0; i < decomposed.length(); i++) {
+      char c = decomposed.charAt(i);
+      if (!isDiacritic(c)) {
+        buf.append(c);
+      }
+    }
+    return Normalizer.normalize(buf, Normalizer.Form.NFC);
+  }
+
+  private static boolean isDiacritic(char c) {
+    return (c >= '\u0300' && c <= '\u036F')
+        || (c >= '\u1AB0' && c <= '\u1AFF')
+        || (c >= '\u1DC0' && c <= '\u1DFF')
+        || (c >= '\u20D0' && c <= '\u20FF')
+        || (c >= '\uFE20' && c <= '\uFE2F');
+  }
+
+  /**
+   * @return true if {@code c} may compose with, or fold differently depending on, its neighbours
+   */
+  private boolean isContextSensitive(char c) {
+    if ((c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+        || (c >= '\u1100' && c <= '\u11FF')   // Hangul jamo
+        || (c >= '\u3130' && c <= '\u318F')   // Hangul compatibility jamo
+        || (c >= '\uA960' && c <= '\uA97F')   // Hangul jamo extended A
+        || (c >= '\uD7B0' && c <= '\uD7FF')   // Hangul jamo extended B
+        || (c >= '\uFFA0' && c <= '\uFFDC')   // Half width Hangul jamo
+        || c == '\u03A3'                      // Greek capital sigma has a final form
+        || c == '\u0307') {                   // Turkish I with combining dot above lower cases to i
+      return true;
+    }
+    if (foldDiacritics && isDiacritic(c)) {
+      return false;
+    }
+    switch (Character.getType(c)) {
+      case Character.NON_SPACING_MARK:
+      case Character.COMBINING_SPACING_MARK:
+      case Character.ENCLOSING_MARK:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * The folded form of each char in the basic multilingual plane. Shared by
+   * all normalizers with the same settings
+   */
+  private static class Table {
+    final char[] folded = new char[Character.MAX_VALUE + 1];
+    final char[] expandedChars;
+    final String[] expansions;
+
+    Table(FoldingQueryKeyNormalizer normalizer) {
+      List<Character> expanded = new ArrayList<Character>();
+      List<String> expandedTo = new ArrayList<String>();
+      for (int c = 0; c <= Character.MAX_VALUE; c++) {
+        folded[c] = foldChar(normalizer, (char) c);
+        if (folded[c] == EXPAND) {
+          expanded.add((char) c);
+          expandedTo.add(normalizer.fold(String.valueOf((char) c)));
+        }
+      }
+      // Added in ascending order, ready for binary search
+      expandedChars = new char[expanded.size()];
+      expansions = expandedTo.toArray(new String[expandedTo.size()]);
+      for (int i = 0; i < expandedChars.length; i++) {
+        expandedChars[i] = expanded.get(i);
+      }
+    }
+
+    String expansion(char c) {
+      int low = 0;
+      int high = expandedChars.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (expandedChars[mid] < c) {
+          low = mid + 1;
+        } else if (expandedChars[mid] > c) {
+          high = mid - 1;
+        } else {
+          return expansions[mid];
+        }
+      }
+      throw new IllegalStateException("No expansion for " + Integer.toHexString(c));
+    }
+
+    private static char foldChar(FoldingQueryKeyNormalizer normalizer, char c) {
+      if (c == EXPAND || c == SLOW || normalizer.isContextSensitive(c)) {
+        return SLOW;
+      }
+      String f = normalizer.fold(String.valueOf(c));
+      for (int i = 0; i < f.length(); i++) {
+        // The folded form must not compose with the neighbours either
+        if (normalizer.isContextSensitive(f.charAt(i)) || f.charAt(i) == EXPAND || f.charAt(i) == SLOW) {
+          return SLOW;
+        }
+      }
+      return f.length() == 1 ? f.charAt(0) : EXPAND;
+    }
+  }
+}
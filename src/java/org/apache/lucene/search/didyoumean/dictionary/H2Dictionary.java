@@ -21,12 +21,40 @@ public class H2Dictionary extends JDBCDictionary {
    * Create a new H2Dictionary using a database files in the directory {@code baseDir}.
    * If there already is a database in that directory it will be reused, and if the
    * directory doesn't exist it will be created.
+   * <p/>
+   * Suggestions are looked up through a read connection of their own, see
+   * {@link JDBCDictionary#JDBCDictionary(ConnectionFactory)}. H2 runs the
+   * statements of all connections to a database one at a time, so more read
+   * connections would not make concurrent lookups any faster. Its
+   * {@code MULTI_THREADED} mode would, but in H2 1.2 it returns corrupt rows
+   * under concurrent lookups.
    * @param baseDir the directory containing the database files
    * @throws SQLException if there is an error creating or opening the database
    * @throws IOException if {@code baseDir} is a regular file
    */
   public H2Dictionary(File baseDir) throws SQLException, IOException {
-    super(createConnection(baseDir));
+    super(createConnectionFactory(baseDir));
+  }
+
+  /**
+   * Create a factory for connections to the H2 database in {@code baseDir}
+   * @param baseDir the base directory the database files should be in
+   * @return a factory creating connections as {@link #createConnection} does
+   * @throws IOException if {@code baseDir} is a regular file
+   */
+  public static ConnectionFactory createConnectionFactory(final File baseDir) throws IOException {
+    if (baseDir.isFile()) {
+      throw new IOException(baseDir + " is a regular file. Expected a directory");
+    }
+    return new ConnectionFactory() {
+      public Connection factory() throws SQLException {
+        try {
+          return createConnection(baseDir);
+        } catch (IOException e) {
+          throw new SQLException("Failed to connect to database in " + baseDir, e);
+        }
+      }
+    };
   }
 
   /**
@@ -74,7 +102,7 @@ public class H2Dictionary extends JDBCDictionary {
                  "  keyId INTEGER AUTO_INCREMENT," +
                  "  key VARCHAR(1024)" +
                  ")");
-    stmt.execute("CREATE UNIQUE INDEX suggString ON sugg(string)");
+    stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS suggString ON sugg(string)");
     conn.commit();
     stmt.close();
   }
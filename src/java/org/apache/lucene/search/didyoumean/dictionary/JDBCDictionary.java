@@ -5,7 +5,12 @@ import org.apache.lucene.search.didyoumean.Suggestion;
 
 import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * A persistent dictionary implementation talking to a JDBC SQL backend.
@@ -21,18 +26,87 @@ import java.util.Iterator;
  * be set to automatically increment upon insertion.
  * <p/>
  * For performance reasons it is highly recommended to put an index on the {@code sugg.string} column
+ * <p/>
+ * Writes go through a single connection, one transaction per {@link SuggestionList}.
+ * Lookups go through a single prepared statement, one at a time. When created with
+ * a {@link ConnectionFactory} the statement is on a read connection of its own, so
+ * lookups never see a list that is only partly written.
  *
  * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
  * @since Jan 27, 2010
  */
 public abstract class JDBCDictionary extends Dictionary {
 
+  /**
+   * The number of rows fetched at a time by {@link #iterator()}
+   */
+  public static final int ITERATOR_FETCH_SIZE = 1000;
+
+  private static final String SELECT_SUGGESTIONS =
+    "SELECT sugg.string, sugg.score, sugg.results FROM sugg, dict, query " +
+    "WHERE query.key=? AND query.keyId=dict.queryKeyId AND dict.suggId=sugg.id";
+
+  /**
+   * The connection used for writing to the database
+   */
   protected Connection conn;
 
+  // Used to open separate connections for iterators, null if created from a single connection
+  private final ConnectionFactory connectionFactory;
+
+  // Prepared statements for the write path, keyed by their SQL
+  private final Map<String,PreparedStatement> statements = new HashMap<String,PreparedStatement>();
+
+  // The connection and prepared statement for looking up suggestions, used by one thread at a time
+  private final Connection readConn;
+  private final PreparedStatement select;
+
+  /**
+   * Create a dictionary doing all reads and writes through {@code conn}
+   * @param conn the database connection
+   * @throws SQLException if there is an error creating the tables
+   */
   public JDBCDictionary(Connection conn) throws SQLException {
     this.conn = conn;
+    this.connectionFactory = null;
+    conn.setAutoCommit(false);
+    createTables();
+    readConn = conn;
+    select = conn.prepareStatement(SELECT_SUGGESTIONS);
+  }
+
+  /**
+   * Create a dictionary with one connection for writing and one for looking up
+   * suggestions. Iterators read through connections of their own.
+   * @param connectionFactory the factory for the database connections
+   * @throws SQLException if there is an error connecting to the database or creating the tables
+   */
+  public JDBCDictionary(ConnectionFactory connectionFactory) throws SQLException {
+    this.connectionFactory = connectionFactory;
+    this.conn = connectionFactory.factory();
     conn.setAutoCommit(false);
     createTables();
+    Connection readConn = null;
+    PreparedStatement select = null;
+    try {
+      readConn = connectionFactory.factory();
+      readConn.setAutoCommit(true);
+      readConn.setReadOnly(true);
+      select = readConn.prepareStatement(SELECT_SUGGESTIONS);
+    } catch (SQLException e) {
+      try {
+        if (readConn != null) {
+          readConn.close();
+        }
+        conn.close();
+      } catch (SQLException e1) {
+        e1.printStackTrace();
+        System.err.println("Error closing database connections after failed setup");
+      }
+      throw e;
+    }
+    this.readConn = readConn;
+    this.select = select;
   }
 
   /**
@@ -47,37 +121,35 @@ public abstract class JDBCDictionary extends Dictionary {
   @Override
   public SuggestionList getSuggestions(String query) throws QueryException {
     SuggestionList suggestions = suggestionListFactory(query);
-    PreparedStatement stmt = null;
-    try {
-      stmt = conn.prepareStatement(
-        "SELECT sugg.string, sugg.score, sugg.results FROM sugg, dict, query " +
-        "WHERE query.key=? AND query.keyId=dict.queryKeyId AND dict.suggId=sugg.id");
-      stmt.setString(1, suggestions.getQueryKey());
-      ResultSet result = stmt.executeQuery();
-
-      while (result.next()) {
-        suggestions.addSuggested(result.getString(1), result.getDouble(2), result.getInt(3));
-      }
-    } catch (SQLException e) {
-      throw new QueryException(String.format(
-                  "Failed to get suggestions for '%s'", query), e);
-    } finally {
+    synchronized (select) {
       try {
-        if (stmt != null) stmt.close();
+        select.setString(1, suggestions.getQueryKey());
+        ResultSet result = select.executeQuery();
+        try {
+          while (result.next()) {
+            int results = result.getInt(3);
+            Integer corpusQueryResults = result.wasNull() ? null : results;
+            suggestions.addSuggested(result.getString(1), result.getDouble(2), corpusQueryResults);
+          }
+        } finally {
+          result.close();
+        }
       } catch (SQLException e) {
-        // FIXME: Don't throw inside a finally block... But this is ugly:
-        e.printStackTrace();
-        System.err.println(
-          "Error closing SQL statement while getting suggestions for '" + query + "'");
+        throw new QueryException(String.format(
+                    "Failed to get suggestions for '%s'", query), e);
       }
     }
     return suggestions;
   }
 
   @Override
-  public void close() throws IOException {
+  public synchronized void close() throws IOException {
     try {
-      conn.close();
+      for (PreparedStatement stmt : statements.values()) {
+        stmt.close();
+      }
+      statements.clear();
+      closeConnections();
     } catch (SQLException e) {
       IOException ioe = new IOException("Failed to close database connection");
       ioe.initCause(e);
@@ -85,108 +157,171 @@ public abstract class JDBCDictionary extends Dictionary {
     }
   }
 
+  private void closeConnections() throws SQLException {
+    synchronized (select) {
+      select.close();
+      if (readConn != conn) {
+        readConn.close();
+      }
+    }
+    conn.close();
+  }
+
+  /**
+   * Replace the suggestions stored for the query key of {@code suggestions}.
+   * All rows for the list are written in a single transaction, using cached
+   * prepared statements and batch updates where the JDBC driver allows it.
+   * If anything fails the transaction is rolled back, leaving the stored
+   * suggestions for the query key untouched.
+   * @param suggestions the suggestions to store
+   */
   @Override
-  public void put(SuggestionList suggestions) {
-    // Sorry about the try/catch hell here - but JDBC is like that when you try to play safe
-    for (Suggestion suggestion : suggestions) {
+  public synchronized void put(SuggestionList suggestions) {
+    try {
+      int queryKeyId = checkQueryTable(suggestions.getQueryKey());
+      int[] suggIds = checkSuggTable(suggestions);
+      updateDictTable(queryKeyId, suggIds);
+      conn.commit();
+    } catch (SQLException e) {
+      e.printStackTrace();
+      System.err.println(String.format(
+        "Failed to insert suggestions for '%s'", suggestions.getQueryKey()));
       try {
-        put(suggestions.getQueryKey(), suggestion);
-        conn.commit();
-      } catch (SQLException e) {
-        try {
-          conn.rollback();
-        } catch (SQLException e1) {
-          e1.printStackTrace();
-          System.err.println(String.format(
-            "Failed to insert suggestion '%s'", suggestion));
-        }
+        conn.rollback();
+      } catch (SQLException e1) {
+        e1.printStackTrace();
+        System.err.println(String.format(
+          "Failed to roll back suggestions for '%s'", suggestions.getQueryKey()));
       }
     }
   }
 
   /**
-   * Insert {@code suggestion} and associate it with the query key {@code queryKey}
-   * @param queryKey the query key of the {@link SuggestionList} containing {@code suggestion}
-   * @param suggestion the suggestion to insert
-   * @throws SQLException
+   * Get a prepared statement for {@code sql} on {@link #conn}. Statements are
+   * cached and reused for the lifetime of the dictionary, so this must only
+   * be called while holding the lock on the dictionary.
+   * @param sql the SQL to prepare
+   * @param autoGeneratedKeys one of {@link Statement#RETURN_GENERATED_KEYS} or
+   *                          {@link Statement#NO_GENERATED_KEYS}
+   * @return a cached prepared statement for {@code sql}
+   * @throws SQLException if there is an error preparing the statement
    */
-  protected void put(String queryKey, Suggestion suggestion) throws SQLException {
-    int queryKeyId = checkQueryTable(queryKey);
-    int suggId = checkSuggTable(suggestion);
-    checkDictTable(queryKeyId, suggId);
+  protected PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+    PreparedStatement stmt = statements.get(sql);
+    if (stmt == null) {
+      stmt = conn.prepareStatement(sql, autoGeneratedKeys);
+      statements.put(sql, stmt);
+    }
+    return stmt;
   }
 
   /**
-   * Make sure that the {@code query} table contains the query key for {@code suggestion}
+   * Make sure that the {@code query} table contains {@code queryKey}
    * and return the corresponding (integer valued) {@code keyId}
    * @param queryKey the query key to get the key id for
    * @return the value of the {@code query.keyId} column for the query key
    * @throws SQLException if there is an error working with the database
    */
   protected int checkQueryTable(String queryKey) throws SQLException {
-    PreparedStatement insert = conn.prepareStatement(
-        "INSERT INTO query(key) VALUES(?)", Statement.RETURN_GENERATED_KEYS);
-    PreparedStatement select = conn.prepareStatement(
-        "SELECT keyId FROM query WHERE key=?");    
-
-    ResultSet result;
-    try {
-      insert.setString(1, queryKey);
-      insert.executeUpdate();
-      result = insert.getGeneratedKeys();
-    } catch (SQLException e) {
-      // We can only assume that this is an SQLIntegrityConstraintViolationException,
-      // but not JDBC drivers throw such exception when they should
-      select.setString(1, queryKey);
-      result = select.executeQuery();
+    PreparedStatement select = prepare(
+      "SELECT keyId FROM query WHERE key=?", Statement.NO_GENERATED_KEYS);
+    select.setString(1, queryKey);
+    ResultSet result = select.executeQuery();
+    if (result.next()) {
+      int id = result.getInt(1);
+      result.close();
+      return id;
     }
+    result.close();
 
-    return readId(queryKey, result);
+    PreparedStatement insert = prepare(
+      "INSERT INTO query(key) VALUES(?)", Statement.RETURN_GENERATED_KEYS);
+    insert.setString(1, queryKey);
+    insert.executeUpdate();
+    return readId(queryKey, insert.getGeneratedKeys());
   }
 
   /**
-   * Insert or update the {@code sugg} table with the data from {@code suggestion}
-   * returning the integer id of the affacted row (ie. {@code sugg.id})
-   * @param suggestion the suggestion to insert or update
-   * @return the value of the affected {@code sugg.id} column
+   * Insert or update the {@code sugg} table with the data from {@code suggestions}
+   * returning the integer ids of the affected rows (ie. {@code sugg.id}). Updates
+   * of existing rows are sent as a single batch
+   * @param suggestions the suggestions to insert or update
+   * @return the values of the affected {@code sugg.id} columns, in the order
+   *         of {@code suggestions}
    * @throws SQLException if there is an error working with the database
    */
-  protected int checkSuggTable (Suggestion suggestion) throws SQLException {
-    PreparedStatement insert = conn.prepareStatement(
+  protected int[] checkSuggTable(SuggestionList suggestions) throws SQLException {
+    PreparedStatement select = prepare(
+      "SELECT id FROM sugg WHERE string=?", Statement.NO_GENERATED_KEYS);
+    PreparedStatement insert = prepare(
       "INSERT INTO sugg(string,score,results) VALUES (?,?,?)", Statement.RETURN_GENERATED_KEYS);
-    PreparedStatement select = conn.prepareStatement("" +
-      "SELECT id FROM sugg WHERE string=?");
-    PreparedStatement update = conn.prepareStatement(
-      "UPDATE sugg SET score=?, results=? WHERE id=?");
+    PreparedStatement update = prepare(
+      "UPDATE sugg SET score=?, results=? WHERE id=?", Statement.NO_GENERATED_KEYS);
 
-    try {
-      insert.setString(1, suggestion.getSuggested());
-      insert.setDouble(2, suggestion.getScore());
-      insert.setInt(3, suggestion.getCorpusQueryResults());
-      insert.executeUpdate();
-      return readId(suggestion.getSuggested(), insert.getGeneratedKeys());
-    } catch (SQLException e) {
-      // We can only assume that this is an SQLIntegrityConstraintViolationException,
-      // but not JDBC drivers throw such exception when they should. So we just
-      // try and update the suggestion with the given id
+    int[] ids = new int[suggestions.size()];
+    boolean updates = false;
+    int i = 0;
+    for (Suggestion suggestion : suggestions) {
       select.setString(1, suggestion.getSuggested());
-      int suggId = readId(suggestion.getSuggested(), select.executeQuery());
+      ResultSet result = select.executeQuery();
+      if (result.next()) {
+        ids[i] = result.getInt(1);
+        result.close();
+        update.setDouble(1, suggestion.getScore());
+        setResults(update, 2, suggestion.getCorpusQueryResults());
+        update.setInt(3, ids[i]);
+        update.addBatch();
+        updates = true;
+      } else {
+        result.close();
+        insert.setString(1, suggestion.getSuggested());
+        insert.setDouble(2, suggestion.getScore());
+        setResults(insert, 3, suggestion.getCorpusQueryResults());
+        insert.executeUpdate();
+        ids[i] = readId(suggestion.getSuggested(), insert.getGeneratedKeys());
+      }
+      i++;
+    }
+
+    if (updates) {
+      update.executeBatch();
+    }
+    return ids;
+  }
 
-      update.setDouble(1, suggestion.getScore());
-      update.setInt(2, suggestion.getCorpusQueryResults());
-      update.setInt(3, suggId);
-      update.executeUpdate();
+  /**
+   * Replace the rows in the {@code dict} table for {@code queryKeyId}
+   * with one row for each of {@code suggIds}
+   * @param queryKeyId the query key id to update the suggestions for
+   * @param suggIds the suggestion ids to associate with {@code queryKeyId}
+   * @throws SQLException if there is an error working with the database
+   */
+  protected void updateDictTable(int queryKeyId, int[] suggIds) throws SQLException {
+    PreparedStatement delete = prepare(
+      "DELETE FROM dict WHERE queryKeyId=?", Statement.NO_GENERATED_KEYS);
+    delete.setInt(1, queryKeyId);
+    delete.executeUpdate();
 
-      return suggId;
+    if (suggIds.length == 0) {
+      return;
     }
+
+    PreparedStatement insert = prepare(
+      "INSERT INTO dict VALUES (?,?)", Statement.NO_GENERATED_KEYS);
+    for (int suggId : suggIds) {
+      insert.setInt(1, queryKeyId);
+      insert.setInt(2, suggId);
+      insert.addBatch();
+    }
+    insert.executeBatch();
   }
 
-  protected void checkDictTable(int queryKeyId, int suggId) throws SQLException {
-    PreparedStatement insert = conn.prepareStatement(
-      "INSERT INTO dict VALUES (?,?)");
-    insert.setInt(1, queryKeyId);
-    insert.setInt(2, suggId);
-    insert.executeUpdate();
+  private void setResults(PreparedStatement stmt, int index, Integer results) throws SQLException {
+    if (results == null) {
+      stmt.setNull(index, Types.INTEGER);
+    } else {
+      stmt.setInt(index, results);
+    }
   }
 
   /**
@@ -217,14 +352,91 @@ public abstract class JDBCDictionary extends Dictionary {
     return id;
   }
 
+  /**
+   * Collapse suggestion chains for all query keys in the {@code query} table,
+   * see {@link Dictionary#collapseSuggestionChains}
+   */
   @Override
   public void optimize(Suggester suggester) throws IOException {
-    //FIXME
+    collapseSuggestionChains(suggester, queryKeys());
+  }
+
+  /**
+   * Read all query keys from the {@code query} table
+   * @return a list of all query keys in the dictionary
+   * @throws QueryException if there is an error reading the query keys
+   */
+  protected synchronized List<String> queryKeys() throws QueryException {
+    List<String> queryKeys = new ArrayList<String>();
+    try {
+      ResultSet result = prepare("SELECT key FROM query", Statement.NO_GENERATED_KEYS).executeQuery();
+      while (result.next()) {
+        queryKeys.add(result.getString(1));
+      }
+      result.close();
+      conn.commit();
+    } catch (SQLException e) {
+      throw new QueryException("Failed to read query keys", e);
+    }
+    return queryKeys;
   }
 
+  /**
+   * Prune the dictionary with one set based {@code DELETE} per policy, all in a
+   * single transaction. Rows in the {@code query} and {@code sugg} tables no
+   * longer referenced from the {@code dict} table are removed as well.
+   */
   @Override
-  public void prune(int maxSize) throws IOException {
-    //FIXME
+  public synchronized void prune(int maxSize, double maxScoreGap, double minTopScore) throws IOException {
+    try {
+      if (minTopScore != Double.NEGATIVE_INFINITY) {
+        PreparedStatement stmt = prepare(
+          "DELETE FROM dict WHERE queryKeyId IN (" +
+          "  SELECT d.queryKeyId FROM dict d, sugg s WHERE d.suggId=s.id " +
+          "  GROUP BY d.queryKeyId HAVING MAX(s.score) < ?)", Statement.NO_GENERATED_KEYS);
+        stmt.setDouble(1, minTopScore);
+        stmt.executeUpdate();
+      }
+
+      if (maxScoreGap != Double.POSITIVE_INFINITY) {
+        PreparedStatement stmt = prepare(
+          "DELETE FROM dict WHERE " +
+          "  (SELECT s.score FROM sugg s WHERE s.id=dict.suggId) < " +
+          "  (SELECT MAX(s.score) FROM dict d, sugg s " +
+          "   WHERE d.queryKeyId=dict.queryKeyId AND d.suggId=s.id) - ?", Statement.NO_GENERATED_KEYS);
+        stmt.setDouble(1, maxScoreGap);
+        stmt.executeUpdate();
+      }
+
+      // Rank the suggestions for each query key as SuggestionList orders them,
+      // by descending score with the newest first among equal scores. The best
+      // maxSize suggestions are never deleted, so the ranks of the remaining
+      // rows stay at or above maxSize while the rows are being deleted
+      PreparedStatement stmt = prepare(
+        "DELETE FROM dict WHERE ? <= " +
+        "  (SELECT COUNT(*) FROM dict d, sugg better, sugg s " +
+        "   WHERE d.queryKeyId=dict.queryKeyId AND d.suggId=better.id AND s.id=dict.suggId " +
+        "   AND (better.score > s.score OR (better.score = s.score AND better.id > s.id)))",
+        Statement.NO_GENERATED_KEYS);
+      stmt.setInt(1, Math.max(maxSize, 0));
+      stmt.executeUpdate();
+
+      prepare("DELETE FROM query WHERE keyId NOT IN (SELECT queryKeyId FROM dict)",
+              Statement.NO_GENERATED_KEYS).executeUpdate();
+      prepare("DELETE FROM sugg WHERE id NOT IN (SELECT suggId FROM dict)",
+              Statement.NO_GENERATED_KEYS).executeUpdate();
+      conn.commit();
+    } catch (SQLException e) {
+      try {
+        conn.rollback();
+      } catch (SQLException e1) {
+        e1.printStackTrace();
+        System.err.println("Failed to roll back pruning of " + conn);
+      }
+      IOException ioe = new IOException("Failed to prune dictionary");
+      ioe.initCause(e);
+      throw ioe;
+    }
   }
 
   @Override
@@ -252,7 +464,115 @@ public abstract class JDBCDictionary extends Dictionary {
     }
   }
 
+  /**
+   * Iterate over all suggestion lists in the dictionary. The rows are streamed
+   * from a database cursor, fetching {@link #ITERATOR_FETCH_SIZE} rows at a time,
+   * so only one suggestion list is kept in memory at a time.
+   * <p/>
+   * When created with a {@link ConnectionFactory} the iterator reads through a
+   * connection of its own, otherwise it shares the write connection. The cursor
+   * is closed when the iterator is exhausted, so callers should always iterate
+   * to the end.
+   * @return an iterator over all suggestion lists in the dictionary
+   * @throws RuntimeException if the query for the suggestion lists fails
+   */
   public Iterator<SuggestionList> iterator() {
-    throw new UnsupportedOperationException("iterator() not implemented");
+    try {
+      return new SuggestionListIterator();
+    } catch (SQLException e) {
+      throw new RuntimeException("Failed to iterate over suggestion lists from " + conn, e);
+    }
+  }
+
+  /**
+   * Groups the rows of a join over all tables, ordered by query key id,
+   * into suggestion lists
+   */
+  private class SuggestionListIterator implements Iterator<SuggestionList> {
+
+    private final Connection iteratorConn;
+    private final PreparedStatement stmt;
+    private ResultSet result;
+    private boolean hasRow;
+    private SuggestionList next = null;
+
+    SuggestionListIterator() throws SQLException {
+      iteratorConn = connectionFactory != null ? connectionFactory.factory() : conn;
+      try {
+        stmt = iteratorConn.prepareStatement(
+          "SELECT query.keyId, query.key, sugg.string, sugg.score, sugg.results " +
+          "FROM query LEFT JOIN dict ON query.keyId=dict.queryKeyId " +
+          "LEFT JOIN sugg ON dict.suggId=sugg.id ORDER BY query.keyId",
+          ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(ITERATOR_FETCH_SIZE);
+        result = stmt.executeQuery();
+        hasRow = result.next();
+      } catch (SQLException e) {
+        if (iteratorConn != conn) {
+          iteratorConn.close();
+        }
+        throw e;
+      }
+      if (!hasRow) {
+        close();
+      }
+    }
+
+    public boolean hasNext() {
+      if (next != null) {
+        return true;
+      }
+      if (!hasRow) {
+        return false;
+      }
+
+      try {
+        int keyId = result.getInt(1);
+        next = new SuggestionList(result.getString(2));
+        while (hasRow && result.getInt(1) == keyId) {
+          String suggested = result.getString(3);
+          if (suggested != null) {
+            double score = result.getDouble(4);
+            int results = result.getInt(5);
+            Integer corpusQueryResults = result.wasNull() ? null : results;
+            next.addSuggested(suggested, score, corpusQueryResults);
+          }
+          hasRow = result.next();
+        }
+        if (!hasRow) {
+          close();
+        }
+      } catch (SQLException e) {
+        hasRow = false;
+        try {
+          close();
+        } catch (SQLException e1) {
+          e1.printStackTrace();
+        }
+        throw new RuntimeException("Failed to read suggestion lists from " + iteratorConn, e);
+      }
+      return true;
+    }
+
+    public SuggestionList next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      SuggestionList suggestions = next;
+      next = null;
+      return suggestions;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private void close() throws SQLException {
+      result.close();
+      stmt.close();
+      if (iteratorConn != conn) {
+        iteratorConn.close();
+      }
+    }
   }
 }
@@ -0,0 +1,123 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+/**
+ * The default {@link QueryKeyNormalizer}. It strips all non-letter characters
+ * from the query and converts the rest to lower case, so <i>"allwork and no fun"</i>
+ * and <i>"All work, and no fun!"</i> share a query key.
+ * <p/>
+ * The query is processed by code point, so letters outside the basic
+ * multilingual plane are kept intact. Queries that already are normalized are
+ * returned as is, and other queries are normalized in a reused per thread buffer,
+ * so the only allocation is the resulting string. The query key hash and
+ * comparison used for cache lookups can be calculated without building the
+ * query key at all.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public final class LetterQueryKeyNormalizer implements QueryKeyNormalizer {
+
+  public static final LetterQueryKeyNormalizer INSTANCE = new LetterQueryKeyNormalizer();
+
+  // Buffers larger than this are not kept around between calls to normalize()
+  private static final int MAX_BUFFER_SIZE = 4096;
+  private static final ThreadLocal<char[]> buffer = new ThreadLocal<char[]>();
+
+  private LetterQueryKeyNormalizer() {
+  }
+
+  public String normalize(String query) {
+    // This implementation is an (much) optimized version of:
+    //  return query.replaceAll("\\p{Punct}", "").replaceAll("\\s", "").toLowerCase();
+    int length = query.length();
+    int i = 0;
+    while (i < length) {
+      int c = query.codePointAt(i);
+      if (!Character.isLetter(c) || Character.toLowerCase(c) != c) {
+        break;
+      }
+      i += Character.charCount(c);
+    }
+    if (i == length) {
+      return query;
+    }
+
+    // Lower casing never turns one code point into more than two chars
+    char[] buf = buffer(2 * length);
+    query.getChars(0, i, buf, 0);
+    int pos = i;
+    while (i < length) {
+      int c = query.codePointAt(i);
+      if (Character.isLetter(c)) {
+        pos += Character.toChars(Character.toLowerCase(c), buf, pos);
+      }
+      i += Character.charCount(c);
+    }
+    return new String(buf, 0, pos);
+  }
+
+  /**
+   * Calculate {@code Dictionary.hashQueryKey(normalize(query))} without building
+   * the normalized string
+   *
+   * @param query the user query
+   * @return the 64 bit hash of the normalized query
+   */
+  public long hash(String query) {
+    long hash = Dictionary.FNV_OFFSET_BASIS;
+    int length = query.length();
+    for (int i = 0; i < length;) {
+      int c = query.codePointAt(i);
+      i += Character.charCount(c);
+      if (Character.isLetter(c)) {
+        c = Character.toLowerCase(c);
+        if (Character.isSupplementaryCodePoint(c)) {
+          // Hash the surrogate pair, as hashQueryKey() sees it
+          hash = (hash ^ ((c >>> 10) + (Character.MIN_HIGH_SURROGATE - (Character.MIN_SUPPLEMENTARY_CODE_POINT >>> 10)))) * Dictionary.FNV_PRIME;
+          hash = (hash ^ ((c & 0x3ff) + Character.MIN_LOW_SURROGATE)) * Dictionary.FNV_PRIME;
+        } else {
+          hash = (hash ^ c) * Dictionary.FNV_PRIME;
+        }
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Calculate {@code normalize(query).equals(normalized)} without building the
+   * normalized string
+   *
+   * @param query the user query
+   * @param normalized a normalized query
+   * @return true if {@code normalized} is the normalized form of {@code query}
+   */
+  public boolean isNormalizedFormOf(String query, String normalized) {
+    int length = query.length();
+    int pos = 0;
+    for (int i = 0; i < length;) {
+      int c = query.codePointAt(i);
+      i += Character.charCount(c);
+      if (!Character.isLetter(c)) {
+        continue;
+      }
+      c = Character.toLowerCase(c);
+      if (pos >= normalized.length() || normalized.codePointAt(pos) != c) {
+        return false;
+      }
+      pos += Character.charCount(c);
+    }
+    return pos == normalized.length();
+  }
+
+  private static char[] buffer(int size) {
+    if (size > MAX_BUFFER_SIZE) {
+      return new char[size];
+    }
+    char[] buf = buffer.get();
+    if (buf == null || buf.length < size) {
+      buf = new char[Math.max(size, 64)];
+      buffer.set(buf);
+    }
+    return buf;
+  }
+}
@@ -0,0 +1,707 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import org.apache.lucene.search.didyoumean.Suggester;
+import org.apache.lucene.search.didyoumean.Suggestion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A persistent {@link Dictionary} kept off the Java heap in memory mapped files.
+ * <p/>
+ * The dictionary consists of two files in a base directory:
+ * <ul>
+ *   <li><b>didyoumean.dat</b> an append-only log of suggestion list records.
+ *       Each record holds the query key followed by the suggestions, sorted by
+ *       descending score. The file is mapped in segments of a fixed size and
+ *       records never cross a segment boundary</li>
+ *   <li><b>didyoumean.idx</b> an open addressing hash table, with linear probing,
+ *       mapping the hash of a query key to the offset of the newest record for
+ *       that key in the data file</li>
+ * </ul>
+ * Lookups are a single probe sequence in the hash table followed by decoding one
+ * record. Storing a list appends a new record and points the hash table at it,
+ * leaving the old record as garbage. When more than half of the data file is
+ * garbage the live records are copied into a fresh file, see {@link #compact()}.
+ * <p/>
+ * Opening an existing dictionary simply maps the files, so startup time does not
+ * depend on the size of the dictionary. This makes it well suited for shipping
+ * a pre-trained dictionary to many nodes.
+ * <p/>
+ * Lookups may run concurrently with each other, while writes are serialized.
+ * The hash table is limited to 2<sup>27</sup> slots, ie. about 100 million
+ * query keys. Writes are not journaled, so a crash in the middle of a write or
+ * a compaction may leave the files corrupt.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 8, 2010
+ */
+public class MappedDictionary extends Dictionary {
+
+  /**
+   * The default size of the segments the data file is mapped in
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private static final String INDEX_FILE = "didyoumean.idx";
+  private static final String DATA_FILE = "didyoumean.dat";
+  private static final String TMP_SUFFIX = ".tmp";
+
+  private static final int MAGIC = 0x44594d49; // "DYMI"
+  private static final int VERSION = 1;
+
+  // Index header layout
+  private static final int MAGIC_OFFSET = 0;
+  private static final int VERSION_OFFSET = 4;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int SIZE_OFFSET = 12;
+  private static final int DATA_END_OFFSET = 16;
+  private static final int GARBAGE_OFFSET = 24;
+  private static final int SEGMENT_SIZE_OFFSET = 32;
+  private static final int HEADER_SIZE = 40;
+
+  // Each slot holds the offset of a record in the data file and the hash of
+  // its query key. Offset 0 marks an empty slot
+  private static final int SLOT_SIZE = 12;
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int MAX_CAPACITY = 1 << 27;
+  private static final double MAX_LOAD = 0.75d;
+
+  /**
+   * Don't bother compacting data files smaller than this
+   */
+  private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+  /**
+   * Stored in place of a {@code null} corpus query result count
+   */
+  private static final int NO_RESULTS = Integer.MIN_VALUE;
+
+  private final File baseDir;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private RandomAccessFile indexFile;
+  private MappedByteBuffer index;
+  private int capacity;
+  private int size;
+  private long garbage;
+  private DataFile data;
+
+  // Incremented every time entries move between slots, to detect stale iterators
+  private int layoutChanges = 0;
+
+  /**
+   * Open the dictionary in {@code baseDir}, creating a new empty one if
+   * there is none.
+   * @param baseDir the directory containing the dictionary files
+   * @throws IOException if {@code baseDir} is a regular file or the files could not be mapped
+   */
+  public MappedDictionary(File baseDir) throws IOException {
+    this(baseDir, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Open the dictionary in {@code baseDir}, creating a new empty one if
+   * there is none.
+   * @param baseDir the directory containing the dictionary files
+   * @param segmentSize the size of the segments the data file is mapped in when
+   *                    creating a new dictionary. This also limits the size of a single
+   *                    suggestion list. An existing dictionary keeps its own segment size
+   * @throws IOException if {@code baseDir} is a regular file or the files could not be mapped
+   */
+  public MappedDictionary(File baseDir, int segmentSize) throws IOException {
+    if (baseDir.isFile()) {
+      throw new IOException(baseDir + " is a regular file. Expected a directory");
+    }
+    if (!baseDir.exists() && !baseDir.mkdirs()) {
+      throw new IOException("Failed to create directory " + baseDir);
+    }
+    this.baseDir = baseDir;
+
+    File file = new File(baseDir, INDEX_FILE);
+    if (file.exists()) {
+      openIndex(file);
+      if (index.getInt(MAGIC_OFFSET) != MAGIC) {
+        throw new IOException(file + " is not a dictionary index");
+      }
+      if (index.getInt(VERSION_OFFSET) != VERSION) {
+        throw new IOException(String.format(
+          "Unsupported dictionary version %d in %s", index.getInt(VERSION_OFFSET), file));
+      }
+      capacity = index.getInt(CAPACITY_OFFSET);
+      size = index.getInt(SIZE_OFFSET);
+      garbage = index.getLong(GARBAGE_OFFSET);
+      data = new DataFile(new File(baseDir, DATA_FILE),
+                          index.getInt(SEGMENT_SIZE_OFFSET), index.getLong(DATA_END_OFFSET));
+    } else {
+      new File(baseDir, DATA_FILE).delete();
+      data = new DataFile(new File(baseDir, DATA_FILE), segmentSize, DataFile.FIRST_OFFSET);
+      capacity = INITIAL_CAPACITY;
+      createIndex(file, capacity);
+      openIndex(file);
+      writeHeader();
+    }
+  }
+
+  @Override
+  public SuggestionList getSuggestions(String query) throws QueryException {
+    String queryKey = formatQueryKey(query);
+    SuggestionList suggestions = new SuggestionList(queryKey);
+
+    lock.readLock().lock();
+    try {
+      if (index == null) {
+        throw new QueryException("Dictionary in " + baseDir + " is closed");
+      }
+      long offset = slotOffset(findSlot(queryKey, mixHash(queryKey.hashCode())));
+      if (offset != 0) {
+        data.readSuggestions(offset, suggestions);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return suggestions;
+  }
+
+  @Override
+  public void put(SuggestionList suggestions) {
+    SuggestionList sorted = new SuggestionList(suggestions);
+    sorted.sort();
+    String queryKey = sorted.getQueryKey();
+    int recordLength = DataFile.recordLength(queryKey, sorted);
+
+    lock.writeLock().lock();
+    try {
+      checkOpen();
+      if (recordLength > data.segmentSize) {
+        throw new IllegalArgumentException(String.format(
+          "Suggestions for '%s' need %d bytes, but the segment size is %d",
+          queryKey, recordLength, data.segmentSize));
+      }
+      if (size + 1 > capacity * MAX_LOAD) {
+        if (capacity == MAX_CAPACITY) {
+          throw new IllegalStateException("Dictionary in " + baseDir + " is full");
+        }
+        rebuild(capacity * 2, false);
+      }
+
+      int hash = mixHash(queryKey.hashCode());
+      int slot = findSlot(queryKey, hash);
+      long oldOffset = slotOffset(slot);
+      long oldEnd = data.end;
+
+      long offset = data.append(queryKey, sorted, recordLength);
+      garbage += offset - oldEnd; // padding at the end of the previous segment
+      if (oldOffset == 0) {
+        size++;
+      } else {
+        garbage += data.recordLength(oldOffset);
+      }
+      setSlot(slot, offset, hash);
+      writeHeader();
+
+      if (data.end > MIN_COMPACTION_SIZE && garbage * 2 > data.end) {
+        rebuild(capacity, true);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to store suggestions for '" + queryKey + "'", e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Rewrite the data file with only the live records, and rebuild the index.
+   * This is done automatically when more than half of the data file is garbage,
+   * but it can be useful to do before shipping the dictionary files elsewhere.
+   * @throws IOException if there is an error writing the new files
+   */
+  public void compact() throws IOException {
+    lock.writeLock().lock();
+    try {
+      checkOpen();
+      rebuild(capacity, true);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Collapse suggestion chains, see {@link Dictionary#collapseSuggestionChains},
+   * and then {@link #compact()} the dictionary
+   */
+  @Override
+  public void optimize(Suggester suggester) throws IOException {
+    // Rewriting lists may compact the files, so collect the keys up front
+    List<String> queryKeys = new ArrayList<String>(size());
+    for (SuggestionList suggestions : this) {
+      queryKeys.add(suggestions.getQueryKey());
+    }
+    collapseSuggestionChains(suggester, queryKeys);
+    compact();
+  }
+
+  @Override
+  public void prune(int maxSize, double maxScoreGap, double minTopScore) throws IOException {
+    lock.writeLock().lock();
+    try {
+      checkOpen();
+      List<String> removed = new ArrayList<String>();
+      for (int slot = 0; slot < capacity; slot++) {
+        long offset = slotOffset(slot);
+        if (offset == 0) {
+          continue;
+        }
+        SuggestionList suggestions = data.readSuggestions(offset, new SuggestionList(data.readQueryKey(offset)));
+        int prunedSize = prunedSize(suggestions, maxSize, maxScoreGap, minTopScore);
+        if (prunedSize == 0) {
+          // Removing shifts other slots, so do that after the scan
+          removed.add(suggestions.getQueryKey());
+        } else if (prunedSize < suggestions.size()) {
+          suggestions.getSuggestions().subList(prunedSize, suggestions.size()).clear();
+          // Updating the record in place never moves it to another slot
+          String queryKey = suggestions.getQueryKey();
+          long oldEnd = data.end;
+          long newOffset = data.append(queryKey, suggestions, DataFile.recordLength(queryKey, suggestions));
+          garbage += newOffset - oldEnd + data.recordLength(offset);
+          setSlot(slot, newOffset, slotHash(slot));
+        }
+      }
+
+      for (String queryKey : removed) {
+        int slot = findSlot(queryKey, mixHash(queryKey.hashCode()));
+        garbage += data.recordLength(slotOffset(slot));
+        removeSlot(slot);
+        size--;
+      }
+      if (!removed.isEmpty()) {
+        layoutChanges++;
+      }
+
+      writeHeader();
+      if (data.end > MIN_COMPACTION_SIZE && garbage * 2 > data.end) {
+        rebuild(capacity, true);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (index == null) {
+        return;
+      }
+      writeHeader();
+      index.force();
+      indexFile.close();
+      data.close();
+      index = null;
+      indexFile = null;
+      data = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Iterate over all suggestion lists in the dictionary. Lists put into the
+   * dictionary while iterating may or may not be returned. If the dictionary
+   * grows its index, is compacted or has query keys pruned while iterating,
+   * the iterator throws a {@link ConcurrentModificationException}.
+   * @return an iterator over all suggestion lists in the dictionary
+   */
+  public Iterator<SuggestionList> iterator() {
+    return new Iterator<SuggestionList>() {
+      private final int expectedLayoutChanges = layoutChanges;
+      private int slot = -1;
+      private SuggestionList next = null;
+
+      public boolean hasNext() {
+        if (next != null) {
+          return true;
+        }
+        lock.readLock().lock();
+        try {
+          if (index == null) {
+            throw new IllegalStateException("Dictionary in " + baseDir + " is closed");
+          }
+          if (layoutChanges != expectedLayoutChanges) {
+            throw new ConcurrentModificationException();
+          }
+          while (++slot < capacity) {
+            long offset = slotOffset(slot);
+            if (offset != 0) {
+              next = data.readSuggestions(offset, new SuggestionList(data.readQueryKey(offset)));
+              return true;
+            }
+          }
+          return false;
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+
+      public SuggestionList next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        SuggestionList suggestions = next;
+        next = null;
+        return suggestions;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private void checkOpen() {
+    if (index == null) {
+      throw new IllegalStateException("Dictionary in " + baseDir + " is closed");
+    }
+  }
+
+  /**
+   * Find the slot holding {@code queryKey} or the empty slot where it should go
+   */
+  private int findSlot(String queryKey, int hash) {
+    int mask = capacity - 1;
+    int slot = hash & mask;
+    while (true) {
+      long offset = slotOffset(slot);
+      if (offset == 0 || (slotHash(slot) == hash && data.queryKeyEquals(offset, queryKey))) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * Empty {@code slot}, moving later entries of the probe sequence back so
+   * that lookups don't stop at the new hole
+   */
+  private void removeSlot(int slot) {
+    int mask = capacity - 1;
+    int hole = slot;
+    for (int i = (slot + 1) & mask; slotOffset(i) != 0; i = (i + 1) & mask) {
+      int home = slotHash(i) & mask;
+      // The entry can move to the hole unless its home slot lies cyclically in (hole, i]
+      boolean reachable = hole <= i ? (home > hole && home <= i) : (home > hole || home <= i);
+      if (!reachable) {
+        setSlot(hole, slotOffset(i), slotHash(i));
+        hole = i;
+      }
+    }
+    setSlot(hole, 0, 0);
+  }
+
+  private long slotOffset(int slot) {
+    return index.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+  }
+
+  private int slotHash(int slot) {
+    return index.getInt(HEADER_SIZE + slot * SLOT_SIZE + 8);
+  }
+
+  private void setSlot(int slot, long offset, int hash) {
+    index.putLong(HEADER_SIZE + slot * SLOT_SIZE, offset);
+    index.putInt(HEADER_SIZE + slot * SLOT_SIZE + 8, hash);
+  }
+
+  private void writeHeader() {
+    index.putInt(MAGIC_OFFSET, MAGIC);
+    index.putInt(VERSION_OFFSET, VERSION);
+    index.putInt(CAPACITY_OFFSET, capacity);
+    index.putInt(SIZE_OFFSET, size);
+    index.putLong(DATA_END_OFFSET, data.end);
+    index.putLong(GARBAGE_OFFSET, garbage);
+    index.putInt(SEGMENT_SIZE_OFFSET, data.segmentSize);
+  }
+
+  private static void createIndex(File file, int capacity) throws IOException {
+    file.delete();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      // The file system fills the new file with zeros, ie. empty slots
+      raf.setLength(HEADER_SIZE + (long) capacity * SLOT_SIZE);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private void openIndex(File file) throws IOException {
+    indexFile = new RandomAccessFile(file, "rw");
+    index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexFile.length());
+  }
+
+  /**
+   * Write a new index with {@code newCapacity} slots, and optionally a new data
+   * file with only the live records, into temporary files and replace the
+   * current files with them. Must be called with the write lock held
+   */
+  private void rebuild(int newCapacity, boolean compactData) throws IOException {
+    File indexTmp = new File(baseDir, INDEX_FILE + TMP_SUFFIX);
+    File dataTmp = new File(baseDir, DATA_FILE + TMP_SUFFIX);
+
+    createIndex(indexTmp, newCapacity);
+    RandomAccessFile newIndexFile = new RandomAccessFile(indexTmp, "rw");
+    MappedByteBuffer newIndex = newIndexFile.getChannel().map(
+      FileChannel.MapMode.READ_WRITE, 0, newIndexFile.length());
+    DataFile newData = null;
+    if (compactData) {
+      dataTmp.delete();
+      newData = new DataFile(dataTmp, data.segmentSize, DataFile.FIRST_OFFSET);
+    }
+
+    int mask = newCapacity - 1;
+    for (int slot = 0; slot < capacity; slot++) {
+      long offset = slotOffset(slot);
+      if (offset == 0) {
+        continue;
+      }
+      int hash = slotHash(slot);
+      if (newData != null) {
+        offset = newData.copy(data, offset);
+      }
+      int newSlot = hash & mask;
+      while (newIndex.getLong(HEADER_SIZE + newSlot * SLOT_SIZE) != 0) {
+        newSlot = (newSlot + 1) & mask;
+      }
+      newIndex.putLong(HEADER_SIZE + newSlot * SLOT_SIZE, offset);
+      newIndex.putInt(HEADER_SIZE + newSlot * SLOT_SIZE + 8, hash);
+    }
+
+    // Swap in the new files
+    indexFile.close();
+    index = newIndex;
+    indexFile = newIndexFile;
+    capacity = newCapacity;
+    if (newData != null) {
+      data.close();
+      data = newData;
+      garbage = 0;
+      replace(dataTmp, new File(baseDir, DATA_FILE));
+    }
+    replace(indexTmp, new File(baseDir, INDEX_FILE));
+    writeHeader();
+    layoutChanges++;
+  }
+
+  private static void replace(File source, File target) throws IOException {
+    if (!source.renameTo(target)) {
+      target.delete();
+      if (!source.renameTo(target)) {
+        throw new IOException("Failed to move " + source + " to " + target);
+      }
+    }
+  }
+
+  /**
+   * The append-only data file, mapped in segments of a fixed size.
+   * <p/>
+   * A record is laid out as the query key, the number of suggestions, and
+   * for each suggestion the score, the corpus query results and the suggested
+   * string. Strings are written as their length in chars followed by the chars.
+   */
+  private static class DataFile {
+
+    // Offset 0 marks empty slots in the index, so records start after that
+    static final long FIRST_OFFSET = 8;
+
+    final RandomAccessFile file;
+    final int segmentSize;
+    final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    long end;
+
+    DataFile(File path, int segmentSize, long end) throws IOException {
+      this.file = new RandomAccessFile(path, "rw");
+      this.segmentSize = segmentSize;
+      this.end = end;
+      while ((long) segments.size() * segmentSize < end) {
+        mapSegment();
+      }
+    }
+
+    private void mapSegment() throws IOException {
+      segments.add(file.getChannel().map(
+        FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize, segmentSize));
+    }
+
+    private ByteBuffer segment(long offset) {
+      return segments.get((int) (offset / segmentSize));
+    }
+
+    private int position(long offset) {
+      return (int) (offset % segmentSize);
+    }
+
+    static int recordLength(String queryKey, SuggestionList suggestions) {
+      int length = 4 + 2 * queryKey.length() + 4;
+      for (Suggestion suggestion : suggestions) {
+        length += 8 + 4 + 4 + 2 * suggestion.getSuggested().length();
+      }
+      return length;
+    }
+
+    /**
+     * Read the length of the record at {@code offset}
+     */
+    int recordLength(long offset) {
+      ByteBuffer buf = segment(offset);
+      int pos = position(offset);
+      int start = pos;
+      pos += 4 + 2 * buf.getInt(pos);
+      int count = buf.getInt(pos);
+      pos += 4;
+      for (int i = 0; i < count; i++) {
+        pos += 8 + 4;
+        pos += 4 + 2 * buf.getInt(pos);
+      }
+      return pos - start;
+    }
+
+    /**
+     * Append a record and return its offset. The record is moved to the next
+     * segment if it does not fit in the current one
+     */
+    long append(String queryKey, SuggestionList suggestions, int recordLength) throws IOException {
+      long offset = reserve(recordLength);
+      ByteBuffer buf = segment(offset);
+      int pos = putString(buf, position(offset), queryKey);
+      buf.putInt(pos, suggestions.size());
+      pos += 4;
+      for (Suggestion suggestion : suggestions) {
+        Integer results = suggestion.getCorpusQueryResults();
+        buf.putDouble(pos, suggestion.getScore());
+        buf.putInt(pos + 8, results == null ? NO_RESULTS : results);
+        pos = putString(buf, pos + 12, suggestion.getSuggested());
+      }
+      return offset;
+    }
+
+    /**
+     * Copy the record at {@code offset} in {@code source} to the end of this file
+     */
+    long copy(DataFile source, long offset) throws IOException {
+      int length = source.recordLength(offset);
+      long newOffset = reserve(length);
+
+      ByteBuffer from = source.segment(offset).duplicate();
+      from.limit(source.position(offset) + length);
+      from.position(source.position(offset));
+      ByteBuffer to = segment(newOffset).duplicate();
+      to.position(position(newOffset));
+      to.put(from);
+      return newOffset;
+    }
+
+    private long reserve(int length) throws IOException {
+      long offset = end;
+      if (position(offset) + length > segmentSize) {
+        offset += segmentSize - position(offset);
+      }
+      while ((long) segments.size() * segmentSize < offset + length) {
+        mapSegment();
+      }
+      end = offset + length;
+      return offset;
+    }
+
+    private static int putString(ByteBuffer buf, int pos, String s) {
+      int length = s.length();
+      buf.putInt(pos, length);
+      pos += 4;
+      for (int i = 0; i < length; i++) {
+        buf.putChar(pos, s.charAt(i));
+        pos += 2;
+      }
+      return pos;
+    }
+
+    private static String getString(ByteBuffer buf, int pos) {
+      char[] chars = new char[buf.getInt(pos)];
+      pos += 4;
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = buf.getChar(pos);
+        pos += 2;
+      }
+      return new String(chars);
+    }
+
+    boolean queryKeyEquals(long offset, String queryKey) {
+      ByteBuffer buf = segment(offset);
+      int pos = position(offset);
+      int length = queryKey.length();
+      if (buf.getInt(pos) != length) {
+        return false;
+      }
+      pos += 4;
+      for (int i = 0; i < length; i++) {
+        if (buf.getChar(pos) != queryKey.charAt(i)) {
+          return false;
+        }
+        pos += 2;
+      }
+      return true;
+    }
+
+    String readQueryKey(long offset) {
+      return getString(segment(offset), position(offset));
+    }
+
+    /**
+     * Add the suggestions from the record at {@code offset} to {@code suggestions}.
+     * The record is already sorted so the suggestions are appended directly
+     */
+    SuggestionList readSuggestions(long offset, SuggestionList suggestions) {
+      ByteBuffer buf = segment(offset);
+      int pos = position(offset);
+      pos += 4 + 2 * buf.getInt(pos);
+      int count = buf.getInt(pos);
+      pos += 4;
+      List<Suggestion> list = suggestions.getSuggestions();
+      for (int i = 0; i < count; i++) {
+        double score = buf.getDouble(pos);
+        int results = buf.getInt(pos + 8);
+        String suggested = getString(buf, pos + 12);
+        pos += 12 + 4 + 2 * suggested.length();
+        list.add(new Suggestion(suggested, score, results == NO_RESULTS ? null : results));
+      }
+      return suggestions;
+    }
+
+    void close() throws IOException {
+      for (MappedByteBuffer segment : segments) {
+        segment.force();
+      }
+      segments.clear();
+      file.close();
+    }
+  }
+}
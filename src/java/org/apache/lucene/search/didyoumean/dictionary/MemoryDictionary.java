@@ -1,29 +1,65 @@
 package org.apache.lucene.search.didyoumean.dictionary;
 
 import org.apache.lucene.search.didyoumean.Suggester;
+import org.apache.lucene.search.didyoumean.Suggestion;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * A {@link Dictionary} backed by an in memory map
+ * A {@link Dictionary} backed by an in memory map.
+ * <p/>
+ * The dictionary is safe for concurrent use by any number of request and
+ * training threads without external locking. The map only ever holds private
+ * snapshots of the suggestion lists handed to {@link #put}, and
+ * {@link #getSuggestions} and {@link #iterator} return copies of those snapshots.
+ * Readers thus never see a list that is being modified by a trainer, and
+ * callers are free to modify the lists they get back before putting them
+ * back into the dictionary. If two threads put a list for the same query key
+ * at the same time, the last one wins, so trainers changing the lists of
+ * queries should use {@link #update}, which never loses a change.
+ * <p/>
+ * By default the snapshots are stored as compact {@link SuggestionList}s sharing
+ * a single {@link SuggestedStringPool}, which cuts the per entry overhead
+ * considerably for dictionaries with many query keys. The pool is not
+ * compacted when suggestions are pruned, see {@link SuggestedStringPool}.
  *
  * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
  * @since Jan 22, 2010
  */
 public class MemoryDictionary extends Dictionary {
 
-  private Map<String,SuggestionList> store = new HashMap<String,SuggestionList>();
+  private ConcurrentMap<String,SuggestionList> store = new ConcurrentHashMap<String,SuggestionList>();
+  private SuggestedStringPool pool;
+
+  /**
+   * Create a new dictionary storing its suggestion lists in the compact form
+   */
+  public MemoryDictionary() {
+    this(true);
+  }
+
+  /**
+   * Create a new dictionary
+   * @param compact if {@code true} store the suggestion lists in the compact
+   *                form, see {@link SuggestionList}
+   */
+  public MemoryDictionary(boolean compact) {
+    pool = compact ? new SuggestedStringPool() : null;
+  }
 
   @Override
   public SuggestionList getSuggestions(String query) {
-    SuggestionList suggestions = store.get(formatQueryKey(query));
+    String queryKey = formatQueryKey(query);
+    SuggestionList suggestions = store.get(queryKey);
     if (suggestions != null) {
-      return suggestions;
+      return new SuggestionList(suggestions);
     }
-    return suggestionListFactory(query);
+    return new SuggestionList(queryKey);
   }
 
   @Override
@@ -33,31 +69,90 @@ public class MemoryDictionary extends Dictionary {
 
   @Override
   public void put(SuggestionList suggestions) {
-    store.put(suggestions.getQueryKey(), suggestions);
+    store.put(suggestions.getQueryKey(), snapshot(suggestions));
+  }
+
+  /**
+   * Applies the update to a copy of the stored list and replaces the stored
+   * list with it, unless another thread replaced it meanwhile, in which case the
+   * update is applied again to a copy of the new list. Updates of different
+   * query keys never wait for each other.
+   */
+  @Override
+  public void update(String query, Update update) {
+    String queryKey = formatQueryKey(query);
+    while (true) {
+      SuggestionList stored = store.get(queryKey);
+      SuggestionList suggestions = stored != null ? new SuggestionList(stored) : new SuggestionList(queryKey);
+      if (!update.apply(suggestions)) {
+        return;
+      }
+      if (stored == null ? store.putIfAbsent(queryKey, snapshot(suggestions)) == null
+                         : store.replace(queryKey, stored, snapshot(suggestions))) {
+        return;
+      }
+    }
   }
 
   @Override
   public void optimize(Suggester suggester) throws IOException {
-    // TODO
+    collapseSuggestionChains(suggester, store.keySet());
   }
 
   @Override
-  public void prune(int maxSize) throws IOException {
-    for (SuggestionList suggestionList : this) {
-      if (suggestionList.size() > maxSize) {
-        for (int i = maxSize; i < suggestionList.size(); i++) {
-          suggestionList.getSuggestions().remove(i);
+  public void prune(int maxSize, double maxScoreGap, double minTopScore) throws IOException {
+    for (Map.Entry<String,SuggestionList> entry : store.entrySet()) {
+      SuggestionList snapshot = entry.getValue();
+      int size = prunedSize(snapshot, maxSize, maxScoreGap, minTopScore);
+
+      // If a trainer replaced the list while we were pruning we leave its
+      // list alone, it will be pruned the next time around
+      if (size == 0) {
+        store.remove(entry.getKey(), snapshot);
+      } else if (size < snapshot.size()) {
+        SuggestionList pruned = new SuggestionList(entry.getKey());
+        List<Suggestion> suggestions = pruned.getSuggestions();
+        for (Iterator<Suggestion> it = snapshot.iterator(); suggestions.size() < size;) {
+          suggestions.add(it.next());
         }
+        store.replace(entry.getKey(), snapshot, snapshot(pruned));
       }
     }
   }
 
+  /**
+   * Create the private copy of {@code suggestions} kept in the store
+   */
+  private SuggestionList snapshot(SuggestionList suggestions) {
+    return pool != null ? new SuggestionList(suggestions, pool) : new SuggestionList(suggestions);
+  }
+
   @Override
   public int size() {
     return store.size();
   }
 
+  /**
+   * Iterate over copies of all suggestion lists in the dictionary. The iterator
+   * is weakly consistent, it never throws a
+   * {@link java.util.ConcurrentModificationException} and may or may not reflect
+   * lists put into the dictionary after it was created.
+   * @return an iterator over all suggestion lists in the dictionary
+   */
   public Iterator<SuggestionList> iterator() {
-    return store.values().iterator();
+    final Iterator<SuggestionList> snapshots = store.values().iterator();
+    return new Iterator<SuggestionList>() {
+      public boolean hasNext() {
+        return snapshots.hasNext();
+      }
+
+      public SuggestionList next() {
+        return new SuggestionList(snapshots.next());
+      }
+
+      public void remove() {
+        snapshots.remove();
+      }
+    };
   }
 }
@@ -0,0 +1,137 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded set of query keys known to produce no suggestions, each
+ * remembered for a limited time. Used by {@link Dictionary#getSecondLevelSuggestion}
+ * so that repeated gibberish queries don't run the second level suggesters
+ * over and over.
+ * <p/>
+ * The cache is tagged with a version. Calling {@link #validate} with a
+ * different version clears the cache, which is how it is invalidated when
+ * the second level suggesters are rebuilt.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 12, 2010
+ */
+public class NegativeCache {
+
+  public static final int DEFAULT_MAX_SIZE = 10000;
+  public static final long DEFAULT_TIME_TO_LIVE = 60 * 60 * 1000;
+
+  private final int maxSize;
+  private final long timeToLive;
+  private int version = 0;
+
+  // Query keys by the time they expire. All entries live equally long, so the
+  // insertion order is also the order they expire in
+  private final LinkedHashMap<String,Long> expiryByQueryKey;
+
+  /**
+   * Create a cache of at most {@link #DEFAULT_MAX_SIZE} query keys, each
+   * remembered for {@link #DEFAULT_TIME_TO_LIVE} milliseconds
+   */
+  public NegativeCache() {
+    this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE);
+  }
+
+  /**
+   * @param maxSize the maximum number of query keys to remember. When full the
+   *                oldest query key is forgotten
+   * @param timeToLive the number of milliseconds to remember a query key
+   */
+  public NegativeCache(final int maxSize, long timeToLive) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be positive, was " + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.timeToLive = timeToLive;
+    expiryByQueryKey = new LinkedHashMap<String,Long>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String,Long> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Check whether {@code queryKey} is known to produce no suggestions
+   * @param queryKey the query key to check
+   * @return true if {@code queryKey} was added and has not expired yet
+   */
+  public synchronized boolean contains(String queryKey) {
+    Long expiry = expiryByQueryKey.get(queryKey);
+    if (expiry == null) {
+      return false;
+    }
+    if (expiry <= now()) {
+      expireEntries();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Remember that {@code queryKey} produces no suggestions
+   * @param queryKey the query key to remember
+   */
+  public synchronized void add(String queryKey) {
+    // Remove first so the entry moves to the end of the expiry order
+    expiryByQueryKey.remove(queryKey);
+    expiryByQueryKey.put(queryKey, now() + timeToLive);
+  }
+
+  /**
+   * Clear the cache if {@code version} differs from the version the cache
+   * was last validated with
+   * @param version a value that changes when the cached results are no longer valid
+   */
+  public synchronized void validate(int version) {
+    if (version != this.version) {
+      expiryByQueryKey.clear();
+      this.version = version;
+    }
+  }
+
+  /**
+   * Forget all query keys
+   */
+  public synchronized void clear() {
+    expiryByQueryKey.clear();
+  }
+
+  /**
+   * @return the number of query keys remembered, including expired ones not yet removed
+   */
+  public synchronized int size() {
+    return expiryByQueryKey.size();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getTimeToLive() {
+    return timeToLive;
+  }
+
+  /**
+   * @return the current time in milliseconds
+   */
+  protected long now() {
+    return System.currentTimeMillis();
+  }
+
+  private void expireEntries() {
+    long now = now();
+    for (Iterator<Long> it = expiryByQueryKey.values().iterator(); it.hasNext();) {
+      if (it.next() > now) {
+        break;
+      }
+      it.remove();
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+/**
+ * Turns user queries into the <i>query keys</i> a {@link Dictionary} stores
+ * suggestions under, see {@link Dictionary#formatQueryKey}. Queries normalizing
+ * to the same query key share their suggestions, so a normalizer decides which
+ * spellings of a query the dictionary treats as one.
+ * <p/>
+ * Normalizers can be combined with a {@link QueryKeyNormalizerChain}.
+ * Implementations must be thread safe, and a persistent dictionary must always
+ * be opened with the normalizer it was built with.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ * @see LetterQueryKeyNormalizer
+ * @see FoldingQueryKeyNormalizer
+ */
+public interface QueryKeyNormalizer {
+
+  /**
+   * @param query the user query, or the output of a previous normalizer in a chain
+   * @return the normalized form of {@code query}. Never {@code null}
+   */
+  public abstract String normalize(String query);
+
+}
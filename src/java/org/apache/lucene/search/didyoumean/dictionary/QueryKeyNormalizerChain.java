@@ -0,0 +1,60 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A {@link QueryKeyNormalizer} passing the query through a number of
+ * normalizers, in order.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class QueryKeyNormalizerChain implements QueryKeyNormalizer {
+
+  private final QueryKeyNormalizer[] normalizers;
+
+  /**
+   * Create the chain usually wanted for free text queries: fold compatibility
+   * forms, diacritics and case as in {@code locale} with a
+   * {@link FoldingQueryKeyNormalizer}, then keep the letters only with a
+   * {@link LetterQueryKeyNormalizer}. With this chain <i>"Caf&eacute;"</i>,
+   * <i>"cafe"</i> and the full width <i>"&#xFF43;&#xFF41;&#xFF46;&#xFF45;"</i> share the query key
+   * <i>"cafe"</i>.
+   *
+   * @param locale the locale of the queries, used for case folding
+   * @return a new chain
+   */
+  public static QueryKeyNormalizerChain createFolding(Locale locale) {
+    return new QueryKeyNormalizerChain(
+        new FoldingQueryKeyNormalizer(locale, true), LetterQueryKeyNormalizer.INSTANCE);
+  }
+
+  public QueryKeyNormalizerChain(QueryKeyNormalizer... normalizers) {
+    this(Arrays.asList(normalizers));
+  }
+
+  public QueryKeyNormalizerChain(List<? extends QueryKeyNormalizer> normalizers) {
+    if (normalizers.isEmpty()) {
+      throw new IllegalArgumentException("At least one normalizer is required");
+    }
+    this.normalizers = normalizers.toArray(new QueryKeyNormalizer[normalizers.size()]);
+  }
+
+  /**
+   * @return the normalizers of the chain, in the order they are applied
+   */
+  public List<QueryKeyNormalizer> getNormalizers() {
+    return Collections.unmodifiableList(new ArrayList<QueryKeyNormalizer>(Arrays.asList(normalizers)));
+  }
+
+  public String normalize(String query) {
+    for (QueryKeyNormalizer normalizer : normalizers) {
+      query = normalizer.normalize(query);
+    }
+    return query;
+  }
+}
@@ -0,0 +1,244 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import org.apache.lucene.search.didyoumean.Suggester;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link Dictionary} partitioning the query keys across a number of child
+ * dictionaries, the <i>shards</i>, by the hash of the query key. Each query key
+ * lives in exactly one shard, so lookups and writes for different query keys
+ * are spread over the shards. The shards could for instance be
+ * {@link H2Dictionary}s on separate disks or a number of {@link MemoryDictionary}s.
+ * <p/>
+ * {@link #prune}, {@link #optimize} and {@link #close} are run on all shards,
+ * in parallel if the sharded dictionary was created with an
+ * {@link ExecutorService}. Chains of suggestions may cross shards, so
+ * {@link #optimize} collapses chains through the sharded dictionary rather
+ * than asking each shard to optimize itself.
+ * <p/>
+ * All shards must use the same {@link #formatQueryKey} as the sharded dictionary,
+ * which {@link #setQueryKeyNormalizer} takes care of.
+ * The number and order of the shards must stay the same for the lifetime of
+ * persistent shards, or query keys will be looked up in the wrong shard.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 11, 2010
+ */
+public class ShardedDictionary extends Dictionary {
+
+  private final List<Dictionary> shards;
+  private final ExecutorService executor;
+
+  /**
+   * Create a sharded dictionary working on one shard at a time
+   * @param shards the child dictionaries
+   */
+  public ShardedDictionary(List<? extends Dictionary> shards) {
+    this(shards, null);
+  }
+
+  /**
+   * Create a sharded dictionary
+   * @param shards the child dictionaries
+   * @param executor executor used to run {@link #prune}, {@link #optimize} and
+   *                 {@link #close} on the shards in parallel, or {@code null}
+   *                 to work on one shard at a time. The executor is not shut
+   *                 down when the dictionary is closed
+   */
+  public ShardedDictionary(List<? extends Dictionary> shards, ExecutorService executor) {
+    if (shards.isEmpty()) {
+      throw new IllegalArgumentException("At least one shard is required");
+    }
+    this.shards = Collections.unmodifiableList(new ArrayList<Dictionary>(shards));
+    this.executor = executor;
+  }
+
+  /**
+   * @return the child dictionaries, in the order the query keys are partitioned by
+   */
+  public List<Dictionary> getShards() {
+    return shards;
+  }
+
+  /**
+   * Get the shard storing {@code queryKey}
+   * @param queryKey a query key as returned by {@link #formatQueryKey}
+   * @return the shard storing the suggestions for {@code queryKey}
+   */
+  public Dictionary getShard(String queryKey) {
+    return shards.get((mixHash(queryKey.hashCode()) & Integer.MAX_VALUE) % shards.size());
+  }
+
+  /**
+   * Set the query key normalizer of the sharded dictionary and all its shards
+   * @param queryKeyNormalizer the normalizer to use
+   */
+  @Override
+  public void setQueryKeyNormalizer(QueryKeyNormalizer queryKeyNormalizer) {
+    super.setQueryKeyNormalizer(queryKeyNormalizer);
+    for (Dictionary shard : shards) {
+      shard.setQueryKeyNormalizer(queryKeyNormalizer);
+    }
+  }
+
+  @Override
+  public SuggestionList getSuggestions(String query) throws QueryException {
+    String queryKey = formatQueryKey(query);
+    return getShard(queryKey).getSuggestions(queryKey);
+  }
+
+  @Override
+  public void put(SuggestionList suggestions) {
+    getShard(suggestions.getQueryKey()).put(suggestions);
+  }
+
+  @Override
+  public void update(String query, Update update) throws QueryException {
+    String queryKey = formatQueryKey(query);
+    getShard(queryKey).update(queryKey, update);
+  }
+
+  @Override
+  public void optimize(final Suggester suggester) throws IOException {
+    forEachShard(new ShardTask() {
+      public void run(Dictionary shard) throws IOException {
+        // Collect the keys up front, as rewriting lists may disturb the shard iterator
+        List<String> queryKeys = new ArrayList<String>(shard.size());
+        for (SuggestionList suggestions : shard) {
+          queryKeys.add(suggestions.getQueryKey());
+        }
+        collapseSuggestionChains(suggester, queryKeys);
+      }
+    });
+  }
+
+  @Override
+  public void prune(final int maxSize, final double maxScoreGap, final double minTopScore) throws IOException {
+    forEachShard(new ShardTask() {
+      public void run(Dictionary shard) throws IOException {
+        shard.prune(maxSize, maxScoreGap, minTopScore);
+      }
+    });
+  }
+
+  @Override
+  public void close() throws IOException {
+    forEachShard(new ShardTask() {
+      public void run(Dictionary shard) throws IOException {
+        shard.close();
+      }
+    });
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (Dictionary shard : shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  /**
+   * Iterate over the suggestion lists of all shards, one shard after the other
+   * @return an iterator over all suggestion lists in the dictionary
+   */
+  public Iterator<SuggestionList> iterator() {
+    return new Iterator<SuggestionList>() {
+      private int shard = 0;
+      private Iterator<SuggestionList> current = shards.get(0).iterator();
+
+      public boolean hasNext() {
+        while (!current.hasNext()) {
+          if (++shard == shards.size()) {
+            return false;
+          }
+          current = shards.get(shard).iterator();
+        }
+        return true;
+      }
+
+      public SuggestionList next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+
+      public void remove() {
+        current.remove();
+      }
+    };
+  }
+
+  private interface ShardTask {
+    public void run(Dictionary shard) throws IOException;
+  }
+
+  /**
+   * Run {@code task} on all shards, on the executor if there is one. All tasks
+   * are run to completion even if some of them fail, and the first failure is
+   * then rethrown
+   */
+  private void forEachShard(final ShardTask task) throws IOException {
+    if (executor == null) {
+      IOException error = null;
+      for (Dictionary shard : shards) {
+        try {
+          task.run(shard);
+        } catch (IOException e) {
+          if (error == null) {
+            error = e;
+          }
+        }
+      }
+      if (error != null) {
+        throw error;
+      }
+      return;
+    }
+
+    List<Future<Object>> futures = new ArrayList<Future<Object>>(shards.size());
+    for (final Dictionary shard : shards) {
+      futures.add(executor.submit(new Callable<Object>() {
+        public Object call() throws IOException {
+          task.run(shard);
+          return null;
+        }
+      }));
+    }
+
+    Throwable error = null;
+    for (Future<Object> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (error == null) {
+          error = e.getCause();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for shards");
+      }
+    }
+
+    if (error instanceof IOException) {
+      throw (IOException) error;
+    } else if (error instanceof RuntimeException) {
+      throw (RuntimeException) error;
+    } else if (error instanceof Error) {
+      throw (Error) error;
+    }
+  }
+}
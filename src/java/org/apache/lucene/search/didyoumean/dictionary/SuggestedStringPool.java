@@ -0,0 +1,102 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A pool of interned suggestion strings, each identified by a small integer id.
+ * Compact {@link SuggestionList}s store these ids instead of references to
+ * {@link org.apache.lucene.search.didyoumean.Suggestion} objects, so a suggestion
+ * string shared by many query keys is only kept in memory once.
+ * <p/>
+ * The pool only ever grows. Lookups are lock free and it is safe to intern
+ * new strings from several threads at the same time. Strings are never
+ * removed, not even when no list refers to them anymore, e.g. after
+ * {@link Dictionary#prune} removed their suggestions. The ids stored in the
+ * lists would have to be rewritten to compact the pool, so to reclaim the
+ * memory the lists must be copied in to a dictionary with a new pool.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 3, 2010
+ */
+public class SuggestedStringPool implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private final ConcurrentMap<String,Integer> idsBySuggested = new ConcurrentHashMap<String,Integer>();
+  private volatile String[] suggestedById = new String[64];
+  private int size = 0;
+
+  /**
+   * Get the id of {@code suggested}, adding it to the pool if it is not already there
+   * @param suggested the suggestion string to intern
+   * @return the id of {@code suggested}
+   */
+  public int intern(String suggested) {
+    Integer id = idsBySuggested.get(suggested);
+    if (id != null) {
+      return id;
+    }
+
+    synchronized (this) {
+      id = idsBySuggested.get(suggested);
+      if (id != null) {
+        return id;
+      }
+
+      String[] strings = suggestedById;
+      if (size == strings.length) {
+        String[] grown = new String[strings.length * 2];
+        System.arraycopy(strings, 0, grown, 0, size);
+        strings = grown;
+      }
+      strings[size] = suggested;
+      suggestedById = strings;
+      idsBySuggested.put(suggested, size);
+      return size++;
+    }
+  }
+
+  /**
+   * Get the id of {@code suggested} without adding it to the pool
+   * @param suggested the suggestion string to look up
+   * @return the id of {@code suggested} or {@code -1} if it is not in the pool
+   */
+  public int lookup(String suggested) {
+    Integer id = idsBySuggested.get(suggested);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Get the suggestion string with the id {@code id}
+   * @param id an id previously returned from {@link #intern(String)}
+   * @return the suggestion string with the given id
+   */
+  public String get(int id) {
+    return suggestedById[id];
+  }
+
+  /**
+   * The number of unique suggestion strings in the pool
+   * @return the number of unique suggestion strings in the pool
+   */
+  public int size() {
+    return idsBySuggested.size();
+  }
+}
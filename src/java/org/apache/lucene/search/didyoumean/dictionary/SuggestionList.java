@@ -17,19 +17,32 @@ package org.apache.lucene.search.didyoumean.dictionary;
 
 import java.io.Serializable;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
 
 import org.apache.lucene.search.didyoumean.Suggestion;
 
 /**
- * A list of suggetions to a miss spelled word, which may optionally be ordered
- * by suggestion score.
+ * A list of suggetions to a miss spelled word, ordered by descending
+ * suggestion score. The suggestion at offset {@code 0} is the top suggestion.
  * <p/>
  * The suggestion list does not know about the original user query, only the
  * normalized form of the query, known as the <i>query key</i>, obtained from
  * calling {@link Dictionary#formatQueryKey(String)} on the original user query.
+ * <p/>
+ * A suggestion list comes in one of two forms. The default form keeps a linked
+ * list of {@link Suggestion} objects which can be modified in place, eg. by
+ * calling {@link Suggestion#setScore(double)} followed by {@link #sort()}.
+ * The <i>compact</i> form stores the scores, corpus query results, and
+ * suggestion strings in parallel primitive arrays, the latter as ids into a
+ * {@link SuggestedStringPool} shared by all lists in a dictionary. Compact lists
+ * use a fraction of the memory and are meant for dictionaries holding many
+ * lists in memory. The {@link Suggestion} objects returned by a compact list are
+ * detached copies, so changing them does not change the list.
  *
  * @author Karl Wettin <mailto:karl.wettin@gmail.com>, Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
  * @since 2007-feb-02
@@ -39,8 +52,27 @@ public class SuggestionList implements Iterable<Suggestion>, Serializable {
   // private static Log log = LogFactory.getLog(SuggestionsList.class);
   private static long serialVersionUID = 1l;
 
+  /**
+   * Orders suggestions by descending score
+   */
+  private static final Comparator<Suggestion> byDescendingScore = Collections.reverseOrder();
+
+  /**
+   * Stored in the compact form in place of a {@code null} corpus query result count
+   */
+  private static final int NO_RESULTS = Integer.MIN_VALUE;
+
   private String queryKey;
-  private List<Suggestion> suggestions = new LinkedList<Suggestion>();
+
+  // Default form. Null if this list is compact
+  private List<Suggestion> suggestions;
+
+  // Compact form. Only used if pool is non-null
+  private SuggestedStringPool pool;
+  private int[] suggestedIds;
+  private double[] scores;
+  private int[] corpusQueryResults;
+  private int size;
 
   /**
    * Create a new suggestion list for the query key {@code queryKey}.
@@ -50,6 +82,69 @@ public class SuggestionList implements Iterable<Suggestion>, Serializable {
    */
   SuggestionList(String queryKey) {
     this.queryKey = queryKey;
+    suggestions = new LinkedList<Suggestion>();
+  }
+
+  /**
+   * Create a new, compact, suggestion list for the query key {@code queryKey}.
+   * @param queryKey the query key to use for this suggestion list
+   * @param pool the pool to intern suggestion strings in
+   */
+  SuggestionList(String queryKey, SuggestedStringPool pool) {
+    this.queryKey = queryKey;
+    this.pool = pool;
+    suggestedIds = new int[2];
+    scores = new double[2];
+    corpusQueryResults = new int[2];
+  }
+
+  /**
+   * Create a deep copy of {@code other} in the default, non-compact, form.
+   * The new list holds its own {@link Suggestion} instances so changes to either
+   * list, or to the suggestions in it, will not be visible in the other.
+   * @param other the suggestion list to copy
+   */
+  SuggestionList(SuggestionList other) {
+    this(other.queryKey);
+    for (Suggestion suggestion : other) {
+      // Compact lists always hand out fresh copies
+      suggestions.add(other.isCompact() ? suggestion :
+                      new Suggestion(suggestion.getSuggested(),
+                                     suggestion.getScore(),
+                                     suggestion.getCorpusQueryResults()));
+    }
+  }
+
+  /**
+   * Create a compact copy of {@code other}
+   * @param other the suggestion list to copy
+   * @param pool the pool to intern suggestion strings in
+   */
+  SuggestionList(SuggestionList other, SuggestedStringPool pool) {
+    this.queryKey = other.queryKey;
+    this.pool = pool;
+    int otherSize = other.size();
+    suggestedIds = new int[otherSize];
+    scores = new double[otherSize];
+    corpusQueryResults = new int[otherSize];
+    for (Suggestion suggestion : other) {
+      suggestedIds[size] = pool.intern(suggestion.getSuggested());
+      scores[size] = suggestion.getScore();
+      corpusQueryResults[size] = toPrimitive(suggestion.getCorpusQueryResults());
+      size++;
+    }
+    if (!other.isCompact()) {
+      // The suggestions in a non-compact list may have been modified since it was sorted
+      sort();
+    }
+  }
+
+  /**
+   * Returns {@code true} if this list is stored in the compact form
+   * @return true if the list is compact
+   */
+  public boolean isCompact() {
+    return pool != null;
   }
 
   /**
@@ -58,6 +153,12 @@ public class SuggestionList implements Iterable<Suggestion>, Serializable {
    * @return the {@code Suggestion} at offset {@code index}
    */
   public Suggestion get(int index) {
+    if (isCompact()) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      return copy(index);
+    }
     return suggestions.get(index);
   }
 
@@ -68,6 +169,10 @@ public class SuggestionList implements Iterable<Suggestion>, Serializable {
    *         or {@code null} in case no such suggestion was found
    */
   public Suggestion get(String suggested) {
+    if (isCompact()) {
+      int index = indexOf(suggested);
+      return index < 0 ? null : copy(index);
+    }
     for (Suggestion suggestion : suggestions) {
       if (suggestion.getSuggested().equals(suggested)) {
         return suggestion;
@@ -81,7 +186,34 @@ public class SuggestionList implements Iterable<Suggestion>, Serializable {
    * @return an iterator over all {@link Suggestion}s in this list
    */
   public Iterator<Suggestion> iterator() {
-    return suggestions.iterator();
+    if (!isCompact()) {
+      return suggestions.iterator();
+    }
+
+    return new Iterator<Suggestion>() {
+      private int next = 0;
+      private boolean removable = false;
+
+      public boolean hasNext() {
+        return next < size;
+      }
+
+      public Suggestion next() {
+        if (next >= size) {
+          throw new NoSuchElementException();
+        }
+        removable = true;
+        return copy(next++);
+      }
+
+      public void remove() {
+        if (!removable) {
+          throw new IllegalStateException();
+        }
+        removable = false;
+        removeCompact(--next);
+      }
+    };
   }
 
   /**
@@ -89,7 +221,7 @@ public class SuggestionList implements Iterable<Suggestion>, Serializable {
    * @return the number of suggestions in this list
    */
   public int size() {
-    return suggestions.size();
+    return isCompact() ? size : suggestions.size();
   }
 
   /**
@@ -99,6 +231,9 @@ public class SuggestionList implements Iterable<Suggestion>, Serializable {
    * @return see above
    */
   public boolean containsSuggested(String suggested) {
+    if (isCompact()) {
+      return indexOf(suggested) >= 0;
+    }
     return get(suggested) != null;
   }
 
@@ -112,12 +247,23 @@ public class SuggestionList implements Iterable<Suggestion>, Serializable {
     if (containsSuggested(suggested)) {
       throw new IllegalArgumentException("Already contains suggested '" + suggested + "'");
     }
+
+    if (isCompact()) {
+      addCompact(pool.intern(suggested), score, toPrimitive(corpusQueryResults));
+      return;
+    }
+
+    // Insert before the first suggestion with a lower or equal score, so that
+    // the most recently added of suggestions with equal scores comes first
     Suggestion suggestion = new Suggestion(suggested, score, corpusQueryResults);
-    int index = Collections.binarySearch(suggestions, suggestion);
-    if (index < 0) {
-      index = (index * -1) - 1;
+    ListIterator<Suggestion> it = suggestions.listIterator();
+    while (it.hasNext()) {
+      if (byDescendingScore.compare(it.next(), suggestion) >= 0) {
+        it.previous();
+        break;
+      }
     }
-    suggestions.add(index, suggestion);
+    it.add(suggestion);
   }
 
   /**
@@ -148,7 +294,7 @@ public class SuggestionList implements Iterable<Suggestion>, Serializable {
    * @param filter the filter to apply to {@code this}
    */
   public void filterTo(List<Suggestion> list, Filter filter) {
-    for (Suggestion s : this.suggestions) {
+    for (Suggestion s : this) {
       if (filter.accept(s)) {
         list.add(s);
       }
@@ -164,15 +310,49 @@ public class SuggestionList implements Iterable<Suggestion>, Serializable {
    * @return {@code arr} or a new array as described above
    */
   public Suggestion[] toArray(Suggestion[] arr) {
-    return suggestions.toArray(arr);
+    if (!isCompact()) {
+      return suggestions.toArray(arr);
+    }
+
+    if (arr.length < size) {
+      arr = new Suggestion[size];
+    } else if (arr.length > size) {
+      arr[size] = null;
+    }
+    for (int i = 0; i < size; i++) {
+      arr[i] = copy(i);
+    }
+    return arr;
   }
 
   /**
-   * Sort all suggestions in this list according to their score
+   * Sort all suggestions in this list according to their score, highest score first
    * @see Suggestion#getScore()
    */
   public void sort() {
-    Collections.sort(suggestions);
+    if (!isCompact()) {
+      Collections.sort(suggestions, byDescendingScore);
+      return;
+    }
+
+    // Compact lists can not be modified out of order, so unless we are
+    // copying a list this is a single pass over already sorted arrays.
+    // Insertion sort is stable and linear in that case
+    for (int i = 1; i < size; i++) {
+      int id = suggestedIds[i];
+      double score = scores[i];
+      int results = corpusQueryResults[i];
+      int j = i - 1;
+      while (j >= 0 && scores[j] < score) {
+        suggestedIds[j + 1] = suggestedIds[j];
+        scores[j + 1] = scores[j];
+        corpusQueryResults[j + 1] = corpusQueryResults[j];
+        j--;
+      }
+      suggestedIds[j + 1] = id;
+      scores[j + 1] = score;
+      corpusQueryResults[j + 1] = results;
+    }
   }
 
   /**
@@ -185,10 +365,94 @@ public class SuggestionList implements Iterable<Suggestion>, Serializable {
   }
 
   /**
-   * Get the raw {@code List} backing this suggestion list
+   * Get the raw {@code List} backing this suggestion list. Compact lists
+   * are converted to the default form by calling this method.
    * @return the list instance used to hold the suggestions
    */
   List<Suggestion> getSuggestions() {
+    if (isCompact()) {
+      List<Suggestion> list = new LinkedList<Suggestion>();
+      for (int i = 0; i < size; i++) {
+        list.add(copy(i));
+      }
+      suggestions = list;
+      pool = null;
+      suggestedIds = null;
+      scores = null;
+      corpusQueryResults = null;
+      size = 0;
+    }
     return suggestions;
   }
+
+  /**
+   * Create a new {@link Suggestion} from the entry at {@code index} in a compact list
+   */
+  private Suggestion copy(int index) {
+    int results = corpusQueryResults[index];
+    return new Suggestion(pool.get(suggestedIds[index]),
+                          scores[index],
+                          results == NO_RESULTS ? null : results);
+  }
+
+  private int indexOf(String suggested) {
+    int id = pool.lookup(suggested);
+    if (id < 0) {
+      return -1;
+    }
+    for (int i = 0; i < size; i++) {
+      if (suggestedIds[i] == id) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void addCompact(int id, double score, int results) {
+    if (size == scores.length) {
+      int capacity = size < 2 ? 2 : size + (size >> 1);
+      int[] newIds = new int[capacity];
+      double[] newScores = new double[capacity];
+      int[] newResults = new int[capacity];
+      System.arraycopy(suggestedIds, 0, newIds, 0, size);
+      System.arraycopy(scores, 0, newScores, 0, size);
+      System.arraycopy(corpusQueryResults, 0, newResults, 0, size);
+      suggestedIds = newIds;
+      scores = newScores;
+      corpusQueryResults = newResults;
+    }
+
+    // Find the first entry with a lower or equal score, same as in the default form
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (scores[mid] > score) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    int tail = size - low;
+    System.arraycopy(suggestedIds, low, suggestedIds, low + 1, tail);
+    System.arraycopy(scores, low, scores, low + 1, tail);
+    System.arraycopy(corpusQueryResults, low, corpusQueryResults, low + 1, tail);
+    suggestedIds[low] = id;
+    scores[low] = score;
+    corpusQueryResults[low] = results;
+    size++;
+  }
+
+  private void removeCompact(int index) {
+    int tail = size - index - 1;
+    System.arraycopy(suggestedIds, index + 1, suggestedIds, index, tail);
+    System.arraycopy(scores, index + 1, scores, index, tail);
+    System.arraycopy(corpusQueryResults, index + 1, corpusQueryResults, index, tail);
+    size--;
+  }
+
+  private static int toPrimitive(Integer corpusQueryResults) {
+    return corpusQueryResults == null ? NO_RESULTS : corpusQueryResults;
+  }
 }
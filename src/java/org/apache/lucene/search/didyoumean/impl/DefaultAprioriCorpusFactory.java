@@ -40,19 +40,20 @@ public class DefaultAprioriCorpusFactory implements AprioriCorpusFactory {
     // create an a priori index based on the inverted dictionary
 
     System.out.println("Inverting index...");
-    Map<String, SuggestionList> inverted = dictionary.inverted();
+    Iterator<SuggestionList> inverted = dictionary.invertedIterator();
 
     IndexWriterFacade aprioriWriter = aprioriIndex.indexWriterFactory(aprioriAnalyzer, true);
 
 //    int i=0;
 //    int i2=0;
     System.out.println("Extracting most commonly misspelled words and phrases...");
-    for (Map.Entry<String, SuggestionList> e : inverted.entrySet()) {
-      if (e.getValue().size() > 1) {
-        String suggested = suggester.didYouMean(dictionary, e.getKey());
-        if (suggested != null && suggested.equalsIgnoreCase(e.getKey())) {
+    while (inverted.hasNext()) {
+      SuggestionList misspellings = inverted.next();
+      if (misspellings.size() > 1) {
+        String suggested = suggester.didYouMean(dictionary, misspellings.getQueryKey());
+        if (suggested != null && suggested.equalsIgnoreCase(misspellings.getQueryKey())) {
           Document d = new Document();
-          d.add(new Field(aprioriIndexField, e.getKey(), Field.Store.NO, Field.Index.ANALYZED, Field.TermVector.WITH_POSITIONS));
+          d.add(new Field(aprioriIndexField, misspellings.getQueryKey(), Field.Store.NO, Field.Index.ANALYZED, Field.TermVector.WITH_POSITIONS));
           aprioriWriter.addDocument(d);
 //          i2++;
 //          System.out.println(i + "\t" + i2);
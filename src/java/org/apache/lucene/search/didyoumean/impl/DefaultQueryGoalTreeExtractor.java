@@ -17,7 +17,7 @@ package org.apache.lucene.search.didyoumean.impl;
 
 
 import org.apache.lucene.search.didyoumean.EditDistance;
-import org.apache.lucene.search.didyoumean.Levenshtein;
+import org.apache.lucene.search.didyoumean.MyersLevenshtein;
 import org.apache.lucene.search.didyoumean.session.QueryGoalNode;
 import org.apache.lucene.search.didyoumean.session.QueryGoalTreeExtractor;
 
@@ -78,7 +78,7 @@ public class DefaultQueryGoalTreeExtractor<R> implements QueryGoalTreeExtractor<
 
       EditDistance editDistance = editDistanceFactory(child.getParent().getQuery());
       //double similarity = ((double) distance / previousLink.link.length());
-      double similarity = 1.0f - ((double) editDistance.getDistance(child.getQuery()) / Math.min(child.getQuery().length(), child.getParent().getQuery().length()));
+      double similarity = editDistance.getNormalizedDistance(child.getQuery(), getMinimumSimilarity());
       if (similarity >= getMinimumSimilarity()) {
         // similair enough
         return true;
@@ -105,7 +105,7 @@ public class DefaultQueryGoalTreeExtractor<R> implements QueryGoalTreeExtractor<
   }
 
   public EditDistance editDistanceFactory(String sd) {
-    return new Levenshtein(sd);
+    return new MyersLevenshtein(sd);
   }
 
 
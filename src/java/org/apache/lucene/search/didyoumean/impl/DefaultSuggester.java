@@ -17,7 +17,7 @@ package org.apache.lucene.search.didyoumean.impl;
 
 import org.apache.lucene.search.didyoumean.AbstractSuggester;
 import org.apache.lucene.search.didyoumean.EditDistance;
-import org.apache.lucene.search.didyoumean.Levenshtein;
+import org.apache.lucene.search.didyoumean.MyersLevenshtein;
 import org.apache.lucene.search.didyoumean.Suggestion;
 import org.apache.lucene.search.didyoumean.dictionary.Dictionary;
 import org.apache.lucene.search.didyoumean.dictionary.QueryException;
@@ -152,8 +152,20 @@ public class DefaultSuggester extends AbstractSuggester implements Serializable
   }
 
 
+  /**
+   * Follow {@code nested} if it is not suppressed and
+   * {@link #hasBetterNestedSuggestion} prefers it
+   */
+  @Override
+  public boolean isNestedSuggestionPreferred(Suggestion current, Suggestion nested) {
+    return nested.getScore() > getSuggestionSupressionThreadshold()
+        && nested.getCorpusQueryResults() != null
+        && hasBetterNestedSuggestion(new Suggestion[]{nested}, new Suggestion[]{current});
+  }
+
+
   public EditDistance editDistanceFactory(String sd) {
-    return new Levenshtein(sd);
+    return new MyersLevenshtein(sd);
   }
 
 
@@ -187,7 +199,7 @@ public class DefaultSuggester extends AbstractSuggester implements Serializable
         if (ret.size() > 2) {
           for (int i = 2; i < ret.size(); i++) {
             if (ret.get(i).getCorpusQueryResults() > ret.get(0).getCorpusQueryResults()
-                && ed.getNormalizedDistance(ret.get(i).getSuggested()) > 0.8d /* todo setting */) {
+                && ed.getNormalizedDistance(ret.get(i).getSuggested(), 0.8d) > 0.8d /* todo setting */) {
               topHits.add(ret.get(i));
             }
           }
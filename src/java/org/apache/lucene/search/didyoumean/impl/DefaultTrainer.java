@@ -17,7 +17,7 @@ package org.apache.lucene.search.didyoumean.impl;
 
 
 import org.apache.lucene.search.didyoumean.EditDistance;
-import org.apache.lucene.search.didyoumean.Levenshtein;
+import org.apache.lucene.search.didyoumean.MyersLevenshtein;
 import org.apache.lucene.search.didyoumean.Suggestion;
 import org.apache.lucene.search.didyoumean.dictionary.Dictionary;
 import org.apache.lucene.search.didyoumean.dictionary.QueryException;
@@ -71,22 +71,28 @@ public class DefaultTrainer<R> implements Trainer<R> {
     // positive and negative adaptation of suggestion scores 
     for (Iterator<QueryGoalNode<R>> it = goalTreeRoot.iterateChildrenRecursive(); it.hasNext();) {
       numChildrenRecursive++;
-      QueryGoalNode<R> node = it.next();
+      final QueryGoalNode<R> node = it.next();
       if (node.getParent().getSuggestion() != null) {
 
-        SuggestionList suggestions = dictionary.getSuggestions(dictionary.formatQueryKey(node.getParent().getQuery()));
-        Suggestion suggestion = suggestions.get(node.getParent().getSuggestion());
+        dictionary.update(node.getParent().getQuery(), new Dictionary.Update() {
+          public boolean apply(SuggestionList suggestions) {
+            Suggestion suggestion = suggestions.get(node.getParent().getSuggestion());
+            if (suggestion == null) {
+              return false;
+            }
 
-        if (node.getQuery().equals(node.getParent().getSuggestion())) {
-          // user took our suggestion, increase the score of that suggestion. 
-          suggestion.setScore(suggestion.getScore() * getAcceptedSuggestionPositiveAdaptationFactor());
-        } else {
-          // user did not take our suggestion, decrease the score of that suggestion.
-          suggestion.setScore(suggestion.getScore() * getIgnoredSuggestionNegativeAdaptationFactor());
-        }
+            if (node.getQuery().equals(node.getParent().getSuggestion())) {
+              // user took our suggestion, increase the score of that suggestion.
+              suggestion.setScore(suggestion.getScore() * getAcceptedSuggestionPositiveAdaptationFactor());
+            } else {
+              // user did not take our suggestion, decrease the score of that suggestion.
+              suggestion.setScore(suggestion.getScore() * getIgnoredSuggestionNegativeAdaptationFactor());
+            }
 
-        suggestions.sort();
-        dictionary.put(suggestions);
+            suggestions.sort();
+            return true;
+          }
+        });
       }
     }
 
@@ -186,16 +192,17 @@ public class DefaultTrainer<R> implements Trainer<R> {
           for (QueryGoalNode<R> node : nodesWithGoals) {
 
             // but only register it once.
-            SuggestionList suggestions = dictionary.getSuggestions(node.getQuery());
-            if (suggestions == null) {
-              suggestions = dictionary.suggestionListFactory(node.getQuery());
-            }
-
-            String suggestedQuery = nodesWithGoals.get(0).getQuery();
-            if (!suggestions.containsSuggested(suggestedQuery)) {
-              suggestions.addSuggested(suggestedQuery, 1d, nodesWithGoals.get(0).getcorpusQueryResults());
-              dictionary.put(suggestions);
-            }
+            final String suggestedQuery = nodesWithGoals.get(0).getQuery();
+            final Integer suggestedCorpusQueryResults = nodesWithGoals.get(0).getcorpusQueryResults();
+            dictionary.update(node.getQuery(), new Dictionary.Update() {
+              public boolean apply(SuggestionList suggestions) {
+                if (suggestions.containsSuggested(suggestedQuery)) {
+                  return false;
+                }
+                suggestions.addSuggested(suggestedQuery, 1d, suggestedCorpusQueryResults);
+                return true;
+              }
+            });
 
             // uncomment to adapt every time
             // adaptPositive(dictionary, nodesWithGoals.get(0).getQueryKey(), nodesWithGoals.get(0).getCorpusQueryResults(), node);
@@ -218,7 +225,7 @@ public class DefaultTrainer<R> implements Trainer<R> {
 
 
   public EditDistance editDistanceFactory(String sd) {
-    return new Levenshtein(sd);
+    return new MyersLevenshtein(sd);
   }
 
 
@@ -236,32 +243,30 @@ public class DefaultTrainer<R> implements Trainer<R> {
     return closest;
   }
 
-  private void adaptPositive(Dictionary dictionary, String suggested, Integer suggestedCorpusQueryResults, QueryGoalNode<R> dictionaryKeyNode) throws QueryException {
-    SuggestionList suggestions = dictionary.getSuggestions(dictionaryKeyNode.getQuery());
-    if (suggestions == null) {
-      suggestions = dictionary.suggestionListFactory(dictionaryKeyNode.getQuery());
-      suggestions.addSuggested(suggested, 1d, suggestedCorpusQueryResults);
-    } else {
-      boolean suggestionUpdated = false;
-      for (Suggestion existingSuggestion : suggestions) {
-        if (existingSuggestion.getSuggested().equals(suggested)) {
-          // the query already have this suggestion in the suggestions.
-          // increase the score for the suggestion. (positive adaptation)
-          double score = existingSuggestion.getScore() * getNotSuggestedPositiveAdaptationFactor();
-          if (score > 9999) {
-            score = 9999;
+  private void adaptPositive(Dictionary dictionary, final String suggested, final Integer suggestedCorpusQueryResults, QueryGoalNode<R> dictionaryKeyNode) throws QueryException {
+    dictionary.update(dictionaryKeyNode.getQuery(), new Dictionary.Update() {
+      public boolean apply(SuggestionList suggestions) {
+        boolean suggestionUpdated = false;
+        for (Suggestion existingSuggestion : suggestions) {
+          if (existingSuggestion.getSuggested().equals(suggested)) {
+            // the query already have this suggestion in the suggestions.
+            // increase the score for the suggestion. (positive adaptation)
+            double score = existingSuggestion.getScore() * getNotSuggestedPositiveAdaptationFactor();
+            if (score > 9999) {
+              score = 9999;
+            }
+            existingSuggestion.setScore(score);
+            suggestionUpdated = true;
+            break;
           }
-          existingSuggestion.setScore(score);
-          suggestionUpdated = true;
-          break;
         }
+        if (!suggestionUpdated) {
+          suggestions.addSuggested(suggested, 1d, suggestedCorpusQueryResults);
+        }
+        suggestions.sort();
+        return true;
       }
-      if (!suggestionUpdated) {
-        suggestions.addSuggested(suggested, 1d, suggestedCorpusQueryResults);
-      }
-      suggestions.sort();
-    }
-    dictionary.put(suggestions);
+    });
   }
 
 
@@ -0,0 +1,237 @@
+package org.apache.lucene.search.didyoumean.secondlevel.token;
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+
+/**
+ * Caches the document frequencies of the terms of one field in an a priori
+ * index, as looked up by the token suggesters for the query token and for
+ * every candidate they suggest.
+ * <p/>
+ * The frequencies are kept in an open addressing hash table of immutable
+ * entries, so a cached lookup creates no {@link Term} and no boxed integer.
+ * The cache holds frequencies of one reader, and one version of it, at a time.
+ * Asking for a frequency of another reader, a reader that has changed since,
+ * or another field, starts a new cache. The reader is only weakly referenced.
+ * <p/>
+ * The cache is bounded by {@link #getMaxSize()} terms, and is cleared when
+ * full. Lookups are thread safe and take no lock: the reader, version and
+ * field the frequencies are of, and their table, are read through a volatile
+ * field. Only caching a frequency looked up in the a priori index, or
+ * switching to another reader, locks the cache.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class DocFreqCache {
+
+  public static final int DEFAULT_MAX_SIZE = 65536;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final int maxSize;
+
+  private volatile Snapshot snapshot = new Snapshot(null, false, -1, null);
+
+  public DocFreqCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param maxSize the number of frequencies to cache before the cache is cleared.
+   */
+  public DocFreqCache(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+    }
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @param reader the a priori index.
+   * @param field  the field of the term.
+   * @param text   the text of the term.
+   * @return the number of documents in the reader containing the term.
+   * @throws IOException if the frequency is not cached and the reader failed.
+   */
+  public int docFreq(IndexReader reader, String field, String text) throws IOException {
+    Snapshot snapshot = this.snapshot;
+    if (!snapshot.isOf(reader, field)) {
+      snapshot = switchTo(reader, field);
+    }
+    Entry entry = snapshot.get(text);
+    if (entry != null) {
+      return entry.freq;
+    }
+
+    int freq = reader.docFreq(new Term(field, text));
+
+    synchronized (this) {
+      // don't cache the frequency if another reader was used in the meantime
+      if (this.snapshot == snapshot) {
+        snapshot.put(text, freq, maxSize);
+      }
+    }
+    return freq;
+  }
+
+  /**
+   * @return the snapshot of {@code reader} and {@code field}, a new one unless
+   *         another thread has just published it
+   */
+  private synchronized Snapshot switchTo(IndexReader reader, String field) {
+    Snapshot snapshot = this.snapshot;
+    boolean sameReader = snapshot.reader.get() == reader;
+    boolean versioned = sameReader ? snapshot.versioned : hasVersion(reader);
+    long version = versioned ? reader.getVersion() : -1;
+    if (!sameReader || snapshot.version != version || !field.equals(snapshot.field)) {
+      snapshot = new Snapshot(reader, versioned, version, field);
+      this.snapshot = snapshot;
+    }
+    return snapshot;
+  }
+
+  /**
+   * The version of a reader can change without it being reopened, e.g. when it
+   * is an instantiated index. Readers that have no version, such as a
+   * {@link org.apache.lucene.index.MultiReader}, are assumed not to change.
+   */
+  private static boolean hasVersion(IndexReader reader) {
+    try {
+      reader.getVersion();
+      return true;
+    } catch (UnsupportedOperationException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Empties the cache, keeping the table it has grown to.
+   */
+  public synchronized void clear() {
+    snapshot.clear();
+  }
+
+  /**
+   * @return the number of cached frequencies.
+   */
+  public synchronized int size() {
+    return snapshot.size;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * A cached frequency. Its fields are final, so a reader that finds it in the
+   * table without locking sees all of it
+   */
+  private static class Entry {
+    final String text;
+    final int freq;
+
+    Entry(String text, int freq) {
+      this.text = text;
+      this.freq = freq;
+    }
+  }
+
+  /**
+   * The frequencies of the terms of one field in one version of a reader.
+   * Which reader, version and field never change. The table only gains
+   * entries, and is replaced rather than changed when it grows or is cleared,
+   * so it is read without locking. It is written holding the lock of the cache
+   */
+  private static class Snapshot {
+    final WeakReference<IndexReader> reader;
+    /** Whether the reader has a version, found out once when the reader is switched to */
+    final boolean versioned;
+    final long version;
+    final String field;
+
+    /** The capacity is a power of two at least twice the size */
+    volatile Entry[] table = new Entry[INITIAL_CAPACITY];
+    int size = 0;
+
+    Snapshot(IndexReader reader, boolean versioned, long version, String field) {
+      this.reader = new WeakReference<IndexReader>(reader);
+      this.versioned = versioned;
+      this.version = version;
+      this.field = field;
+    }
+
+    boolean isOf(IndexReader reader, String field) {
+      return this.reader.get() == reader
+          && (versioned ? reader.getVersion() : -1) == version
+          && field.equals(this.field);
+    }
+
+    Entry get(String text) {
+      Entry[] table = this.table;
+      return table[slot(table, text)];
+    }
+
+    void put(String text, int freq, int maxSize) {
+      Entry[] table = this.table;
+      int slot = slot(table, text);
+      if (table[slot] != null) {
+        return;
+      }
+      if (size == maxSize) {
+        table = new Entry[table.length];
+        size = 0;
+        slot = slot(table, text);
+      } else if (2 * (size + 1) > table.length) {
+        Entry[] grown = new Entry[table.length * 2];
+        for (Entry entry : table) {
+          if (entry != null) {
+            grown[slot(grown, entry.text)] = entry;
+          }
+        }
+        table = grown;
+        slot = slot(table, text);
+      }
+      table[slot] = new Entry(text, freq);
+      size++;
+      this.table = table;
+    }
+
+    void clear() {
+      table = new Entry[table.length];
+      size = 0;
+    }
+
+    /**
+     * @return the slot of the text, or the empty slot it would be put in.
+     */
+    private static int slot(Entry[] table, String text) {
+      int hash = text.hashCode();
+      hash ^= (hash >>> 16);
+      int mask = table.length - 1;
+      int slot = hash & mask;
+      while (table[slot] != null && !table[slot].text.equals(text)) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+  }
+}
@@ -0,0 +1,571 @@
+package org.apache.lucene.search.didyoumean.secondlevel.token.automaton;
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.didyoumean.EditDistance;
+import org.apache.lucene.search.didyoumean.MyersLevenshtein;
+import org.apache.lucene.search.didyoumean.Suggestion;
+import org.apache.lucene.search.didyoumean.SuggestionPriorityQueue;
+import org.apache.lucene.search.didyoumean.secondlevel.token.DocFreqCache;
+import org.apache.lucene.search.didyoumean.secondlevel.token.TokenSuggester;
+import org.apache.lucene.search.didyoumean.secondlevel.token.TokenSuggestion;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A single token word suggester that needs no side index: the words are kept
+ * as a trie, and the query token is run against it as a Levenshtein
+ * automaton accepting the words within {@link #getMaxEditDistance()} edits.
+ * <p/>
+ * The states of the automaton are the rows of the edit distance matrix,
+ * limited to the diagonal band the maximum distance can reach. The trie is
+ * walked from the root, and a branch is left as soon as it leads to a state
+ * where all of the band exceeds the maximum distance. Where all of the band
+ * is at the maximum distance, only the chars of the query token within the
+ * band can keep the state alive, so only the branches starting with them
+ * are entered. The accepted words are scored by {@link #editDistanceFactory}
+ * like the suggestions of
+ * {@link org.apache.lucene.search.didyoumean.secondlevel.token.ngram.NgramTokenSuggester}.
+ * <p/>
+ * The cost of a query token is the number of trie nodes the automaton
+ * reaches, which grows steeply with the maximum distance: a distance of 1
+ * is many times cheaper than 2.
+ * <p/>
+ * The trie is stored in a few arrays holding one char and one int per
+ * node, so the dictionary costs about as much as the chars of the words.
+ * Words are added with {@link #indexDictionary}, which builds a new trie
+ * while suggestions keep running against the old one.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class LevenshteinTokenSuggester implements TokenSuggester {
+
+  // Per thread automaton states, one row per depth in the trie, grown as needed
+  private static final ThreadLocal<int[][]> states = new ThreadLocal<int[][]>();
+
+  private final int maxEditDistance;
+
+  private volatile Terms terms = Terms.EMPTY;
+
+  // frequencies of the query tokens and the suggestions in the a priori index
+  private final DocFreqCache aprioriFreqs = new DocFreqCache();
+
+  // minimum score for suggestions
+  private float minScore = 0.4f;
+
+  private boolean suggestSelf = false;
+  private boolean suggestOnlyMorePopularTokens = false;
+
+  /**
+   * Create a suggester finding words up to 2 edits away
+   */
+  public LevenshteinTokenSuggester() {
+    this(2);
+  }
+
+  /**
+   * @param maxEditDistance the number of edits a suggested word can be from the query token
+   */
+  public LevenshteinTokenSuggester(int maxEditDistance) {
+    if (maxEditDistance < 0) {
+      throw new IllegalArgumentException("maxEditDistance must be non-negative: " + maxEditDistance);
+    }
+    this.maxEditDistance = maxEditDistance;
+  }
+
+  public int getMaxEditDistance() {
+    return maxEditDistance;
+  }
+
+  /**
+   * Sets the accuracy 0 &lt; minScore &lt; 1; default 0.4
+   */
+  public void setAccuracy(float min) {
+    this.minScore = min;
+  }
+
+  public float getAccuracy() {
+    return minScore;
+  }
+
+  public SuggestionPriorityQueue suggest(String queryToken, int n) throws IOException {
+    return suggest(queryToken, n, suggestSelf, null, null, false);
+  }
+
+  /**
+   * Suggest similar words (restricted or not to a field of a user index)
+   *
+   * @param queryToken                   the word you want a spell check done on
+   * @param maxSuggestions               the number of suggest words
+   * @param suggestSelf                  if true, a suggestion can be the queried token.
+   * @param aprioriIndexReader           the user index, or null
+   * @param aprioriIndexField            the field of the user index: if field is not null, the suggested
+   *                                     words are restricted to the words present in this field.
+   * @param suggestMorePopularTokensOnly if true, suggest only tokens that are more frequent than the query token
+   *                                     (only if restricted mode = (aprioriIndex!=null and aprioriIndexField!=null)
+   * @return suggestions the query token
+   * @throws IOException if something went wrong in the aprioriIndex.
+   */
+  public SuggestionPriorityQueue suggest(String queryToken, int maxSuggestions, boolean suggestSelf, IndexReader aprioriIndexReader,
+                                         String aprioriIndexField, boolean suggestMorePopularTokensOnly) throws IOException {
+
+    SuggestionPriorityQueue queue = new SuggestionPriorityQueue(maxSuggestions);
+
+    final float minScore = this.minScore;
+
+    final int goalFreq = (suggestMorePopularTokensOnly && aprioriIndexReader != null) ? aprioriFreqs.docFreq(aprioriIndexReader, aprioriIndexField, queryToken) : 0;
+    // if the word exists in the real index and we don't care for word frequency, return the word itself
+    if (!suggestMorePopularTokensOnly && goalFreq > 0) {
+      queue.add((new Suggestion(queryToken)));
+      return queue;
+    }
+    if (queryToken.length() == 0) {
+      return queue;
+    }
+
+    // The normalized distance divides by the shorter word, so a suggestion
+    // can't be further from the query token than the accuracy allows for it
+    final int k = Math.max(0, Math.min(maxEditDistance, (int) ((1.0d - minScore) * queryToken.length())));
+
+    final EditDistance editDistance = editDistanceFactory(queryToken);
+    for (String candidate : terms.intersect(queryToken, k)) {
+      // don't suggest a word for itself, that would be silly
+      if (!suggestSelf && candidate.equals(queryToken)) {
+        continue;
+      }
+
+      double score = editDistance.getNormalizedDistance(candidate, minScore);
+      if (score < minScore) {
+        continue;
+      }
+      TokenSuggestion suggestion = new TokenSuggestion();
+      suggestion.setSuggested(candidate);
+      suggestion.setScore(score);
+
+      if (aprioriIndexReader != null) { // use the user index
+        suggestion.setFrequency(aprioriFreqs.docFreq(aprioriIndexReader, aprioriIndexField, candidate)); // freq in the index
+        // don't suggest a word that is not present in the field
+        if ((suggestMorePopularTokensOnly && goalFreq > suggestion.getFrequency()) || suggestion.getFrequency() < 1) {
+          continue;
+        }
+      }
+      queue.insertWithOverflow(suggestion);
+    }
+
+    return queue;
+  }
+
+  /**
+   * @param queryToken the word to find words close to
+   * @return the indexed words within {@link #getMaxEditDistance()} edits of {@code queryToken}, in term order
+   */
+  public List<String> getWordsWithinDistance(String queryToken) {
+    return terms.intersect(queryToken, maxEditDistance);
+  }
+
+  /**
+   * Index a Dictionary
+   *
+   * @param tokens the dictionary to index
+   */
+  public void indexDictionary(Iterator<String> tokens) {
+    indexDictionary(tokens, 3);
+  }
+
+  /**
+   * Index a Dictionary. The tokens need not be sorted, but merging is
+   * cheaper when they are, as from a {@link org.apache.lucene.search.didyoumean.secondlevel.token.ngram.TermEnumIterator}
+   *
+   * @param tokens         the dictionary to index
+   * @param minTokenLength minimum size of token to be suggestable. 2 if you want "on" to suggest "in".
+   */
+  public synchronized void indexDictionary(Iterator<String> tokens, int minTokenLength) {
+    if (minTokenLength < 2) {
+      minTokenLength = 2;
+    }
+
+    List<String> added = new ArrayList<String>();
+    String previous = null;
+    boolean sorted = true;
+    while (tokens.hasNext()) {
+      String token = tokens.next();
+      if (token == null || token.length() < minTokenLength) {
+        continue; // too short, but "too long" is fine...
+      }
+      if (previous != null && previous.compareTo(token) > 0) {
+        sorted = false;
+      }
+      added.add(token);
+      previous = token;
+    }
+    if (!sorted) {
+      Collections.sort(added);
+    }
+    terms = terms.merge(added);
+  }
+
+  /**
+   * @return the number of indexed words
+   */
+  public int size() {
+    return terms.size();
+  }
+
+  public boolean isSuggestSelf() {
+    return suggestSelf;
+  }
+
+  public void setSuggestSelf(boolean defaultSuggestSelf) {
+    this.suggestSelf = defaultSuggestSelf;
+  }
+
+  public boolean isSuggestOnlyMorePopularTokens() {
+    return suggestOnlyMorePopularTokens;
+  }
+
+  public void setSuggestOnlyMorePopularTokens(boolean defaultSuggestOnlyMorePopularTokens) {
+    this.suggestOnlyMorePopularTokens = defaultSuggestOnlyMorePopularTokens;
+  }
+
+  public EditDistance editDistanceFactory(String sa) {
+    return new MyersLevenshtein(sa);
+  }
+
+  /**
+   * An immutable term dictionary, as a trie in arrays. The nodes are numbered
+   * breadth first from the root at 0, so the children of a node are numbered
+   * consecutively, in the order of their labels
+   */
+  private static final class Terms {
+    static final Terms EMPTY = build(Collections.<String>emptyList());
+
+    /** The char leading to each node */
+    final char[] labels;
+    /** The children of node {@code n} are the nodes from {@code children[n]} to {@code children[n + 1]} */
+    final int[] children;
+    /** The nodes at the end of a term */
+    final BitSet terminal;
+    final int size;
+    final int maxLength;
+
+    private Terms(char[] labels, int[] children, BitSet terminal, int size, int maxLength) {
+      this.labels = labels;
+      this.children = children;
+      this.terminal = terminal;
+      this.size = size;
+      this.maxLength = maxLength;
+    }
+
+    /**
+     * @param sorted terms, sorted, possibly with duplicates
+     * @return the trie of the terms
+     */
+    static Terms build(List<String> sorted) {
+      int capacity = 1;
+      int maxLength = 0;
+      for (String term : sorted) {
+        capacity += term.length();
+        maxLength = Math.max(maxLength, term.length());
+      }
+      char[] labels = new char[capacity];
+      int[] children = new int[capacity + 1];
+      BitSet terminal = new BitSet(capacity);
+      // The range of terms under each node
+      int[] from = new int[capacity];
+      int[] to = new int[capacity];
+      int[] depths = new int[capacity];
+
+      int size = 0;
+      int nodes = 1;
+      to[0] = sorted.size();
+      for (int node = 0; node < nodes; node++) {
+        int a = from[node];
+        final int b = to[node];
+        final int depth = depths[node];
+        // The term ending at the node sorts first
+        if (a < b && sorted.get(a).length() == depth) {
+          terminal.set(node);
+          size++;
+          while (a < b && sorted.get(a).length() == depth) {
+            a++;
+          }
+        }
+        children[node] = nodes;
+        while (a < b) {
+          final char c = sorted.get(a).charAt(depth);
+          int end = a + 1;
+          while (end < b && sorted.get(end).charAt(depth) == c) {
+            end++;
+          }
+          labels[nodes] = c;
+          from[nodes] = a;
+          to[nodes] = end;
+          depths[nodes] = depth + 1;
+          nodes++;
+          a = end;
+        }
+      }
+      children[nodes] = nodes;
+
+      char[] compactLabels = new char[nodes];
+      System.arraycopy(labels, 0, compactLabels, 0, nodes);
+      int[] compactChildren = new int[nodes + 1];
+      System.arraycopy(children, 0, compactChildren, 0, nodes + 1);
+      return new Terms(compactLabels, compactChildren, terminal, size, maxLength);
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * @return all terms, sorted
+     */
+    List<String> terms() {
+      List<String> terms = new ArrayList<String>(size);
+      collect(0, new char[maxLength], 0, terms);
+      return terms;
+    }
+
+    private void collect(int node, char[] path, int depth, List<String> terms) {
+      if (terminal.get(node)) {
+        terms.add(new String(path, 0, depth));
+      }
+      for (int child = children[node]; child < children[node + 1]; child++) {
+        path[depth] = labels[child];
+        collect(child, path, depth + 1, terms);
+      }
+    }
+
+    /**
+     * @param sorted words to add, sorted
+     * @return a dictionary of the terms of this one and {@code sorted}
+     */
+    Terms merge(List<String> sorted) {
+      List<String> terms = terms();
+      List<String> merged = new ArrayList<String>(terms.size() + sorted.size());
+      int i = 0;
+      int j = 0;
+      while (i < terms.size() || j < sorted.size()) {
+        if (j == sorted.size() || (i < terms.size() && terms.get(i).compareTo(sorted.get(j)) <= 0)) {
+          merged.add(terms.get(i++));
+        } else {
+          merged.add(sorted.get(j++));
+        }
+      }
+      return build(merged);
+    }
+
+    /**
+     * Run the Levenshtein automaton of {@code query} over the terms.
+     *
+     * @return the terms within {@code k} edits of {@code query}, in term order
+     */
+    List<String> intersect(String query, int k) {
+      final int m = query.length();
+      // No term longer than this can be accepted, so no state deeper than this is needed
+      final int maxDepth = m + k;
+
+      int[][] rows = states.get();
+      if (rows == null || rows.length <= maxDepth + 1 || rows[0].length <= m + 1) {
+        rows = new int[Math.max(maxDepth + 2, rows == null ? 0 : rows.length)][Math.max(m + 2, rows == null ? 0 : rows[0].length)];
+        states.set(rows);
+      }
+      // The start state
+      int[] start = rows[0];
+      for (int j = 0; j <= Math.min(m, k); j++) {
+        start[j] = j;
+      }
+      if (k < m) {
+        start[k + 1] = k + 1;
+      }
+
+      Intersection intersection = new Intersection(query, k, rows);
+      intersection.walk(0, 0, 0);
+      // The walk takes the children matching the query first
+      Collections.sort(intersection.accepted);
+      return intersection.accepted;
+    }
+
+    /**
+     * The walk of one query down the trie
+     */
+    private final class Intersection {
+      final char[] query;
+      final int k;
+      final int m;
+      final int[][] rows;
+      final char[] path;
+      final List<String> accepted = new ArrayList<String>();
+      // the distinct query chars within the band of the state at each depth, sorted
+      final char[][] bandChars;
+
+      Intersection(String query, int k, int[][] rows) {
+        this.query = query.toCharArray();
+        this.k = k;
+        this.rows = rows;
+        m = query.length();
+        path = new char[m + k];
+        bandChars = new char[m + k + 1][];
+      }
+
+      /**
+       * Walk the terms under {@code node} at {@code depth}, which leads to the
+       * live state {@code rows[depth]} whose smallest cell is {@code min}
+       */
+      void walk(int node, int depth, int min) {
+        if (terminal.get(node) && Math.abs(depth - m) <= k && rows[depth][m] <= k) {
+          accepted.add(new String(path, 0, depth));
+        }
+        if (depth == m + k) {
+          return;
+        }
+
+        final int first = children[node];
+        final int last = children[node + 1];
+        final char[] band = bandChars(depth + 1);
+        if (min < k) {
+          // Any char can lead to a live state, but all chars matching no query
+          // char within the band of the next state lead to the same one
+          for (int child = first; child < last; child++) {
+            if (contains(band, labels[child])) {
+              descend(child, depth);
+            }
+          }
+          int otherMin = -1;
+          for (int child = first; child < last; child++) {
+            final char c = labels[child];
+            if (contains(band, c)) {
+              continue;
+            }
+            if (otherMin < 0) {
+              otherMin = step(rows[depth], rows[depth + 1], depth + 1, c, query, k);
+              if (otherMin > k) {
+                break;
+              }
+            }
+            // rows[depth + 1] is only written at this depth, so it still holds the state
+            path[depth] = c;
+            walk(child, depth + 1, otherMin);
+          }
+          return;
+        }
+
+        // All cells are at k, so only matching a query char within the band
+        // of the next state keeps it alive
+        if (last - first > band.length) {
+          for (char c : band) {
+            int child = Arrays.binarySearch(labels, first, last, c);
+            if (child >= 0) {
+              descend(child, depth);
+            }
+          }
+        } else {
+          for (int child = first; child < last; child++) {
+            if (contains(band, labels[child])) {
+              descend(child, depth);
+            }
+          }
+        }
+      }
+
+      private void descend(int child, int depth) {
+        char c = labels[child];
+        path[depth] = c;
+        int min = step(rows[depth], rows[depth + 1], depth + 1, c, query, k);
+        if (min <= k) {
+          walk(child, depth + 1, min);
+        }
+      }
+
+      private char[] bandChars(int depth) {
+        if (bandChars[depth] == null) {
+          int lo = Math.max(1, depth - k);
+          int hi = Math.min(m, depth + k);
+          char[] band = new char[hi - lo + 1];
+          System.arraycopy(query, lo - 1, band, 0, band.length);
+          Arrays.sort(band);
+          int distinct = 0;
+          for (int j = 0; j < band.length; j++) {
+            if (j == 0 || band[j] != band[j - 1]) {
+              band[distinct++] = band[j];
+            }
+          }
+          bandChars[depth] = new char[distinct];
+          System.arraycopy(band, 0, bandChars[depth], 0, distinct);
+        }
+        return bandChars[depth];
+      }
+    }
+
+    private static boolean contains(char[] chars, char c) {
+      for (char d : chars) {
+        if (d == c) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Calculate the state after reading {@code c} at {@code depth} from the
+     * previous state. Only the band of the row within {@code k} of the
+     * diagonal is calculated, the cells next to it are set to {@code k + 1}.
+     *
+     * @return the smallest cell of the state, more than {@code k} if the state is dead
+     */
+    private static int step(int[] from, int[] to, int depth, char c, char[] query, int k) {
+      final int m = query.length;
+      final int outside = k + 1;
+      final int lo = Math.max(1, depth - k);
+      final int hi = Math.min(m, depth + k);
+      if (lo > hi) {
+        return outside;
+      }
+      to[lo - 1] = lo == 1 ? Math.min(depth, outside) : outside;
+      int min = to[lo - 1];
+      for (int j = lo; j <= hi; j++) {
+        int v = from[j - 1] + (query[j - 1] == c ? 0 : 1);
+        if (from[j] + 1 < v) {
+          v = from[j] + 1;
+        }
+        if (to[j - 1] + 1 < v) {
+          v = to[j - 1] + 1;
+        }
+        if (v > outside) {
+          v = outside;
+        }
+        to[j] = v;
+        if (v < min) {
+          min = v;
+        }
+      }
+      // The cell right of the band is read as "above" by the next state
+      if (hi < m) {
+        to[hi + 1] = outside;
+      }
+      return min;
+    }
+  }
+}
@@ -0,0 +1,390 @@
+package org.apache.lucene.search.didyoumean.secondlevel.token.deletion;
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.didyoumean.EditDistance;
+import org.apache.lucene.search.didyoumean.MyersLevenshtein;
+import org.apache.lucene.search.didyoumean.Suggestion;
+import org.apache.lucene.search.didyoumean.SuggestionPriorityQueue;
+import org.apache.lucene.search.didyoumean.secondlevel.token.DocFreqCache;
+import org.apache.lucene.search.didyoumean.secondlevel.token.TokenSuggester;
+import org.apache.lucene.search.didyoumean.secondlevel.token.TokenSuggestion;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A single token word suggester based on symmetric deletion, as popularized
+ * by SymSpell.
+ * <p/>
+ * Every indexed word is stored under all the strings that can be formed by
+ * deleting up to {@link #getMaxEditDistance()} chars from it. Two words within
+ * that many edits of each other always have such a deletion in common, so the
+ * candidates for a query token are found by forming its deletions and looking
+ * each of them up in a hash table. The candidates are then measured by edit
+ * distance like the suggestions of
+ * {@link org.apache.lucene.search.didyoumean.secondlevel.token.ngram.NgramTokenSuggester}.
+ * <p/>
+ * To keep the table small only the deletions of the first
+ * {@link #getPrefixLength()} chars of a word are stored. The prefixes of two
+ * words are close when the words are, so this finds the same candidates, but
+ * also some more that the edit distance then discards.
+ * <p/>
+ * Words more than {@link #getMaxEditDistance()} edits from the query token
+ * are never suggested, even if long enough to be within the accuracy.
+ * The index is not persistent, so it must be built with {@link #indexDictionary}
+ * every time the suggester is created. Suggesting is thread safe, and may run
+ * while words are being indexed.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class DeletionTokenSuggester implements TokenSuggester {
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final int maxEditDistance;
+  private final int prefixLength;
+
+  /** The indexed words, by id */
+  private final List<String> words = new ArrayList<String>();
+  private final Set<String> vocabulary = new HashSet<String>();
+
+  /**
+   * Word ids by deletion. The first int of a posting list is the number of
+   * ids in it, the list may have room for more
+   */
+  private final Map<String, int[]> deletions = new HashMap<String, int[]>();
+
+  // Per thread marks of the candidates already measured, indexed by word id
+  private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>();
+
+  // frequencies of the query tokens and the suggestions in the a priori index
+  private final DocFreqCache aprioriFreqs = new DocFreqCache();
+
+  // minimum score for suggestions
+  private float minScore = 0.4f;
+
+  private boolean suggestSelf = false;
+  private boolean suggestOnlyMorePopularTokens = false;
+
+  /**
+   * Create a suggester finding words up to 2 edits away, storing the deletions of the first 7 chars of a word
+   */
+  public DeletionTokenSuggester() {
+    this(2, 7);
+  }
+
+  /**
+   * @param maxEditDistance the number of edits a suggested word can be from the query token.
+   *                        The table grows steeply with this, 1 or 2 are sensible values
+   * @param prefixLength    the number of leading chars of a word to store the deletions of,
+   *                        at least {@code maxEditDistance + 1}
+   */
+  public DeletionTokenSuggester(int maxEditDistance, int prefixLength) {
+    if (maxEditDistance < 0) {
+      throw new IllegalArgumentException("maxEditDistance must be non-negative: " + maxEditDistance);
+    }
+    if (prefixLength <= maxEditDistance) {
+      throw new IllegalArgumentException("prefixLength must be larger than maxEditDistance: " + prefixLength);
+    }
+    this.maxEditDistance = maxEditDistance;
+    this.prefixLength = prefixLength;
+  }
+
+  public int getMaxEditDistance() {
+    return maxEditDistance;
+  }
+
+  public int getPrefixLength() {
+    return prefixLength;
+  }
+
+  /**
+   * Sets the accuracy 0 &lt; minScore &lt; 1; default 0.4
+   */
+  public void setAccuracy(float min) {
+    this.minScore = min;
+  }
+
+  public float getAccuracy() {
+    return minScore;
+  }
+
+  public SuggestionPriorityQueue suggest(String queryToken, int n) throws IOException {
+    return suggest(queryToken, n, suggestSelf, null, null, false);
+  }
+
+  /**
+   * Suggest similar words (restricted or not to a field of a user index)
+   *
+   * @param queryToken                   the word you want a spell check done on
+   * @param maxSuggestions               the number of suggest words
+   * @param suggestSelf                  if true, a suggestion can be the queried token.
+   * @param aprioriIndexReader           the user index, or null
+   * @param aprioriIndexField            the field of the user index: if field is not null, the suggested
+   *                                     words are restricted to the words present in this field.
+   * @param suggestMorePopularTokensOnly if true, suggest only tokens that are more frequent than the query token
+   *                                     (only if restricted mode = (aprioriIndex!=null and aprioriIndexField!=null)
+   * @return suggestions the query token
+   * @throws IOException if something went wrong in the aprioriIndex.
+   */
+  public SuggestionPriorityQueue suggest(String queryToken, int maxSuggestions, boolean suggestSelf, IndexReader aprioriIndexReader,
+                                         String aprioriIndexField, boolean suggestMorePopularTokensOnly) throws IOException {
+
+    SuggestionPriorityQueue queue = new SuggestionPriorityQueue(maxSuggestions);
+
+    final float minScore = this.minScore;
+
+    final int goalFreq = (suggestMorePopularTokensOnly && aprioriIndexReader != null) ? aprioriFreqs.docFreq(aprioriIndexReader, aprioriIndexField, queryToken) : 0;
+    // if the word exists in the real index and we don't care for word frequency, return the word itself
+    if (!suggestMorePopularTokensOnly && goalFreq > 0) {
+      queue.add((new Suggestion(queryToken)));
+      return queue;
+    }
+    if (queryToken.length() == 0) {
+      return queue;
+    }
+
+    String[] candidates;
+    lock.readLock().lock();
+    try {
+      candidates = collectCandidates(queryToken);
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    final EditDistance editDistance = editDistanceFactory(queryToken);
+    for (String candidate : candidates) {
+      // don't suggest a word for itself, that would be silly
+      if (!suggestSelf && candidate.equals(queryToken)) {
+        continue;
+      }
+
+      // the table only finds the words within maxEditDistance, so don't
+      // suggest the rest even if the accuracy would allow it
+      double minSimilarity = Math.max(minScore, 1.0d - (double) maxEditDistance / Math.min(candidate.length(), queryToken.length()));
+      double score = editDistance.getNormalizedDistance(candidate, minSimilarity);
+      if (score < minSimilarity) {
+        continue;
+      }
+      TokenSuggestion suggestion = new TokenSuggestion();
+      suggestion.setSuggested(candidate);
+      suggestion.setScore(score);
+
+      if (aprioriIndexReader != null) { // use the user index
+        suggestion.setFrequency(aprioriFreqs.docFreq(aprioriIndexReader, aprioriIndexField, candidate)); // freq in the index
+        // don't suggest a word that is not present in the field
+        if ((suggestMorePopularTokensOnly && goalFreq > suggestion.getFrequency()) || suggestion.getFrequency() < 1) {
+          continue;
+        }
+      }
+      queue.insertWithOverflow(suggestion);
+    }
+
+    return queue;
+  }
+
+  /**
+   * Look up the deletions of the query token and return the words stored
+   * under any of them, once each. Must hold the read lock
+   */
+  private String[] collectCandidates(String queryToken) {
+    Scratch s = scratch.get();
+    if (s == null || s.marks.length < words.size()) {
+      s = new Scratch(Math.max(words.size(), 16) * 5 / 4);
+      scratch.set(s);
+    }
+    int mark = s.nextMark();
+
+    List<String> candidates = new ArrayList<String>();
+    final int tokenLength = queryToken.length();
+    for (String deletion : formDeletions(queryToken)) {
+      int[] postings = deletions.get(deletion);
+      if (postings == null) {
+        continue;
+      }
+      for (int i = 1; i <= postings[0]; i++) {
+        int id = postings[i];
+        if (s.marks[id] == mark) {
+          continue;
+        }
+        s.marks[id] = mark;
+        String word = words.get(id);
+        // a length difference alone costs more edits than allowed
+        if (Math.abs(word.length() - tokenLength) <= maxEditDistance) {
+          candidates.add(word);
+        }
+      }
+    }
+    return candidates.toArray(new String[candidates.size()]);
+  }
+
+  /**
+   * @return the prefix of {@code word} and all strings formed by deleting up to
+   *         {@link #getMaxEditDistance()} chars from it, each once
+   */
+  Set<String> formDeletions(String word) {
+    String prefix = word.length() > prefixLength ? word.substring(0, prefixLength) : word;
+    Set<String> formed = new HashSet<String>();
+    formed.add(prefix);
+    List<String> level = new ArrayList<String>(1);
+    level.add(prefix);
+    for (int edits = 0; edits < maxEditDistance; edits++) {
+      List<String> next = new ArrayList<String>();
+      for (String s : level) {
+        if (s.length() == 0) {
+          continue;
+        }
+        for (int i = 0; i < s.length(); i++) {
+          String deletion = s.substring(0, i) + s.substring(i + 1);
+          if (formed.add(deletion)) {
+            next.add(deletion);
+          }
+        }
+      }
+      level = next;
+    }
+    return formed;
+  }
+
+  /**
+   * Index a Dictionary
+   *
+   * @param tokens the dictionary to index
+   */
+  public void indexDictionary(Iterator<String> tokens) {
+    indexDictionary(tokens, 3);
+  }
+
+  /**
+   * Index a Dictionary
+   *
+   * @param tokens         the dictionary to index
+   * @param minTokenLength minimum size of token to be suggestable. 2 if you want "on" to suggest "in".
+   */
+  public void indexDictionary(Iterator<String> tokens, int minTokenLength) {
+    if (minTokenLength < 2) {
+      minTokenLength = 2;
+    }
+
+    lock.writeLock().lock();
+    try {
+      while (tokens.hasNext()) {
+        String token = tokens.next();
+        if (token == null || token.length() < minTokenLength || !vocabulary.add(token)) {
+          continue; // too short or known, but "too long" is fine...
+        }
+        int id = words.size();
+        words.add(token);
+        for (String deletion : formDeletions(token)) {
+          addPosting(deletion, id);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void addPosting(String deletion, int id) {
+    int[] postings = deletions.get(deletion);
+    if (postings == null) {
+      postings = new int[2];
+      deletions.put(deletion, postings);
+    } else if (postings[0] + 1 == postings.length) {
+      int[] grown = new int[postings.length * 2];
+      System.arraycopy(postings, 0, grown, 0, postings.length);
+      postings = grown;
+      deletions.put(deletion, postings);
+    }
+    postings[++postings[0]] = id;
+  }
+
+  /**
+   * @return the number of indexed words
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return words.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of distinct deletions the words are stored under
+   */
+  public int getNumDeletions() {
+    lock.readLock().lock();
+    try {
+      return deletions.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public boolean isSuggestSelf() {
+    return suggestSelf;
+  }
+
+  public void setSuggestSelf(boolean defaultSuggestSelf) {
+    this.suggestSelf = defaultSuggestSelf;
+  }
+
+  public boolean isSuggestOnlyMorePopularTokens() {
+    return suggestOnlyMorePopularTokens;
+  }
+
+  public void setSuggestOnlyMorePopularTokens(boolean defaultSuggestOnlyMorePopularTokens) {
+    this.suggestOnlyMorePopularTokens = defaultSuggestOnlyMorePopularTokens;
+  }
+
+  public EditDistance editDistanceFactory(String sa) {
+    return new MyersLevenshtein(sa);
+  }
+
+  /**
+   * Candidate marks of one thread. Each query uses a new mark, so the marks
+   * never need clearing
+   */
+  private static class Scratch {
+    final int[] marks;
+    int mark = 0;
+
+    Scratch(int size) {
+      marks = new int[size];
+    }
+
+    int nextMark() {
+      if (++mark == Integer.MAX_VALUE) {
+        Arrays.fill(marks, 0);
+        mark = 1;
+      }
+      return mark;
+    }
+  }
+}
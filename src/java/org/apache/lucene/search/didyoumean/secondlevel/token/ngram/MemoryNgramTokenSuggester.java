@@ -0,0 +1,520 @@
+package org.apache.lucene.search.didyoumean.secondlevel.token.ngram;
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.didyoumean.EditDistance;
+import org.apache.lucene.search.didyoumean.MyersLevenshtein;
+import org.apache.lucene.search.didyoumean.Suggestion;
+import org.apache.lucene.search.didyoumean.SuggestionPriorityQueue;
+import org.apache.lucene.search.didyoumean.secondlevel.token.DocFreqCache;
+import org.apache.lucene.search.didyoumean.secondlevel.token.TokenSuggester;
+import org.apache.lucene.search.didyoumean.secondlevel.token.TokenSuggestion;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A single token word suggester based on n-grams, like {@link NgramTokenSuggester},
+ * but with the n-grams held in memory rather than in a Lucene index.
+ * <p/>
+ * Each gram maps to a posting list of the ids of the words containing it,
+ * stored as a plain int array, in tables keyed by the chars of the gram packed
+ * in to a long. The candidates for a query token are found by walking the
+ * posting lists of its grams and counting the grams each word shares with it,
+ * boosting shared start and end grams as {@link NgramTokenSuggester} does.
+ * Single chars are only start and end grams: a single char is in about a
+ * quarter of all words, so its posting list is the longest to walk and tells
+ * the least. The best scoring candidates are then measured by edit distance,
+ * giving up on a candidate as soon as it can't make it in to a full queue.
+ * There is no query parsing, Lucene scoring or stored field decoding involved.
+ * <p/>
+ * Over a vocabulary of 50.000 random words this is about six times cheaper per
+ * token than {@link NgramTokenSuggester} once warmed up, with the same recall,
+ * see {@code TokenSuggesterBenchmark}. Most of what is left is measuring the
+ * ten candidates per suggestion, which {@link NgramTokenSuggester} does too:
+ * each of them is a string somewhere else in memory, so most of the cost is
+ * cache misses rather than computing the distance.
+ * <p/>
+ * The index is not persistent, so it must be built with {@link #indexDictionary}
+ * every time the suggester is created. Suggesting is thread safe, and may run
+ * while words are being indexed.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class MemoryNgramTokenSuggester implements TokenSuggester {
+
+  /** The largest gram size, see {@link NgramTokenSuggester#getMax} */
+  private static final int MAX_GRAM = 4;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /** The indexed words, by id */
+  private final List<String> words = new ArrayList<String>();
+  private final Set<String> vocabulary = new HashSet<String>();
+
+  /**
+   * Posting lists of word ids, by gram size and gram. Single chars are only
+   * indexed as start and end grams, see {@link #addGrams}
+   */
+  private final GramTable[] grams = new GramTable[MAX_GRAM + 1];
+  private final GramTable[] startGrams = new GramTable[MAX_GRAM + 1];
+  private final GramTable[] endGrams = new GramTable[MAX_GRAM + 1];
+
+  // Per thread score accumulators, indexed by word id
+  private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>();
+
+  private int defaultHitEnumerationsPerSuggestion = 10;
+
+  /**
+   * Boost value for start and end grams
+   */
+  private float bStart = 2.0f;
+  private float bEnd = 1.0f;
+
+  // frequencies of the query tokens and the suggestions in the a priori index
+  private final DocFreqCache aprioriFreqs = new DocFreqCache();
+
+  // minimum score for hits generated by the spell checker query
+  private float minScore = 0.4f;
+
+  private boolean suggestSelf = false;
+  private boolean suggestOnlyMorePopularTokens = false;
+
+  public MemoryNgramTokenSuggester() {
+    for (int ng = 1; ng <= MAX_GRAM; ng++) {
+      grams[ng] = new GramTable();
+      startGrams[ng] = new GramTable();
+      endGrams[ng] = new GramTable();
+    }
+  }
+
+  /**
+   * Sets the accuracy 0 &lt; minScore &lt; 1; default 0.4
+   */
+  public void setAccuracy(float min) {
+    this.minScore = min;
+  }
+
+  public float getAccuracy() {
+    return minScore;
+  }
+
+  public SuggestionPriorityQueue suggest(String queryToken, int n) throws IOException {
+    return suggest(queryToken, n, suggestSelf, null, null, false, getHitEnumerationsPerSuggestion());
+  }
+
+  public SuggestionPriorityQueue suggest(String queryToken, int n, boolean suggestSelf, IndexReader aprioriIndexReader, String aprioriIndexField, boolean selectMorePopularTokensOnly) throws IOException {
+    return suggest(queryToken, n, suggestSelf, aprioriIndexReader, aprioriIndexField, selectMorePopularTokensOnly, getHitEnumerationsPerSuggestion());
+  }
+
+  /**
+   * Suggest similar words (restricted or not to a field of a user index)
+   *
+   * @param queryToken                   the word you want a spell check done on
+   * @param maxSuggestions               the number of suggest words
+   * @param suggestSelf                  if true, a suggestion can be the queried token.
+   * @param aprioriIndexReader           the user index, or null
+   * @param aprioriIndexField            the field of the user index: if field is not null, the suggested
+   *                                     words are restricted to the words present in this field.
+   * @param suggestMorePopularTokensOnly if true, suggest only tokens that are more frequent than the query token
+   *                                     (only if restricted mode = (aprioriIndex!=null and aprioriIndexField!=null)
+   * @param hitEnumerationsPerSuggestion number of candidate words to measure edit distance on for each number of expected returned suggestions.
+   * @return suggestions the query token
+   * @throws IOException if something went wrong in the aprioriIndex.
+   */
+  public SuggestionPriorityQueue suggest(String queryToken, int maxSuggestions, boolean suggestSelf, IndexReader aprioriIndexReader,
+                                         String aprioriIndexField, boolean suggestMorePopularTokensOnly, int hitEnumerationsPerSuggestion) throws IOException {
+
+    SuggestionPriorityQueue queue = new SuggestionPriorityQueue(maxSuggestions);
+
+    final float minScore = this.minScore;
+    final int tokenLength = queryToken.length();
+
+    final int goalFreq = (suggestMorePopularTokensOnly && aprioriIndexReader != null) ? aprioriFreqs.docFreq(aprioriIndexReader, aprioriIndexField, queryToken) : 0;
+    // if the word exists in the real index and we don't care for word frequency, return the word itself
+    if (!suggestMorePopularTokensOnly && goalFreq > 0) {
+      queue.add((new Suggestion(queryToken)));
+      return queue;
+    }
+    if (tokenLength == 0) {
+      return queue;
+    }
+
+    String[] candidates;
+    lock.readLock().lock();
+    try {
+      candidates = collectCandidates(queryToken, maxSuggestions * hitEnumerationsPerSuggestion);
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    final EditDistance editDistance = editDistanceFactory(queryToken);
+    for (String candidate : candidates) {
+      // don't suggest a word for itself, that would be silly
+      if (!suggestSelf && candidate.equals(queryToken)) {
+        continue;
+      }
+
+      // edit distance/normalize with the minScore word length, giving up on the
+      // distance as soon as it can't reach minScore, or once the queue is full,
+      // the worst suggestion in it, which a lower score can't replace
+      double bound = queue.size() < maxSuggestions ? minScore : Math.max(minScore, queue.top().getScore());
+      double score = editDistance.getNormalizedDistance(candidate, bound);
+      if (score < bound) {
+        continue;
+      }
+      TokenSuggestion suggestion = new TokenSuggestion();
+      suggestion.setSuggested(candidate);
+      suggestion.setScore(score);
+
+      if (aprioriIndexReader != null) { // use the user index
+        suggestion.setFrequency(aprioriFreqs.docFreq(aprioriIndexReader, aprioriIndexField, candidate)); // freq in the index
+        // don't suggest a word that is not present in the field
+        if ((suggestMorePopularTokensOnly && goalFreq > suggestion.getFrequency()) || suggestion.getFrequency() < 1) {
+          continue;
+        }
+      }
+      // more candidates than suggestions are measured, so keep only the best
+      queue.insertWithOverflow(suggestion);
+    }
+
+    return queue;
+  }
+
+  /**
+   * Score all words sharing grams with {@code queryToken} and return the best
+   * {@code maxCandidates} of them, best first. Must hold the read lock
+   */
+  private String[] collectCandidates(String queryToken, int maxCandidates) {
+    Scratch s = scratch.get();
+    if (s == null || s.scores.length < words.size()) {
+      s = new Scratch(Math.max(words.size(), 16) * 5 / 4);
+      scratch.set(s);
+    }
+
+    final int tokenLength = queryToken.length();
+    for (int ng = NgramTokenSuggester.getMin(tokenLength); ng <= NgramTokenSuggester.getMax(tokenLength); ng++) {
+      // grams are never longer than the token, as in NgramTokenSuggester#formGrams
+      int n = Math.min(ng, tokenLength);
+      if (bStart > 0) {
+        s.add(startGrams[n].get(pack(queryToken, 0, n)), bStart);
+      }
+      if (bEnd > 0) {
+        s.add(endGrams[n].get(pack(queryToken, tokenLength - n, n)), bEnd);
+      }
+      if (n == 1) {
+        continue; // single chars are only start and end grams, see addGrams
+      }
+      for (int start = 0; start + n <= tokenLength; start++) {
+        s.add(grams[n].get(pack(queryToken, start, n)), 1f);
+      }
+    }
+
+    int[] best = s.top(maxCandidates);
+    String[] candidates = new String[best.length];
+    for (int i = 0; i < best.length; i++) {
+      candidates[i] = words.get(best[i]);
+    }
+    return candidates;
+  }
+
+  /**
+   * Index a Dictionary
+   *
+   * @param tokens the dictionary to index
+   */
+  public void indexDictionary(Iterator<String> tokens) {
+    indexDictionary(tokens, 3);
+  }
+
+  /**
+   * Index a Dictionary
+   *
+   * @param tokens         the dictionary to index
+   * @param minTokenLength minimum size of token to be suggestable. 2 if you want "on" to suggest "in".
+   */
+  public void indexDictionary(Iterator<String> tokens, int minTokenLength) {
+    if (minTokenLength < 2) {
+      minTokenLength = 2;
+    }
+
+    lock.writeLock().lock();
+    try {
+      while (tokens.hasNext()) {
+        String token = tokens.next();
+        if (token == null || token.length() < minTokenLength || !vocabulary.add(token)) {
+          continue; // too short or known, but "too long" is fine...
+        }
+        int id = words.size();
+        words.add(token);
+        addGrams(token, id);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void addGrams(String word, int id) {
+    int len = word.length();
+    for (int ng = NgramTokenSuggester.getMin(len); ng <= NgramTokenSuggester.getMax(len); ng++) {
+      int n = Math.min(ng, len);
+      startGrams[n].add(pack(word, 0, n), id);
+      endGrams[n].add(pack(word, len - n, n), id);
+      if (n == 1) {
+        // A single char is in a large part of all words, so its posting list
+        // would be the most expensive to walk and the least telling of all
+        continue;
+      }
+      for (int start = 0; start + n <= len; start++) {
+        grams[n].add(pack(word, start, n), id);
+      }
+    }
+  }
+
+  /**
+   * @return the {@code n} chars of {@code text} from {@code start}, 16 bits each
+   */
+  private static long pack(String text, int start, int n) {
+    long gram = 0;
+    for (int i = start; i < start + n; i++) {
+      gram = (gram << 16) | text.charAt(i);
+    }
+    return gram;
+  }
+
+  /**
+   * @return the number of indexed words
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return words.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public boolean isSuggestSelf() {
+    return suggestSelf;
+  }
+
+  public void setSuggestSelf(boolean defaultSuggestSelf) {
+    this.suggestSelf = defaultSuggestSelf;
+  }
+
+  public boolean isSuggestOnlyMorePopularTokens() {
+    return suggestOnlyMorePopularTokens;
+  }
+
+  public void setSuggestOnlyMorePopularTokens(boolean defaultSuggestOnlyMorePopularTokens) {
+    this.suggestOnlyMorePopularTokens = defaultSuggestOnlyMorePopularTokens;
+  }
+
+  public int getHitEnumerationsPerSuggestion() {
+    return defaultHitEnumerationsPerSuggestion;
+  }
+
+  public void setHitEnumerationsPerSuggestion(int defaultHitEnumerationsPerSuggestion) {
+    this.defaultHitEnumerationsPerSuggestion = defaultHitEnumerationsPerSuggestion;
+  }
+
+  public EditDistance editDistanceFactory(String sa) {
+    return new MyersLevenshtein(sa);
+  }
+
+  /**
+   * Score accumulators of one thread. Only the scores of the words touched by
+   * a query are reset afterwards, so a query costs the length of the posting
+   * lists it walks, not the size of the vocabulary
+   */
+  private static class Scratch {
+    final float[] scores;
+    int[] touched = new int[64];
+    int numTouched = 0;
+
+    Scratch(int size) {
+      scores = new float[size];
+    }
+
+    void add(int[] postings, float boost) {
+      if (postings == null) {
+        return;
+      }
+      for (int i = 1; i <= postings[0]; i++) {
+        int id = postings[i];
+        if (scores[id] == 0f) {
+          if (numTouched == touched.length) {
+            int[] grown = new int[touched.length * 2];
+            System.arraycopy(touched, 0, grown, 0, numTouched);
+            touched = grown;
+          }
+          touched[numTouched++] = id;
+        }
+        scores[id] += boost;
+      }
+    }
+
+    /**
+     * @return the ids of the best scoring touched words, best first. Resets all scores
+     */
+    int[] top(int max) {
+      int size = Math.min(max, numTouched);
+      // A min-heap of the best words seen, the worst of them on top
+      long[] heap = new long[size];
+      int heapSize = 0;
+      for (int t = 0; t < numTouched; t++) {
+        int id = touched[t];
+        long key = key(id);
+        scores[id] = 0f;
+        if (heapSize < size) {
+          heap[heapSize++] = key;
+          up(heap, heapSize - 1);
+        } else if (size > 0 && key > heap[0]) {
+          heap[0] = key;
+          down(heap, heapSize);
+        }
+      }
+      numTouched = 0;
+
+      int[] best = new int[heapSize];
+      for (int i = heapSize - 1; i >= 0; i--) {
+        best[i] = Integer.MAX_VALUE - (int) heap[0];
+        heap[0] = heap[i];
+        down(heap, i);
+      }
+      return best;
+    }
+
+    /**
+     * The score and id of a word in one long, the greater the better: higher
+     * scores first, then the words indexed first, as Lucene orders ties by doc
+     * id. The bits of a positive float order as the float does
+     */
+    private long key(int id) {
+      return ((long) Float.floatToIntBits(scores[id]) << 32) | (Integer.MAX_VALUE - id);
+    }
+
+    private static void up(long[] heap, int i) {
+      long key = heap[i];
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (heap[parent] <= key) {
+          break;
+        }
+        heap[i] = heap[parent];
+        i = parent;
+      }
+      heap[i] = key;
+    }
+
+    private static void down(long[] heap, int size) {
+      if (size == 0) {
+        return;
+      }
+      long key = heap[0];
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && heap[child + 1] < heap[child]) {
+          child++;
+        }
+        if (key <= heap[child]) {
+          break;
+        }
+        heap[i] = heap[child];
+        i = child;
+      }
+      heap[i] = key;
+    }
+  }
+
+  /**
+   * Posting lists of word ids by gram, for grams of one size, in an open
+   * addressing table. The chars of a gram are packed in to a long, see
+   * {@link MemoryNgramTokenSuggester#pack}, so looking up the grams of a query
+   * token neither creates nor hashes strings. The first int of a posting list
+   * is the number of ids in it, the list may have room for more
+   */
+  private static class GramTable {
+    private long[] grams = new long[16];
+    private int[][] postings = new int[16][];
+    private int size = 0;
+
+    /**
+     * @return the posting list of {@code gram}, or null if no word has it
+     */
+    int[] get(long gram) {
+      return postings[slot(gram)];
+    }
+
+    void add(long gram, int id) {
+      int slot = slot(gram);
+      int[] list = postings[slot];
+      if (list == null) {
+        if (2 * (size + 1) > grams.length) {
+          rehash();
+          slot = slot(gram);
+        }
+        list = new int[4];
+        grams[slot] = gram;
+        size++;
+      } else if (list[list[0]] == id) {
+        return; // the gram occurs more than once in the word
+      } else if (list[0] + 1 == list.length) {
+        int[] grown = new int[list.length * 2];
+        System.arraycopy(list, 0, grown, 0, list.length);
+        list = grown;
+      }
+      list[++list[0]] = id;
+      postings[slot] = list;
+    }
+
+    private int slot(long gram) {
+      int mask = grams.length - 1;
+      int h = (int) (gram ^ (gram >>> 32)) * 0x9E3779B9;
+      int slot = (h ^ (h >>> 16)) & mask;
+      while (postings[slot] != null && grams[slot] != gram) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private void rehash() {
+      long[] oldGrams = grams;
+      int[][] oldPostings = postings;
+      grams = new long[oldGrams.length * 2];
+      postings = new int[oldGrams.length * 2][];
+      for (int i = 0; i < oldGrams.length; i++) {
+        if (oldPostings[i] != null) {
+          int slot = slot(oldGrams[i]);
+          grams[slot] = oldGrams[i];
+          postings[slot] = oldPostings[i];
+        }
+      }
+    }
+  }
+}
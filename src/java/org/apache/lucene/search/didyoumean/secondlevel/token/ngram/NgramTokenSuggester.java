@@ -19,28 +19,54 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.facade.IndexFacade;
+import org.apache.lucene.index.facade.InstantiatedIndexFacade;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.facade.IndexWriterFacade;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.didyoumean.EditDistance;
-import org.apache.lucene.search.didyoumean.Levenshtein;
+import org.apache.lucene.search.didyoumean.MyersLevenshtein;
 import org.apache.lucene.search.didyoumean.Suggestion;
 import org.apache.lucene.search.didyoumean.SuggestionPriorityQueue;
+import org.apache.lucene.search.didyoumean.secondlevel.token.DocFreqCache;
 import org.apache.lucene.search.didyoumean.secondlevel.token.TokenSuggester;
 import org.apache.lucene.search.didyoumean.secondlevel.token.TokenSuggestion;
+import org.apache.lucene.util.ReaderUtil;
 import org.apache.lucene.util.Version;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 /**
  * A single token word suggester based on n-grams.
  * <p/>
- * Uses Lucene for persistency and token n-gram matching.
+ * Uses Lucene for persistency and token n-gram matching. Only the word is
+ * stored in the n-gram index, and the words are read in to an array by
+ * document number for each segment of the index, so the hits are turned in to
+ * words without loading any stored fields.
+ * <p/>
+ * Words can be added to and removed from the index at any time, also while
+ * suggesting. Each update is committed as a few new segments and deletions,
+ * and the reader is then reopened, which only opens the new segments and reads
+ * their words. Suggestions in progress keep the reader they started with open
+ * until they are done. When the suggester is used by the second level
+ * suggesters of a dictionary, update it through
+ * {@link org.apache.lucene.search.didyoumean.SuggestionFacade#indexSecondLevelTokens}
+ * and {@link org.apache.lucene.search.didyoumean.SuggestionFacade#removeSecondLevelTokens},
+ * which also clear the negative cache of the dictionary.
+ * <p/>
+ * This needs an n-gram index in a {@link org.apache.lucene.store.Directory}.
+ * An instantiated index is changed in place, under the feet of the suggestions
+ * searching it, and its readers can't be reopened, so an
+ * {@link org.apache.lucene.index.facade.InstantiatedIndexFacade} can only be
+ * built while it is empty. Updating it after that throws an
+ * {@link UnsupportedOperationException}.
  *
  * @author initially inspired by the David Spencer code.
  * @author Nicolas Maisonneuve
@@ -51,22 +77,108 @@ import java.util.Set;
 public class NgramTokenSuggester implements TokenSuggester {
 
   private IndexFacade ngramIndex;
-  private IndexReader ngramReader;
-  private IndexSearcher ngramSearcher;
+  /** An instantiated index can only be built while it is empty, see {@link #checkUpdatable()} */
+  private final boolean instantiated;
+  private volatile NgramSearcher ngramSearcher;
+
+  /** Updates of the index are made one at a time */
+  private final Object updateLock = new Object();
 
   public NgramTokenSuggester(IndexFacade ngramIndex) throws IOException {
     this.ngramIndex = ngramIndex;
-    ngramReader = ngramIndex.indexReaderFactory();
-    ngramSearcher = new IndexSearcher(ngramReader);
+    instantiated = ngramIndex instanceof InstantiatedIndexFacade;
+    ngramSearcher = new NgramSearcher(ngramIndex.indexReaderFactory());
+  }
+
+  /**
+   * A reader of the ngram index, the searcher of it and the words of its documents.
+   * The suggester holds a reference to the reader until the index is updated, and
+   * every suggestion holds one until it is done.
+   */
+  private static class NgramSearcher {
+
+    private final IndexReader reader;
+    private final IndexSearcher searcher;
+    /** The first document number of each segment */
+    private final int[] starts;
+    /** The word of each document in the ngram index, by segment and document number */
+    private final String[][] words;
+
+    private NgramSearcher(IndexReader reader) throws IOException {
+      this.reader = reader;
+      searcher = new IndexSearcher(reader);
+      List<IndexReader> segments = new ArrayList<IndexReader>();
+      ReaderUtil.gatherSubReaders(segments, reader);
+      starts = new int[segments.size()];
+      words = new String[segments.size()][];
+      int maxDoc = 0;
+      for (int i = 0; i < segments.size(); i++) {
+        starts[i] = maxDoc;
+        // cached by segment, so a reopened reader only reads the words of new segments
+        words[i] = FieldCache.DEFAULT.getStrings(segments.get(i), F_WORD);
+        maxDoc += segments.get(i).maxDoc();
+      }
+    }
+
+    private String getWord(int doc) {
+      int segment = ReaderUtil.subIndex(doc, starts);
+      return words[segment][doc - starts[segment]];
+    }
+  }
+
+  private synchronized NgramSearcher acquireSearcher() {
+    ngramSearcher.reader.incRef();
+    return ngramSearcher;
+  }
+
+  private void releaseSearcher(NgramSearcher searcher) throws IOException {
+    searcher.reader.decRef();
+  }
+
+  /**
+   * Makes the suggester use a new reader. The old reader is closed when the
+   * suggestions that are using it are done.
+   */
+  private void swapSearcher(NgramSearcher searcher) throws IOException {
+    NgramSearcher oldSearcher;
+    synchronized (this) {
+      oldSearcher = ngramSearcher;
+      ngramSearcher = searcher;
+    }
+    releaseSearcher(oldSearcher);
   }
 
+  /**
+   * Closes the reader of the ngram index, once the suggestions in progress are done.
+   * The suggester can't be used afterwards.
+   *
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    synchronized (updateLock) {
+      releaseSearcher(ngramSearcher);
+    }
+  }
 
+  /**
+   * The reader is closed when the index is updated. Call {@link IndexReader#incRef()}
+   * to keep it open, and {@link IndexReader#decRef()} when done.
+   *
+   * @return the current reader of the ngram index
+   */
   public IndexReader getNgramReader() {
-    return ngramReader;
+    return ngramSearcher.reader;
   }
 
+  /**
+   * The searcher can't be used when the index has been updated, unless its
+   * reader was kept open.
+   *
+   * @return the current searcher of the ngram index
+   * @see #getNgramReader()
+   */
   public IndexSearcher getNgramSearcher() {
-    return ngramSearcher;
+    return ngramSearcher.searcher;
   }
 
   public IndexFacade getNgramIndex() {
@@ -86,6 +198,9 @@ public class NgramTokenSuggester implements TokenSuggester {
   private float bStart = 2.0f;
   private float bEnd = 1.0f;
 
+  // frequencies of the query tokens and the suggestions in the a priori index
+  private final DocFreqCache aprioriFreqs = new DocFreqCache();
+
   // minimum score for hits generated by the spell checker query
   private float minScore = 0.4f;
 
@@ -128,13 +243,24 @@ public class NgramTokenSuggester implements TokenSuggester {
   public SuggestionPriorityQueue suggest(String queryToken, int maxSuggestions, boolean suggestSelf, IndexReader aprioriIndexReader,
                                          String aprioriIndexField, boolean suggestMorePopularTokensOnly, int hitEnumerationsPerSuggestion) throws IOException {
 
+    NgramSearcher ngramSearcher = acquireSearcher();
+    try {
+      return suggest(ngramSearcher, queryToken, maxSuggestions, suggestSelf, aprioriIndexReader, aprioriIndexField, suggestMorePopularTokensOnly, hitEnumerationsPerSuggestion);
+    } finally {
+      releaseSearcher(ngramSearcher);
+    }
+  }
+
+  private SuggestionPriorityQueue suggest(NgramSearcher ngramSearcher, String queryToken, int maxSuggestions, boolean suggestSelf, IndexReader aprioriIndexReader,
+                                          String aprioriIndexField, boolean suggestMorePopularTokensOnly, int hitEnumerationsPerSuggestion) throws IOException {
+
     SuggestionPriorityQueue queue = new SuggestionPriorityQueue(maxSuggestions);
 
     float minScore = this.minScore;
     final EditDistance editDistance = editDistanceFactory(queryToken);
     final int tokenLength = queryToken.length();
 
-    final int goalFreq = (suggestMorePopularTokensOnly && aprioriIndexReader != null) ? aprioriIndexReader.docFreq(new Term(aprioriIndexField, queryToken)) : 0;
+    final int goalFreq = (suggestMorePopularTokensOnly && aprioriIndexReader != null) ? aprioriFreqs.docFreq(aprioriIndexReader, aprioriIndexField, queryToken) : 0;
     // if the word exists in the real index and we don't care for word frequency, return the word itself
     if (!suggestMorePopularTokensOnly && goalFreq > 0) {
       queue.add((new Suggestion(queryToken)));
@@ -169,35 +295,43 @@ public class NgramTokenSuggester implements TokenSuggester {
     }
 
     // go thru more than 'maxr' matches in case the distance filter triggers
-    int stop = maxSuggestions * hitEnumerationsPerSuggestion;
-    TopDocs hits = ngramSearcher.search(query, stop);
-    stop = Math.min(hits.totalHits, Math.min(stop, maxSuggestions));
-    for (int currentHit = 0; currentHit < stop; currentHit++) {
-      TokenSuggestion suggestion = new TokenSuggestion();
-      // get orig word
-      Document doc = ngramReader.document(hits.scoreDocs[currentHit].doc);
-      suggestion.setSuggested(doc.get(F_WORD));
-
+    TopDocs hits = ngramSearcher.searcher.search(query, maxSuggestions * hitEnumerationsPerSuggestion);
+    final int numCandidates = hits.scoreDocs.length;
+
+    // measure the distance of all the candidates before touching the apriori index,
+    // giving up on a distance as soon as it can't reach minScore
+    String[] candidates = new String[numCandidates];
+    double[] scores = new double[numCandidates];
+    for (int currentHit = 0; currentHit < numCandidates; currentHit++) {
+      String candidate = ngramSearcher.getWord(hits.scoreDocs[currentHit].doc);
       // don't suggest a word for itself, that would be silly
-      if (!suggestSelf && suggestion.getSuggested().equals(queryToken)) {
+      if (!suggestSelf && candidate.equals(queryToken)) {
         continue;
       }
+      double score = editDistance.getNormalizedDistance(candidate, minScore);
+      if (score >= minScore) {
+        candidates[currentHit] = candidate;
+        scores[currentHit] = score;
+      }
+    }
 
-      // edit distance/normalize with the minScore word length
-      suggestion.setScore(1.0d - ((double) editDistance.getDistance(suggestion.getSuggested()) /
-                                   Math.min(suggestion.getSuggested().length(), tokenLength)));
-      if (suggestion.getScore() < minScore) {
+    for (int currentHit = 0; currentHit < numCandidates; currentHit++) {
+      if (candidates[currentHit] == null) {
         continue;
       }
+      TokenSuggestion suggestion = new TokenSuggestion();
+      suggestion.setSuggested(candidates[currentHit]);
+      suggestion.setScore(scores[currentHit]);
 
       if (aprioriIndexReader != null) { // use the user index
-        suggestion.setFrequency(aprioriIndexReader.docFreq(new Term(aprioriIndexField, suggestion.getSuggested()))); // freq in the index
+        suggestion.setFrequency(aprioriFreqs.docFreq(aprioriIndexReader, aprioriIndexField, suggestion.getSuggested())); // freq in the index
         // don't suggest a word that is not present in the field
         if ((suggestMorePopularTokensOnly && goalFreq > suggestion.getFrequency()) || suggestion.getFrequency() < 1) {
           continue;
         }
       }
-      queue.add(suggestion);
+      // more candidates than suggestions are measured, so keep only the best
+      queue.insertWithOverflow(suggestion);
     }
 
     return queue;
@@ -226,7 +360,7 @@ public class NgramTokenSuggester implements TokenSuggester {
    * @param ng   the ngram length e.g. 3
    * @return an array of all ngrams in the word and note that duplicates are not removed
    */
-  private String[] formGrams(String text, int ng) {
+  static String[] formGrams(String text, int ng) {
     int len = text.length();
     ng = Math.min(ng, len);
     String[] res = new String[len - ng + 1];
@@ -247,56 +381,141 @@ public class NgramTokenSuggester implements TokenSuggester {
   }
 
   /**
-   * Index a Dictionary
+   * Index a Dictionary. Tokens already in the index are skipped, so this also
+   * adds new tokens to the dictionary. The tokens are suggested once this returns.
    *
    * @param tokens         the dictionary to index
    * @param minTokenLength minimum size of token to be suggestable. 2 if you want "on" to suggest "in".
    * @throws IOException
+   * @throws UnsupportedOperationException if the n-gram index is an instantiated index that is not empty
    */
   public void indexDictionary(Iterator<String> tokens, int minTokenLength) throws IOException {
     if (minTokenLength < 2) {
       minTokenLength = 2;
     }
-    IndexWriterFacade writer = ngramIndex.indexWriterFactory(new StandardAnalyzer(Version.LUCENE_CURRENT, Collections.EMPTY_SET), false);
-    //writer.setMergeFactor(300);
-    //writer.setMaxBufferedDocs(150);
+    synchronized (updateLock) {
+      checkUpdatable();
+      IndexReader ngramReader = ngramSearcher.reader;
+      IndexWriterFacade writer = ngramIndex.indexWriterFactory(new StandardAnalyzer(Version.LUCENE_CURRENT, Collections.EMPTY_SET), false);
+      //writer.setMergeFactor(300);
+      //writer.setMaxBufferedDocs(150);
 
-    Set<String> unflushedTokens = new HashSet<String>(1000);
+      Set<String> unflushedTokens = new HashSet<String>(1000);
 
-    while (tokens.hasNext()) {
-      String token = tokens.next();
+      try {
+        while (tokens.hasNext()) {
+          String token = tokens.next();
 
-      int len = token.length();
-      if (len < minTokenLength) {
-        continue; // too short we bail but "too long" is fine...
-      }
+          int len = token.length();
+          if (len < minTokenLength) {
+            continue; // too short we bail but "too long" is fine...
+          }
 
-      if (unflushedTokens.contains(token) || ngramReader.docFreq(new Term(F_WORD, token)) > 0) {
-        continue;
+          if (unflushedTokens.contains(token) || isIndexed(ngramReader, token)) {
+            continue;
+          }
+
+          // ok index the word
+          Document doc = createDocument(token, getMin(len), getMax(len));
+          writer.addDocument(doc);
+          unflushedTokens.add(token);
+
+        }
+      } finally {
+        // the new words are flushed as new segments, merging them is left to the merge policy
+        writer.close();
       }
 
-      // ok index the word
-      Document doc = createDocument(token, getMin(len), getMax(len));
-      writer.addDocument(doc);
-      unflushedTokens.add(token);
+      reopen();
+    }
+  }
 
+  /**
+   * Removes tokens from the dictionary. The tokens are no longer suggested once this returns.
+   *
+   * @param tokens the tokens to remove
+   * @throws IOException
+   * @throws UnsupportedOperationException if the n-gram index is an instantiated index that is not empty
+   */
+  public void removeFromDictionary(Iterator<String> tokens) throws IOException {
+    synchronized (updateLock) {
+      checkUpdatable();
+      IndexWriterFacade writer = ngramIndex.indexWriterFactory(new StandardAnalyzer(Version.LUCENE_CURRENT, Collections.EMPTY_SET), false);
+      try {
+        while (tokens.hasNext()) {
+          writer.deleteDocuments(new Term(F_WORD, tokens.next()));
+        }
+      } finally {
+        writer.close();
+      }
+
+      reopen();
     }
-    
-    writer.optimize();
-    writer.close();
+  }
 
-    IndexSearcher oldSearcher = ngramSearcher;
-    IndexReader oldReader = ngramReader;
+  /**
+   * Merges the index in to a single segment, which is faster to suggest from.
+   * Updates no longer do this, so it is worth the while after building the
+   * dictionary in bulk, but not after every small update.
+   *
+   * @throws IOException
+   */
+  public void optimize() throws IOException {
+    synchronized (updateLock) {
+      IndexWriterFacade writer = ngramIndex.indexWriterFactory(new StandardAnalyzer(Version.LUCENE_CURRENT, Collections.EMPTY_SET), false);
+      try {
+        writer.optimize();
+      } finally {
+        writer.close();
+      }
+
+      reopen();
+    }
+  }
 
-    ngramReader = ngramIndex.indexReaderFactory();
-    ngramSearcher = new IndexSearcher(ngramReader);
+  /**
+   * Suggestions read the words of the n-gram index by document number, and an
+   * instantiated index would change them while they are being read, so it is
+   * only updated while there is nothing in it to suggest.
+   *
+   * @throws UnsupportedOperationException if the n-gram index is an instantiated index that is not empty
+   */
+  private void checkUpdatable() {
+    if (instantiated && ngramSearcher.reader.maxDoc() > 0) {
+      throw new UnsupportedOperationException("An instantiated n-gram index can't be updated once built, use a Directory index for live updates");
+    }
+  }
 
-    oldSearcher.close();
-    oldReader.close();
+  /**
+   * @return true if the token has a document in the index that is not deleted.
+   */
+  private boolean isIndexed(IndexReader ngramReader, String token) throws IOException {
+    TermDocs termDocs = ngramReader.termDocs(new Term(F_WORD, token));
+    try {
+      return termDocs.next();
+    } finally {
+      termDocs.close();
+    }
+  }
 
+  /**
+   * Reopens the reader after an update, which only opens the segments that are new or have new deletions.
+   */
+  private void reopen() throws IOException {
+    IndexReader oldReader = ngramSearcher.reader;
+    IndexReader newReader;
+    try {
+      newReader = oldReader.reopen();
+    } catch (UnsupportedOperationException e) {
+      // instantiated readers can't reopen, this is only reached when building the empty index
+      newReader = ngramIndex.indexReaderFactory();
+    }
+    if (newReader != oldReader) {
+      swapSearcher(new NgramSearcher(newReader));
+    }
   }
 
-  private int getMin(int l) {
+  static int getMin(int l) {
     if (l > 5) {
       return 3;
     }
@@ -306,7 +525,7 @@ public class NgramTokenSuggester implements TokenSuggester {
     return 1;
   }
 
-  private int getMax(int l) {
+  static int getMax(int l) {
     if (l > 5) {
       return 4;
     }
@@ -323,6 +542,9 @@ public class NgramTokenSuggester implements TokenSuggester {
     return doc;
   }
 
+  /**
+   * The grams are only searched, so they are not stored
+   */
   private void addGram(String text, Document doc, int ng1, int ng2) {
     int len = text.length();
     for (int ng = ng1; ng <= ng2; ng++) {
@@ -330,14 +552,14 @@ public class NgramTokenSuggester implements TokenSuggester {
       String end = null;
       for (int i = 0; i < len - ng + 1; i++) {
         String gram = text.substring(i, i + ng);
-        doc.add(new Field(key, gram, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(new Field(key, gram, Field.Store.NO, Field.Index.NOT_ANALYZED));
         if (i == 0) {
-          doc.add(new Field("start" + ng, gram, Field.Store.YES, Field.Index.NOT_ANALYZED));
+          doc.add(new Field("start" + ng, gram, Field.Store.NO, Field.Index.NOT_ANALYZED));
         }
         end = gram;
       }
       if (end != null) { // may not be present if len==ng1
-        doc.add(new Field("end" + ng, end, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(new Field("end" + ng, end, Field.Store.NO, Field.Index.NOT_ANALYZED));
       }
     }
   }
@@ -369,6 +591,6 @@ public class NgramTokenSuggester implements TokenSuggester {
 
   
   public EditDistance editDistanceFactory(String sa) {
-    return new Levenshtein(sa);
+    return new MyersLevenshtein(sa);
   }
 }
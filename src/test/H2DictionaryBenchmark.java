@@ -0,0 +1,155 @@
+import org.apache.lucene.search.didyoumean.dictionary.H2Dictionary;
+import org.apache.lucene.search.didyoumean.dictionary.SuggestionList;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure concurrent lookup throughput of a {@link H2Dictionary}. Without a
+ * thread count the lookups are run with 1, 2, 4 and 8 threads.
+ * <p/>
+ * At each thread count the lookups of the dictionary, through its one cached
+ * statement, are timed against the same query prepared on a shared read
+ * connection for every lookup, which is what the lookups did before the
+ * statement was cached. The whole sweep is run once untimed first, to warm up
+ * the JIT and the database cache.
+ * <p/>
+ * Usage: {@code H2DictionaryBenchmark <dir> [threads] [lookupsPerThread]}
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 9, 2010
+ */
+public class H2DictionaryBenchmark {
+
+  private static final int NUM_KEYS = 10000;
+
+  private static final String SELECT_SUGGESTIONS =
+    "SELECT sugg.string, sugg.score, sugg.results FROM sugg, dict, query " +
+    "WHERE query.key=? AND query.keyId=dict.queryKeyId AND dict.suggId=sugg.id";
+
+  /**
+   * A way of looking up the suggestions of a query
+   */
+  private interface Lookup {
+    /**
+     * @return the number of suggestions found
+     */
+    int lookup(String query) throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println(
+        "Usage: H2DictionaryBenchmark <dir> [threads] [lookupsPerThread]");
+      System.exit(1);
+    }
+
+    File baseDir = new File(args[0]);
+    int cores = Runtime.getRuntime().availableProcessors();
+    int[] threadCounts = args.length > 1 ? new int[]{Integer.parseInt(args[1])} : new int[]{1, 2, 4, 8};
+    int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+    final H2Dictionary dict = new H2Dictionary(baseDir);
+    if (dict.size() < NUM_KEYS) {
+      System.out.println("Populating dictionary with " + NUM_KEYS + " query keys");
+      for (int i = 0; i < NUM_KEYS; i++) {
+        SuggestionList suggestions = dict.suggestionListFactory(queryFor(i));
+        for (int j = 0; j < 5; j++) {
+          suggestions.addSuggested(queryFor(i) + queryFor(j), j, j);
+        }
+        dict.put(suggestions);
+      }
+    }
+
+    Lookup cached = new Lookup() {
+      public int lookup(String query) throws Exception {
+        return dict.getSuggestions(query).size();
+      }
+    };
+    final Connection readConn = H2Dictionary.createConnection(baseDir);
+    readConn.setReadOnly(true);
+    Lookup prepared = new Lookup() {
+      public int lookup(String query) throws Exception {
+        PreparedStatement select = readConn.prepareStatement(SELECT_SUGGESTIONS);
+        try {
+          select.setString(1, dict.suggestionListFactory(query).getQueryKey());
+          ResultSet result = select.executeQuery();
+          int found = 0;
+          while (result.next()) {
+            found++;
+          }
+          result.close();
+          return found;
+        } finally {
+          select.close();
+        }
+      }
+    };
+
+    // warmup, the whole sweep untimed
+    for (int threads : threadCounts) {
+      run(cached, threads, lookups);
+      run(prepared, threads, lookups);
+    }
+
+    System.out.println(String.format("%d cores, %d lookups per thread", cores, lookups));
+    for (int threads : threadCounts) {
+      System.out.println(String.format(
+        "%d threads: cached statement %d lookups/s, prepared per lookup %d lookups/s",
+        threads, run(cached, threads, lookups), run(prepared, threads, lookups)));
+    }
+    readConn.close();
+    dict.close();
+  }
+
+  private static long run(final Lookup lookup, int threads, final int lookups)
+                                                            throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicLong found = new AtomicLong();
+
+    for (int t = 0; t < threads; t++) {
+      final int seed = t;
+      new Thread() {
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < lookups; i++) {
+              found.addAndGet(lookup.lookup(queryFor((seed * 7919 + i) % NUM_KEYS)));
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+
+    long time = System.nanoTime();
+    start.countDown();
+    done.await();
+    time = System.nanoTime() - time;
+
+    if (found.get() == 0) {
+      System.err.println("No suggestions found");
+    }
+    return (long) threads * lookups * 1000000000L / time;
+  }
+
+  /**
+   * Query keys only keep letters, so spell out {@code i} in letters
+   */
+  private static String queryFor(int i) {
+    StringBuilder query = new StringBuilder("q");
+    do {
+      query.append((char) ('a' + i % 26));
+      i /= 26;
+    } while (i > 0);
+    return query.toString();
+  }
+}
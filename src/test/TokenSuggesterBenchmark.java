@@ -0,0 +1,137 @@
+import org.apache.lucene.index.facade.DirectoryIndexFacade;
+import org.apache.lucene.index.facade.IndexFacade;
+import org.apache.lucene.search.didyoumean.RandomStrings;
+import org.apache.lucene.search.didyoumean.SuggestionPriorityQueue;
+import org.apache.lucene.search.didyoumean.secondlevel.token.automaton.LevenshteinTokenSuggester;
+import org.apache.lucene.search.didyoumean.secondlevel.token.deletion.DeletionTokenSuggester;
+import org.apache.lucene.search.didyoumean.secondlevel.token.ngram.MemoryNgramTokenSuggester;
+import org.apache.lucene.search.didyoumean.secondlevel.token.ngram.NgramTokenSuggester;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measure the time per query token of the Lucene backed
+ * {@link NgramTokenSuggester} against the {@link MemoryNgramTokenSuggester},
+ * the {@link DeletionTokenSuggester} and the {@link LevenshteinTokenSuggester},
+ * over a vocabulary of random words and misspellings of them. Recall is how
+ * often the word a query was misspelled from is among the suggestions.
+ * <p/>
+ * The suggesters take several rounds to reach their steady state, so compare
+ * the last rounds.
+ * <p/>
+ * Usage: {@code TokenSuggesterBenchmark [vocabularySize] [queries] [rounds]}
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class TokenSuggesterBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int vocabularySize = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+    int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    Random random = new Random(87);
+    RandomStrings strings = new RandomStrings(random, "abcdefghijklmnopqrstuvwxyz");
+    List<String> vocabulary = new ArrayList<String>(vocabularySize);
+    for (int i = 0; i < vocabularySize; i++) {
+      vocabulary.add(strings.randomString(4 + random.nextInt(9)));
+    }
+    final List<String> queries = new ArrayList<String>(numQueries);
+    final List<String> expected = new ArrayList<String>(numQueries);
+    for (int i = 0; i < numQueries; i++) {
+      String word = vocabulary.get(random.nextInt(vocabularySize));
+      queries.add(strings.mutate(word, 1, 1));
+      expected.add(word);
+    }
+
+    IndexFacade ngramIndex = new DirectoryIndexFacade(new RAMDirectory());
+    ngramIndex.indexWriterFactory(null, true).close();
+    final NgramTokenSuggester lucene = new NgramTokenSuggester(ngramIndex);
+    long time = System.nanoTime();
+    lucene.indexDictionary(vocabulary.iterator());
+    lucene.optimize();
+    System.out.println(String.format("NgramTokenSuggester: indexed %d words in %d ms",
+                                     vocabularySize, (System.nanoTime() - time) / 1000000));
+
+    final MemoryNgramTokenSuggester memory = new MemoryNgramTokenSuggester();
+    time = System.nanoTime();
+    memory.indexDictionary(vocabulary.iterator());
+    System.out.println(String.format("MemoryNgramTokenSuggester: indexed %d words in %d ms",
+                                     vocabularySize, (System.nanoTime() - time) / 1000000));
+
+    final DeletionTokenSuggester deletion = new DeletionTokenSuggester();
+    time = System.nanoTime();
+    deletion.indexDictionary(vocabulary.iterator());
+    System.out.println(String.format("DeletionTokenSuggester: indexed %d words under %d deletions in %d ms",
+                                     vocabularySize, deletion.getNumDeletions(), (System.nanoTime() - time) / 1000000));
+
+    final LevenshteinTokenSuggester automaton = new LevenshteinTokenSuggester();
+    time = System.nanoTime();
+    automaton.indexDictionary(vocabulary.iterator());
+    System.out.println(String.format("LevenshteinTokenSuggester: indexed %d words in %d ms",
+                                     vocabularySize, (System.nanoTime() - time) / 1000000));
+
+    for (int round = 0; round < rounds; round++) {
+      System.out.println(String.format("Round %d, %d queries", round + 1, numQueries));
+      // Measuring one hit per suggestion only measures the hits that are suggested
+      run("NgramTokenSuggester/1", new Suggest() {
+        public SuggestionPriorityQueue suggest(String token) throws IOException {
+          return lucene.suggest(token, 5, false, null, null, false, 1);
+        }
+      }, queries, expected);
+      run("NgramTokenSuggester", new Suggest() {
+        public SuggestionPriorityQueue suggest(String token) throws IOException {
+          return lucene.suggest(token, 5);
+        }
+      }, queries, expected);
+      run("MemoryNgramTokenSuggester", new Suggest() {
+        public SuggestionPriorityQueue suggest(String token) throws IOException {
+          return memory.suggest(token, 5);
+        }
+      }, queries, expected);
+      run("DeletionTokenSuggester", new Suggest() {
+        public SuggestionPriorityQueue suggest(String token) throws IOException {
+          return deletion.suggest(token, 5);
+        }
+      }, queries, expected);
+      run("LevenshteinTokenSuggester", new Suggest() {
+        public SuggestionPriorityQueue suggest(String token) throws IOException {
+          return automaton.suggest(token, 5);
+        }
+      }, queries, expected);
+    }
+  }
+
+  private interface Suggest {
+    public SuggestionPriorityQueue suggest(String token) throws IOException;
+  }
+
+  /**
+   * Time the suggestions for the queries, and count how often the word a query
+   * was misspelled from is among them
+   */
+  private static void run(String name, Suggest suggest, List<String> queries, List<String> expected) throws IOException {
+    long suggestions = 0;
+    int found = 0;
+    long time = 0;
+    for (int i = 0; i < queries.size(); i++) {
+      long start = System.nanoTime();
+      SuggestionPriorityQueue queue = suggest.suggest(queries.get(i));
+      time += System.nanoTime() - start;
+      suggestions += queue.size();
+      while (queue.size() > 0) {
+        if (queue.pop().getSuggested().equals(expected.get(i))) {
+          found++;
+        }
+      }
+    }
+    System.out.println(String.format("  %-26s %6d us/token, %.2f suggestions/token, recall %.1f%%",
+                                     name, time / 1000 / queries.size(), (double) suggestions / queries.size(),
+                                     100d * found / queries.size()));
+  }
+}
@@ -0,0 +1,80 @@
+package org.apache.lucene.search.didyoumean;
+
+import java.util.Random;
+
+/**
+ * Random strings over a small alphabet, and random misspellings of them, for
+ * testing edit distances and token suggesters against plain reference
+ * implementations. A small alphabet makes for plenty of near matches.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class RandomStrings {
+
+  private final Random random;
+  private final String alphabet;
+
+  /**
+   * @param random   the source of randomness
+   * @param alphabet the chars the strings and edits are made of
+   */
+  public RandomStrings(Random random, String alphabet) {
+    this.random = random;
+    this.alphabet = alphabet;
+  }
+
+  public char randomChar() {
+    return alphabet.charAt(random.nextInt(alphabet.length()));
+  }
+
+  public String randomString(int length) {
+    StringBuilder buf = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      buf.append(randomChar());
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Apply between {@code minEdits} and {@code maxEdits} random deletions,
+   * insertions and substitutions to {@code s}. The last char is never deleted,
+   * so only an empty {@code s} gives an empty result.
+   */
+  public String mutate(String s, int minEdits, int maxEdits) {
+    return mutate(s, minEdits, maxEdits, false);
+  }
+
+  /**
+   * Like {@link #mutate(String, int, int)}, optionally also swapping adjacent chars
+   */
+  public String mutate(String s, int minEdits, int maxEdits, boolean transpositions) {
+    StringBuilder buf = new StringBuilder(s);
+    int edits = minEdits + random.nextInt(maxEdits - minEdits + 1);
+    for (int i = 0; i < edits; i++) {
+      int op = random.nextInt(transpositions ? 4 : 3);
+      if (buf.length() == 0) {
+        op = 1;
+      } else if ((op == 0 || op == 3) && buf.length() == 1) {
+        op = 2;
+      }
+      switch (op) {
+        case 0:
+          buf.deleteCharAt(random.nextInt(buf.length()));
+          break;
+        case 1:
+          buf.insert(random.nextInt(buf.length() + 1), randomChar());
+          break;
+        case 2:
+          buf.setCharAt(random.nextInt(buf.length()), randomChar());
+          break;
+        default:
+          int pos = random.nextInt(buf.length() - 1);
+          char c = buf.charAt(pos);
+          buf.setCharAt(pos, buf.charAt(pos + 1));
+          buf.setCharAt(pos + 1, c);
+      }
+    }
+    return buf.toString();
+  }
+}
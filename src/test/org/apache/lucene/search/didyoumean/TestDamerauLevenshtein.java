@@ -0,0 +1,95 @@
+package org.apache.lucene.search.didyoumean;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Test the unweighted and weighted {@link DamerauLevenshtein} distances
+ * against a plain implementation of the optimal string alignment distance
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class TestDamerauLevenshtein extends TestCase {
+
+  public void testTranspositions() throws Exception {
+    assertEquals(1, new DamerauLevenshtein("teh").getDistance("the"));
+    assertEquals(2, new Levenshtein("teh").getDistance("the"));
+    assertEquals(0, new DamerauLevenshtein("the").getDistance("the"));
+    assertEquals(3, new DamerauLevenshtein("").getDistance("the"));
+    assertEquals(3, new DamerauLevenshtein("the").getDistance(""));
+    // Optimal string alignment edits no substring twice
+    assertEquals(3, new DamerauLevenshtein("ca").getDistance("abc"));
+    assertEquals(1, new DamerauLevenshtein("recieve").getDistance("receive", 1));
+    assertEquals(2, new DamerauLevenshtein("recieve").getDistance("reveice", 1));
+  }
+
+  public void testQwerty() throws Exception {
+    SubstitutionCosts qwerty = SubstitutionCosts.createQwerty(4, 1);
+    assertEquals(1, qwerty.getCost('s', 'a'));
+    assertEquals(1, qwerty.getCost('s', 'w'));
+    assertEquals(1, qwerty.getCost('s', 'x'));
+    assertEquals(1, qwerty.getCost('S', 'X'));
+    assertEquals(4, qwerty.getCost('s', 'p'));
+    assertEquals(0, qwerty.getCost('s', 's'));
+
+    EditDistance weighted = new DamerauLevenshtein("test", qwerty);
+    assertEquals(1, weighted.getDistance("tedt"));
+    assertEquals(4, weighted.getDistance("tept"));
+    assertEquals(4, weighted.getDistance("tets"));
+    // e and s are neighbours, so substituting both is cheaper than swapping them
+    assertEquals(2, weighted.getDistance("tset"));
+    assertEquals(1.0d - 1.0d / 16, weighted.getNormalizedDistance("tedt"));
+    assertEquals(new Levenshtein("test").getNormalizedDistance("tept"), weighted.getNormalizedDistance("tept"));
+  }
+
+  public void testNonAsciiCosts() throws Exception {
+    SubstitutionCosts costs = new SubstitutionCosts(2).setCost('\u00E6', 'e', 1);
+    assertEquals(1, new DamerauLevenshtein("\u00E6ble", costs).getDistance("eble"));
+    assertEquals(2, new DamerauLevenshtein("\u00E6ble", costs).getDistance("able"));
+  }
+
+  public void testAgreesWithReference() throws Exception {
+    Random random = new Random(87);
+    RandomStrings strings = new RandomStrings(random, "asdwxe\u00E5");
+    SubstitutionCosts[] tables = {null, SubstitutionCosts.createQwerty(3, 1),
+                                  new SubstitutionCosts(2).setTranspositionCost(1).setCost('a', '\u00E5', 0)};
+    for (int i = 0; i < 3000; i++) {
+      SubstitutionCosts costs = tables[i % tables.length];
+      String pattern = strings.randomString(random.nextInt(12));
+      String query = random.nextBoolean() ? strings.mutate(pattern, 0, 4, true) : strings.randomString(random.nextInt(12));
+      int expected = reference(pattern, query, costs);
+      DamerauLevenshtein editDistance = new DamerauLevenshtein(pattern, costs);
+      assertEquals(pattern + " / " + query, expected, editDistance.getDistance(query));
+
+      int maxDistance = random.nextInt(8);
+      assertEquals(pattern + " / " + query, Math.min(expected, maxDistance + 1),
+                   editDistance.getDistance(query, maxDistance));
+    }
+  }
+
+  private static int reference(String s, String t, SubstitutionCosts costs) {
+    int unit = costs == null ? 1 : costs.getUnitCost();
+    int transposition = costs == null ? 1 : costs.getTranspositionCost();
+    int[][] d = new int[s.length() + 1][t.length() + 1];
+    for (int i = 0; i <= s.length(); i++) {
+      d[i][0] = i * unit;
+    }
+    for (int j = 0; j <= t.length(); j++) {
+      d[0][j] = j * unit;
+    }
+    for (int i = 1; i <= s.length(); i++) {
+      for (int j = 1; j <= t.length(); j++) {
+        char a = s.charAt(i - 1);
+        char b = t.charAt(j - 1);
+        int substitution = a == b ? 0 : costs == null ? 1 : costs.getCost(a, b);
+        d[i][j] = Math.min(Math.min(d[i - 1][j] + unit, d[i][j - 1] + unit), d[i - 1][j - 1] + substitution);
+        if (i > 1 && j > 1 && a == t.charAt(j - 2) && s.charAt(i - 2) == b && a != b) {
+          d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + transposition);
+        }
+      }
+    }
+    return d[s.length()][t.length()];
+  }
+}
@@ -0,0 +1,115 @@
+package org.apache.lucene.search.didyoumean;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Test that {@link MyersLevenshtein} agrees with {@link Levenshtein}, for
+ * patterns fitting in a single word as well as for blocked patterns, and
+ * that the bounded distances of both agree with the full distance
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class TestMyersLevenshtein extends TestCase {
+
+  /** A small alphabet with a few non-ASCII chars, so there are plenty of matches */
+  private static final String ALPHABET = "abcde\u00E6\u00F8\u00E5";
+
+  public void testDistances() throws Exception {
+    assertEquals(0, new MyersLevenshtein("").getDistance(""));
+    assertEquals(3, new MyersLevenshtein("").getDistance("foo"));
+    assertEquals(3, new MyersLevenshtein("foo").getDistance(""));
+    assertEquals(0, new MyersLevenshtein("foo").getDistance("foo"));
+    assertEquals(3, new MyersLevenshtein("kitten").getDistance("sitting"));
+    assertEquals(3, new MyersLevenshtein("sitting").getDistance("kitten"));
+    assertEquals(1, new MyersLevenshtein("caf\u00E9").getDistance("cafe"));
+    assertEquals(0, new MyersLevenshtein("\u00E6bler\u00F8d").getDistance("\u00E6bler\u00F8d"));
+  }
+
+  public void testNormalizedDistance() throws Exception {
+    assertEquals(new Levenshtein("allwork").getNormalizedDistance("all work"),
+                 new MyersLevenshtein("allwork").getNormalizedDistance("all work"));
+  }
+
+  public void testAgreesWithLevenshtein() throws Exception {
+    Random random = new Random(87);
+    RandomStrings strings = new RandomStrings(random, ALPHABET);
+    // Lengths around the word and block boundaries
+    int[] lengths = {1, 5, 63, 64, 65, 127, 128, 129, 200};
+    for (int i = 0; i < 2000; i++) {
+      String pattern = strings.randomString(lengths[random.nextInt(lengths.length)]);
+      String query = random.nextBoolean()
+          ? strings.mutate(pattern, 0, 9)
+          : strings.randomString(lengths[random.nextInt(lengths.length)]);
+      assertEquals(pattern + " / " + query,
+                   new Levenshtein(pattern).getDistance(query),
+                   new MyersLevenshtein(pattern).getDistance(query));
+    }
+  }
+
+  public void testBoundedDistance() throws Exception {
+    assertEquals(2, new Levenshtein("kitten").getDistance("sitting", 1));
+    assertEquals(2, new MyersLevenshtein("kitten").getDistance("sitting", 1));
+    assertEquals(3, new Levenshtein("kitten").getDistance("sitting", 3));
+    assertEquals(3, new MyersLevenshtein("kitten").getDistance("sitting", 3));
+    assertEquals(1, new Levenshtein("foo").getDistance("foobar", 0));
+    assertEquals(1, new MyersLevenshtein("foo").getDistance("foobar", 0));
+
+    Random random = new Random(88);
+    RandomStrings strings = new RandomStrings(random, ALPHABET);
+    int[] lengths = {1, 5, 10, 63, 64, 65, 129};
+    for (int i = 0; i < 2000; i++) {
+      String pattern = strings.randomString(lengths[random.nextInt(lengths.length)]);
+      String query = strings.mutate(pattern, 0, 9);
+      int maxDistance = random.nextInt(12);
+      int distance = new Levenshtein(pattern).getDistance(query);
+      int expected = Math.min(distance, maxDistance + 1);
+      assertEquals(pattern + " / " + query, expected, new Levenshtein(pattern).getDistance(query, maxDistance));
+      assertEquals(pattern + " / " + query, expected, new MyersLevenshtein(pattern).getDistance(query, maxDistance));
+
+      // Bounded normalized distances make the same decisions as unbounded ones
+      double minSimilarity = random.nextDouble();
+      EditDistance editDistance = new MyersLevenshtein(pattern);
+      double similarity = editDistance.getNormalizedDistance(query);
+      double bounded = editDistance.getNormalizedDistance(query, minSimilarity);
+      assertEquals(similarity >= minSimilarity, bounded >= minSimilarity);
+      if (similarity >= minSimilarity) {
+        assertEquals(similarity, bounded);
+      }
+    }
+  }
+
+  public void testSharedBetweenThreads() throws Exception {
+    final String pattern = "heroes of might and magic, the greatest strategy game series of its time";
+    final EditDistance[] editDistances = {new Levenshtein(pattern), new MyersLevenshtein(pattern)};
+    final Throwable[] failure = new Throwable[1];
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final RandomStrings strings = new RandomStrings(new Random(t), ALPHABET);
+      threads[t] = new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < 2000; i++) {
+              String query = strings.mutate(pattern, 0, 9);
+              int expected = new Levenshtein(pattern).getDistance(query);
+              for (EditDistance editDistance : editDistances) {
+                assertEquals(query, expected, editDistance.getDistance(query));
+              }
+            }
+          } catch (Throwable e) {
+            failure[0] = e;
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure[0] != null) {
+      throw new AssertionError(failure[0]);
+    }
+  }
+}
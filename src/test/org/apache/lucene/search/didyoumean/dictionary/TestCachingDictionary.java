@@ -0,0 +1,112 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+/**
+ * Run the generic dictionary tests against a {@link CachingDictionary} in
+ * front of a {@link MemoryDictionary}, and test the cache itself
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 11, 2010
+ */
+public class TestCachingDictionary extends TestDictionary {
+
+  public void setUp() throws Exception {
+    dict = new CachingDictionary(new MemoryDictionary(), 100);
+  }
+
+  public void tearDown() throws Exception {
+    dict.close();
+  }
+
+  public void testHitsAndInvalidation() throws Exception {
+    CachingDictionary cache = (CachingDictionary) dict;
+    put("foo", "foobar", 1d);
+
+    assertEquals(1, dict.getSuggestions("foo").size());
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, dict.getSuggestions("Foo").size());
+    assertEquals(1, cache.getHits());
+
+    // Modifying a returned list must not change the cached one
+    dict.getSuggestions("foo").getSuggestions().clear();
+    assertEquals(1, dict.getSuggestions("foo").size());
+
+    // Writes go through to the backend and invalidate the entry
+    put("foo", "fool", 2d);
+    assertEquals("fool", dict.getSuggestions("foo").get(0).getSuggested());
+    assertEquals(2, cache.getMisses());
+    assertEquals("fool", cache.getBackend().getSuggestions("foo").get(0).getSuggested());
+
+    // Query keys without suggestions are cached too
+    assertEquals(0, dict.getSuggestions("bar").size());
+    assertEquals(0, dict.getSuggestions("bar").size());
+    assertEquals(3, cache.getMisses());
+  }
+
+  public void testFrequencyAwareAdmission() throws Exception {
+    CachingDictionary cache = new CachingDictionary(new MemoryDictionary(), 2);
+    for (int i = 0; i < 5; i++) {
+      cache.getSuggestions("popular");
+      cache.getSuggestions("common");
+    }
+    assertEquals(2, cache.getCachedSize());
+
+    // A burst of one-off queries must not push out the popular ones
+    for (char c = 'a'; c <= 'z'; c++) {
+      cache.getSuggestions("rare" + c);
+    }
+    assertEquals(0, cache.getEvictions());
+    long misses = cache.getMisses();
+    cache.getSuggestions("popular");
+    cache.getSuggestions("common");
+    assertEquals(misses, cache.getMisses());
+
+    // A query becoming popular is eventually admitted
+    for (int i = 0; i < 10; i++) {
+      cache.getSuggestions("trending");
+    }
+    assertEquals(1, cache.getEvictions());
+    misses = cache.getMisses();
+    cache.getSuggestions("trending");
+    assertEquals(misses, cache.getMisses());
+  }
+
+  public void testHitsWhilePutting() throws Exception {
+    final CachingDictionary cache = (CachingDictionary) dict;
+    put("foo", "foo0", 1d);
+
+    final Throwable[] failure = new Throwable[1];
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < 2000; i++) {
+              assertEquals(1, cache.getSuggestions("foo").size());
+            }
+          } catch (Throwable e) {
+            failure[0] = e;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    // A put is seen by the next lookup, whatever the readers loaded meanwhile
+    for (int i = 1; i <= 200; i++) {
+      SuggestionList suggestions = dict.suggestionListFactory("foo");
+      suggestions.addSuggested("foo" + i, 1d, 1);
+      dict.put(suggestions);
+      assertEquals("foo" + i, dict.getSuggestions("foo").get(0).getSuggested());
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(String.valueOf(failure[0]), failure[0]);
+    assertTrue(cache.getHits() > 0);
+  }
+
+  private void put(String query, String suggested, double score) throws Exception {
+    SuggestionList suggestions = dict.suggestionListFactory(query);
+    suggestions.addSuggested(suggested, score, 1);
+    dict.put(suggestions);
+  }
+}
@@ -1,6 +1,10 @@
 package org.apache.lucene.search.didyoumean.dictionary;
 
 import junit.framework.TestCase;
+import org.apache.lucene.search.didyoumean.impl.DefaultSuggester;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * FIXME: Missing class docs for org.apache.lucene.search.didyoumean.dictionary.TestDictionary
@@ -21,6 +25,30 @@ public class TestDictionary extends TestCase {
     assertEquals("foobar", dict.formatQueryKey(" @$  foo.bar\n\r"));
   }
 
+  public void testQueryKeyCodePoints() throws Exception {
+    // MATHEMATICAL BOLD CAPITAL A and SMALL A are letters outside the BMP
+    String boldA = new String(Character.toChars(0x1D400));
+    String boldSmallA = new String(Character.toChars(0x1D41A));
+    assertEquals(boldA + "foo", dict.formatQueryKey(boldA + " Foo!"));
+    assertEquals(boldSmallA, dict.formatQueryKey(boldSmallA));
+    // DESERET CAPITAL LONG I lower cases to DESERET SMALL LONG I
+    assertEquals(new String(Character.toChars(0x10428)), dict.formatQueryKey(new String(Character.toChars(0x10400))));
+    assertEquals("", dict.formatQueryKey(" 42 "));
+  }
+
+  public void testQueryKeyHashes() throws Exception {
+    String[] queries = {"foo  bar", "foobar", " @$  Foo.BAR\n\r", "", "\u00C6bler", "x" + new String(Character.toChars(0x10400))};
+    for (String query : queries) {
+      String queryKey = dict.formatQueryKey(query);
+      assertEquals(query, Dictionary.hashQueryKey(queryKey), dict.queryKeyHash(query));
+      assertTrue(query, dict.isQueryKeyOf(query, queryKey));
+      assertFalse(query, dict.isQueryKeyOf(query, queryKey + "a"));
+    }
+    assertFalse(dict.queryKeyHash("foobar") == dict.queryKeyHash("foobaz"));
+    assertFalse(dict.isQueryKeyOf("foo bar", "foobaz"));
+    assertFalse(dict.isQueryKeyOf("foo bar", "foo"));
+  }
+
   public void testEmptyDict() throws Exception {
     assertEquals(0, dict.size());
     assertEquals(0, dict.getSuggestions("ff").size());
@@ -48,4 +76,107 @@ public class TestDictionary extends TestCase {
     assertEquals(1, suggs.size());
     assertEquals(suggestions.get(0), suggs.get(0));
   }
+
+  public void testReplaceSuggestions() throws Exception {
+    SuggestionList suggestions = dict.suggestionListFactory("foo");
+    suggestions.addSuggested("foobar", 1d, 1);
+    suggestions.addSuggested("fool", 2d, null);
+    dict.put(suggestions);
+
+    SuggestionList suggs = dict.getSuggestions("foo");
+    assertEquals(2, suggs.size());
+    assertEquals("fool", suggs.get(0).getSuggested());
+
+    // Putting a list replaces whatever was stored for the query key
+    suggs.getSuggestions().remove(0);
+    suggs.get(0).setScore(3d);
+    dict.put(suggs);
+    assertEquals(1, dict.size());
+
+    suggs = dict.getSuggestions("foo");
+    assertEquals(1, suggs.size());
+    assertEquals("foobar", suggs.get(0).getSuggested());
+    assertEquals(3d, suggs.get(0).getScore());
+  }
+
+  public void testOptimizeCollapsesChains() throws Exception {
+    // foo -> fooo -> fool, where fooo has no hits
+    put("foo", "fooo", 0);
+    put("fooo", "fool", 10);
+    // bar -> baz -> bar is a cycle and must be left alone
+    put("bar", "baz", 0);
+    put("baz", "bar", 5);
+
+    dict.optimize(new DefaultSuggester());
+
+    SuggestionList suggs = dict.getSuggestions("foo");
+    assertEquals(1, suggs.size());
+    assertEquals("fool", suggs.get(0).getSuggested());
+    assertEquals(10, (int) suggs.get(0).getCorpusQueryResults());
+    assertEquals("fool", dict.getSuggestions("fooo").get(0).getSuggested());
+    assertEquals("baz", dict.getSuggestions("bar").get(0).getSuggested());
+    assertEquals("bar", dict.getSuggestions("baz").get(0).getSuggested());
+    assertEquals(4, dict.size());
+  }
+
+  public void testPrunePolicies() throws Exception {
+    SuggestionList suggestions = dict.suggestionListFactory("foo");
+    suggestions.addSuggested("fooa", 5d, 1);
+    suggestions.addSuggested("foob", 4d, 1);
+    suggestions.addSuggested("fooc", 1d, 1);
+    suggestions.addSuggested("food", 0.5d, 1);
+    dict.put(suggestions);
+    suggestions = dict.suggestionListFactory("bar");
+    suggestions.addSuggested("bara", 0.01d, 1);
+    dict.put(suggestions);
+    suggestions = dict.suggestionListFactory("baz");
+    suggestions.addSuggested("baza", 3d, 1);
+    suggestions.addSuggested("bazb", 2d, 1);
+    dict.put(suggestions);
+
+    dict.prune(3, 2.5d, 0.05d);
+    assertEquals(2, dict.size());
+    assertEquals(0, dict.getSuggestions("bar").size());
+    SuggestionList suggs = dict.getSuggestions("foo");
+    assertEquals(2, suggs.size());
+    assertEquals("fooa", suggs.get(0).getSuggested());
+    assertEquals("foob", suggs.get(1).getSuggested());
+    assertEquals(2, dict.getSuggestions("baz").size());
+
+    dict.prune(1);
+    assertEquals(2, dict.size());
+    assertEquals(1, dict.getSuggestions("foo").size());
+    suggs = dict.getSuggestions("baz");
+    assertEquals(1, suggs.size());
+    assertEquals("baza", suggs.get(0).getSuggested());
+  }
+
+  public void testIterator() throws Exception {
+    put("foo", "fool", 1);
+    put("bar", "baz", 2);
+    SuggestionList suggestions = dict.suggestionListFactory("baz");
+    suggestions.addSuggested("bar", 2d, 2);
+    suggestions.addSuggested("bat", 1d, null);
+    dict.put(suggestions);
+
+    Map<String,SuggestionList> lists = new HashMap<String,SuggestionList>();
+    for (SuggestionList suggs : dict) {
+      assertNull(lists.put(suggs.getQueryKey(), suggs));
+    }
+    assertEquals(3, lists.size());
+    assertEquals("fool", lists.get("foo").get(0).getSuggested());
+    assertEquals(2, lists.get("baz").size());
+    assertEquals("bar", lists.get("baz").get(0).getSuggested());
+    assertNull(lists.get("baz").get(1).getCorpusQueryResults());
+
+    Map<String,SuggestionList> inverted = dict.inverted();
+    assertEquals(3, inverted.size());
+    assertEquals("foo", inverted.get("fool").get(0).getSuggested());
+  }
+
+  private void put(String query, String suggested, int corpusQueryResults) {
+    SuggestionList suggestions = dict.suggestionListFactory(query);
+    suggestions.addSuggested(suggested, 1d, corpusQueryResults);
+    dict.put(suggestions);
+  }
 }
@@ -0,0 +1,95 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Test that {@link DictionaryInverter} gives the same result as
+ * {@link Dictionary#inverted()} when spilling and merging many runs
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 10, 2010
+ */
+public class TestDictionaryInverter extends TestCase {
+
+  private File tmpDir;
+  private Dictionary dict;
+
+  public void setUp() throws Exception {
+    tmpDir = new File(System.getProperty("java.io.tmpdir"),
+                      "inverter" + System.currentTimeMillis());
+    assertTrue(tmpDir.mkdirs());
+
+    dict = new MemoryDictionary();
+    for (int i = 0; i < 500; i++) {
+      SuggestionList suggestions = dict.suggestionListFactory("q" + wordFor(i));
+      suggestions.addSuggested(wordFor(i % 37), 1d + i, i % 5 == 0 ? null : i);
+      suggestions.addSuggested(wordFor(i % 37) + "x", 0.5d, 1);
+      dict.put(suggestions);
+    }
+    // An empty list has nothing to invert
+    dict.put(dict.suggestionListFactory("empty"));
+  }
+
+  public void tearDown() throws Exception {
+    dict.close();
+    File[] files = tmpDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    tmpDir.delete();
+  }
+
+  public void testInvert() throws Exception {
+    // Tiny runs and fan in to force several merge passes
+    Iterator<SuggestionList> it = new DictionaryInverter(tmpDir, 7, 3).invert(dict);
+    Map<String,SuggestionList> expected = dict.inverted();
+
+    String previous = null;
+    int count = 0;
+    while (it.hasNext()) {
+      SuggestionList inverted = it.next();
+      if (previous != null) {
+        assertTrue(previous.compareTo(inverted.getQueryKey()) < 0);
+      }
+      previous = inverted.getQueryKey();
+
+      SuggestionList expectedList = expected.get(inverted.getQueryKey());
+      assertNotNull(expectedList);
+      assertEquals(expectedList.size(), inverted.size());
+      for (int i = 0; i < inverted.size(); i++) {
+        assertEquals(expectedList.get(i).getSuggested(), inverted.get(i).getSuggested());
+        assertEquals(expectedList.get(i).getScore(), inverted.get(i).getScore());
+        assertEquals(expectedList.get(i).getCorpusQueryResults(), inverted.get(i).getCorpusQueryResults());
+      }
+      count++;
+    }
+    assertEquals(expected.size(), count);
+    assertEquals(37, count);
+    assertEquals(0, tmpDir.listFiles().length);
+  }
+
+  public void testInvertEmpty() throws Exception {
+    Iterator<SuggestionList> it =
+      new DictionaryInverter(tmpDir, 7, 3).invert(new MemoryDictionary());
+    assertFalse(it.hasNext());
+    assertEquals(0, tmpDir.listFiles().length);
+  }
+
+  /**
+   * Query keys only keep letters, so spell out {@code i} in letters
+   */
+  private static String wordFor(int i) {
+    StringBuilder word = new StringBuilder();
+    do {
+      word.append((char) ('a' + i % 26));
+      i /= 26;
+    } while (i > 0);
+    return word.toString();
+  }
+}
@@ -0,0 +1,88 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import junit.framework.TestCase;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Test the Unicode folding of query keys, and that the table driven folding
+ * agrees with folding by the JDK normalizer
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class TestFoldingQueryKeyNormalizer extends TestCase {
+
+  public void testFolding() throws Exception {
+    QueryKeyNormalizer normalizer = new FoldingQueryKeyNormalizer(Locale.ENGLISH);
+    assertEquals("cafe", normalizer.normalize("Caf\u00E9"));
+    assertEquals("cafe", normalizer.normalize("Cafe\u0301"));
+    assertEquals("cafe", normalizer.normalize("\uFF23\uFF21\uFF26\uFF25"));
+    assertEquals("fish and chips", normalizer.normalize("\uFB01sh and chips"));
+    assertEquals("\u03BF\u03B4\u03BF\u03C2", normalizer.normalize("\u039F\u0394\u039F\u03A3"));
+    assertEquals("\uAC00", normalizer.normalize("\u3131\u314F"));
+
+    String plain = "already folded";
+    assertSame(plain, normalizer.normalize(plain));
+  }
+
+  public void testKeepDiacritics() throws Exception {
+    QueryKeyNormalizer normalizer = new FoldingQueryKeyNormalizer(Locale.ENGLISH, false);
+    assertEquals("caf\u00E9", normalizer.normalize("CAF\u00C9"));
+    assertEquals("caf\u00E9", normalizer.normalize("Cafe\u0301"));
+  }
+
+  public void testLocale() throws Exception {
+    Locale turkish = new Locale("tr");
+    assertEquals("\u0131stanbul", new FoldingQueryKeyNormalizer(turkish).normalize("ISTANBUL"));
+    assertEquals("istanbul", new FoldingQueryKeyNormalizer(turkish).normalize("\u0130STANBUL"));
+    assertEquals("istanbul", new FoldingQueryKeyNormalizer(turkish).normalize("I\u0307STANBUL"));
+    assertEquals("istanbul", new FoldingQueryKeyNormalizer(Locale.ENGLISH).normalize("ISTANBUL"));
+  }
+
+  public void testTablesAgreeWithNormalizer() throws Exception {
+    Random random = new Random(87);
+    // Latin with diacritics, combining marks, Greek, full width forms, Hangul and Devanagari
+    char[][] ranges = {{' ', '~'}, {'\u00C0', '\u024F'}, {'\u0300', '\u0310'}, {'\u0391', '\u03C9'},
+                       {'\uFB00', '\uFB06'}, {'\uFF01', '\uFF5E'}, {'\u3131', '\u318E'}, {'\u0900', '\u097F'}};
+    for (boolean foldDiacritics : new boolean[]{true, false}) {
+      FoldingQueryKeyNormalizer normalizer = new FoldingQueryKeyNormalizer(Locale.ENGLISH, foldDiacritics);
+      for (int i = 0; i < 5000; i++) {
+        StringBuilder query = new StringBuilder();
+        int length = random.nextInt(8);
+        for (int j = 0; j < length; j++) {
+          char[] range = ranges[random.nextInt(i % 2 == 0 ? 2 : ranges.length)];
+          query.append((char) (range[0] + random.nextInt(range[1] - range[0] + 1)));
+        }
+        String q = query.toString();
+        assertEquals(q, fold(q, foldDiacritics), normalizer.normalize(q));
+      }
+    }
+  }
+
+  public void testFoldingDictionary() throws Exception {
+    Dictionary dict = new MemoryDictionary();
+    dict.setQueryKeyNormalizer(QueryKeyNormalizerChain.createFolding(Locale.ENGLISH));
+    SuggestionList suggestions = dict.suggestionListFactory("Caf\u00E9 au lait");
+    suggestions.addSuggested("caf\u00E9 au lait", 1d, 1);
+    dict.put(suggestions);
+
+    assertEquals("cafeaulait", suggestions.getQueryKey());
+    assertEquals(1, dict.getSuggestions("cafe au lait").size());
+    assertEquals(1, dict.getSuggestions("\uFF23\uFF21\uFF26\uFF25 AU LAIT!").size());
+    assertEquals(Dictionary.hashQueryKey("cafeaulait"), dict.queryKeyHash("Caf\u00E9 au lait"));
+    assertTrue(dict.isQueryKeyOf("Cafe\u0301-au-lait", "cafeaulait"));
+  }
+
+  /** The folding as defined by the JDK normalizer */
+  private static String fold(String query, boolean foldDiacritics) {
+    String lower = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(Locale.ENGLISH);
+    if (!foldDiacritics) {
+      return lower;
+    }
+    String decomposed = Normalizer.normalize(lower, Normalizer.Form.NFD).replaceAll("[\u0300-\u036F]", "");
+    return Normalizer.normalize(decomposed, Normalizer.Form.NFC);
+  }
+}
@@ -22,4 +22,32 @@ public class TestH2Dictionary extends TestDictionary {
     dict.close();
     baseDir.deleteOnExit();
   }  
+
+  public void testReopen() throws Exception {
+    SuggestionList suggestions = dict.suggestionListFactory("foo");
+    suggestions.addSuggested("foobar", 1d, 1);
+    suggestions.addSuggested("fool", 2d, null);
+    dict.put(suggestions);
+    dict.close();
+
+    dict = new H2Dictionary(baseDir);
+    assertEquals(1, dict.size());
+    SuggestionList suggs = dict.getSuggestions("foo");
+    assertEquals(2, suggs.size());
+    assertEquals("fool", suggs.get(0).getSuggested());
+    assertNull(suggs.get(0).getCorpusQueryResults());
+
+    // Writes are visible to the read connection once put() returns
+    suggestions = dict.suggestionListFactory("bar");
+    suggestions.addSuggested("baz", 1d, 1);
+    dict.put(suggestions);
+    assertEquals(1, dict.getSuggestions("bar").size());
+
+    // The iterator reads through a connection of its own
+    int count = 0;
+    for (SuggestionList list : dict) {
+      count += list.size();
+    }
+    assertEquals(3, count);
+  }
 }
@@ -0,0 +1,134 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Run the generic dictionary tests against {@link MappedDictionary} and test
+ * that the files survive reopening, growing the index and compaction
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 8, 2010
+ */
+public class TestMappedDictionary extends TestDictionary {
+
+  File baseDir;
+
+  public void setUp() throws Exception {
+    baseDir = new File(System.getProperty("java.io.tmpdir"),
+               "mapped" + System.currentTimeMillis());
+    dict = new MappedDictionary(baseDir, 4096);
+  }
+
+  public void tearDown() throws Exception {
+    dict.close();
+    File[] files = baseDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    baseDir.delete();
+  }
+
+  public void testReopen() throws Exception {
+    SuggestionList suggestions = dict.suggestionListFactory("foo");
+    suggestions.addSuggested("foobar", 1d, 1);
+    suggestions.addSuggested("fool", 2d, null);
+    dict.put(suggestions);
+    dict.close();
+
+    dict = new MappedDictionary(baseDir);
+    assertEquals(1, dict.size());
+    SuggestionList suggs = dict.getSuggestions("foo");
+    assertEquals(2, suggs.size());
+    assertEquals("fool", suggs.get(0).getSuggested());
+    assertNull(suggs.get(0).getCorpusQueryResults());
+    assertEquals(suggestions.get("foobar"), suggs.get(1));
+  }
+
+  public void testManyKeys() throws Exception {
+    // Enough keys to grow the index and span many 4k segments
+    int numKeys = 5000;
+    for (int i = 0; i < numKeys; i++) {
+      dict.put(suggestionsFor(i, 1d));
+    }
+    // Overwrite every other key to produce garbage
+    for (int i = 0; i < numKeys; i += 2) {
+      dict.put(suggestionsFor(i, 2d));
+    }
+    assertEquals(numKeys, dict.size());
+    assertKeys(numKeys);
+
+    ((MappedDictionary) dict).compact();
+    assertEquals(numKeys, dict.size());
+    assertKeys(numKeys);
+
+    dict.close();
+    dict = new MappedDictionary(baseDir);
+    assertEquals(numKeys, dict.size());
+    assertKeys(numKeys);
+
+    Set<String> seen = new HashSet<String>();
+    for (Iterator<SuggestionList> it = dict.iterator(); it.hasNext();) {
+      assertTrue(seen.add(it.next().getQueryKey()));
+    }
+    assertEquals(numKeys, seen.size());
+  }
+
+  public void testPrune() throws Exception {
+    SuggestionList suggestions = dict.suggestionListFactory("foo");
+    suggestions.addSuggested("foobar", 1d, 1);
+    suggestions.addSuggested("fool", 2d, 2);
+    suggestions.addSuggested("food", 3d, 3);
+    dict.put(suggestions);
+
+    dict.prune(2);
+    SuggestionList suggs = dict.getSuggestions("foo");
+    assertEquals(2, suggs.size());
+    assertEquals("food", suggs.get(0).getSuggested());
+    assertEquals("fool", suggs.get(1).getSuggested());
+  }
+
+  public void testPruneManyKeys() throws Exception {
+    // Removing every other key shifts entries along the probe sequences
+    int numKeys = 5000;
+    for (int i = 0; i < numKeys; i++) {
+      dict.put(suggestionsFor(i, i % 2 == 0 ? 2d : 0.01d));
+    }
+    dict.prune(10, Double.POSITIVE_INFINITY, 0.05d);
+    assertEquals(numKeys / 2, dict.size());
+    for (int i = 0; i < numKeys; i++) {
+      assertEquals(i % 2 == 0 ? 1 : 0, dict.getSuggestions(queryFor(i)).size());
+    }
+  }
+
+  private void assertKeys(int numKeys) throws Exception {
+    for (int i = 0; i < numKeys; i++) {
+      SuggestionList suggs = dict.getSuggestions(queryFor(i));
+      assertEquals(1, suggs.size());
+      assertEquals(queryFor(i) + "s", suggs.get(0).getSuggested());
+      assertEquals(i % 2 == 0 ? 2d : 1d, suggs.get(0).getScore());
+    }
+  }
+
+  private SuggestionList suggestionsFor(int i, double score) {
+    SuggestionList suggestions = dict.suggestionListFactory(queryFor(i));
+    suggestions.addSuggested(queryFor(i) + "s", score, i);
+    return suggestions;
+  }
+
+  /**
+   * Query keys only keep letters, so spell out {@code i} in letters
+   */
+  private static String queryFor(int i) {
+    StringBuilder query = new StringBuilder("q");
+    do {
+      query.append((char) ('a' + i % 26));
+      i /= 26;
+    } while (i > 0);
+    return query.toString();
+  }
+}
@@ -1,5 +1,13 @@
 package org.apache.lucene.search.didyoumean.dictionary;
 
+import org.apache.lucene.search.didyoumean.Suggestion;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * FIXME: Missing class docs for org.apache.lucene.search.didyoumean.dictionary.TestMemoryDictionary
  *
@@ -10,5 +18,177 @@ public class TestMemoryDictionary extends TestDictionary{
 
   public void setUp() {
     dict = new MemoryDictionary();
-  }  
+  }
+
+  /**
+   * Train and query the dictionary from several threads at the same time
+   * and make sure that the readers never see a torn suggestion list
+   */
+  public void testConcurrentTrainingAndQuerying() throws Exception {
+    final int numKeys = 50;
+    final int numSuggestions = 20;
+    final int numRounds = 200;
+    final AtomicBoolean training = new AtomicBoolean(true);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    Thread[] trainers = new Thread[4];
+    for (int i = 0; i < trainers.length; i++) {
+      final int trainerId = i;
+      trainers[i] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int round = 0; round < numRounds; round++) {
+              for (int key = 0; key < numKeys; key++) {
+                SuggestionList suggestions = dict.getSuggestions(queryFor(key));
+                String suggested = "suggestion" + ((round + trainerId) % numSuggestions);
+                Suggestion suggestion = suggestions.get(suggested);
+                if (suggestion == null) {
+                  suggestions.addSuggested(suggested, 1d, round);
+                } else {
+                  suggestion.setScore(suggestion.getScore() * 1.1d);
+                  suggestions.sort();
+                }
+                dict.put(suggestions);
+              }
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      });
+    }
+
+    Thread[] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            while (training.get()) {
+              for (int key = 0; key < numKeys; key++) {
+                assertConsistent(dict.getSuggestions(queryFor(key)), numSuggestions);
+              }
+              for (SuggestionList suggestions : dict) {
+                assertConsistent(suggestions, numSuggestions);
+              }
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      });
+    }
+
+    for (Thread reader : readers) {
+      reader.start();
+    }
+    for (Thread trainer : trainers) {
+      trainer.start();
+    }
+    for (Thread trainer : trainers) {
+      trainer.join();
+    }
+    training.set(false);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+
+    assertEquals(numKeys, dict.size());
+    for (int key = 0; key < numKeys; key++) {
+      SuggestionList suggestions = dict.getSuggestions(queryFor(key));
+      assertEquals(numSuggestions, suggestions.size());
+      assertConsistent(suggestions, numSuggestions);
+    }
+  }
+
+  /**
+   * Several threads increment the score of the same suggestion at the same
+   * time, and none of the increments are lost
+   */
+  public void testConcurrentUpdatesOfSameQuery() throws Exception {
+    final int numIncrements = 2000;
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final Dictionary.Update increment = new Dictionary.Update() {
+      public boolean apply(SuggestionList suggestions) {
+        Suggestion suggestion = suggestions.get("foobar");
+        if (suggestion == null) {
+          suggestions.addSuggested("foobar", 1d, 1);
+        } else {
+          suggestion.setScore(suggestion.getScore() + 1d);
+        }
+        return true;
+      }
+    };
+
+    Thread[] trainers = new Thread[8];
+    for (int i = 0; i < trainers.length; i++) {
+      trainers[i] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int j = 0; j < numIncrements; j++) {
+              dict.update("foo", increment);
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      });
+    }
+    for (Thread trainer : trainers) {
+      trainer.start();
+    }
+    for (Thread trainer : trainers) {
+      trainer.join();
+    }
+
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    assertEquals(1, dict.getSuggestions("foo").size());
+    assertEquals((double) trainers.length * numIncrements, dict.getSuggestions("foo").get(0).getScore());
+  }
+
+  public void testModifyingReturnedListDoesNotChangeDictionary() throws Exception {
+    SuggestionList suggestions = dict.suggestionListFactory("foo");
+    suggestions.addSuggested("foobar", 1d, 1);
+    dict.put(suggestions);
+
+    suggestions.get(0).setScore(2d);
+    suggestions.addSuggested("bar", 1d, 1);
+    assertEquals(1, dict.getSuggestions("foo").size());
+    assertEquals(1d, dict.getSuggestions("foo").get(0).getScore());
+
+    SuggestionList stored = dict.getSuggestions("foo");
+    stored.get(0).setScore(3d);
+    assertEquals(1d, dict.getSuggestions("foo").get(0).getScore());
+  }
+
+  /**
+   * Query keys are stripped of digits so we spell out the key number in letters
+   */
+  private static String queryFor(int key) {
+    return "query " + (char) ('a' + key % 26) + (char) ('a' + key / 26);
+  }
+
+  private static void assertConsistent(SuggestionList suggestions, int maxSize) {
+    assertTrue(suggestions.size() <= maxSize);
+
+    Set<String> seen = new HashSet<String>();
+    int i = 0;
+    for (Iterator<Suggestion> it = suggestions.iterator(); it.hasNext(); i++) {
+      Suggestion suggestion = it.next();
+      assertTrue("Duplicate suggestion " + suggestion, seen.add(suggestion.getSuggested()));
+      assertSame(suggestion, suggestions.get(i));
+    }
+    assertEquals(suggestions.size(), i);
+
+    SuggestionList sorted = new SuggestionList(suggestions);
+    sorted.sort();
+    for (i = 0; i < suggestions.size(); i++) {
+      assertEquals(sorted.get(i).getSuggested(), suggestions.get(i).getSuggested());
+    }
+  }
 }
@@ -0,0 +1,147 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import junit.framework.TestCase;
+import org.apache.lucene.index.facade.DirectoryIndexFacade;
+import org.apache.lucene.index.facade.IndexFacade;
+import org.apache.lucene.search.didyoumean.SecondLevelSuggester;
+import org.apache.lucene.search.didyoumean.SuggestionFacade;
+import org.apache.lucene.search.didyoumean.SuggestionPriorityQueue;
+import org.apache.lucene.search.didyoumean.impl.DefaultAprioriCorpusFactory;
+import org.apache.lucene.search.didyoumean.impl.DefaultQueryGoalTreeExtractor;
+import org.apache.lucene.search.didyoumean.impl.DefaultSuggester;
+import org.apache.lucene.search.didyoumean.impl.DefaultTrainer;
+import org.apache.lucene.search.didyoumean.secondlevel.token.ngram.NgramTokenSuggester;
+import org.apache.lucene.search.didyoumean.session.MemoryQuerySessionManager;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Test the {@link NegativeCache} and its use for second level suggestions
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 12, 2010
+ */
+public class TestNegativeCache extends TestCase {
+
+  private long time;
+  private NegativeCache cache;
+
+  public void setUp() {
+    time = 0;
+    cache = new NegativeCache(3, 100) {
+      @Override
+      protected long now() {
+        return time;
+      }
+    };
+  }
+
+  public void testExpiry() {
+    cache.add("foo");
+    time = 50;
+    cache.add("bar");
+    assertTrue(cache.contains("foo"));
+
+    time = 100;
+    assertFalse(cache.contains("foo"));
+    assertTrue(cache.contains("bar"));
+    assertEquals(1, cache.size());
+
+    // Adding again renews the entry
+    cache.add("bar");
+    time = 170;
+    assertTrue(cache.contains("bar"));
+  }
+
+  public void testBounded() {
+    cache.add("a");
+    cache.add("b");
+    cache.add("c");
+    cache.add("d");
+    assertEquals(3, cache.size());
+    assertFalse(cache.contains("a"));
+    assertTrue(cache.contains("d"));
+  }
+
+  public void testValidate() {
+    cache.validate(1);
+    cache.add("foo");
+    cache.validate(1);
+    assertTrue(cache.contains("foo"));
+    cache.validate(2);
+    assertFalse(cache.contains("foo"));
+  }
+
+  public void testSecondLevelSuggestion() throws Exception {
+    final int[] calls = new int[1];
+    SecondLevelSuggester gibberish = new SecondLevelSuggester() {
+      public SuggestionPriorityQueue suggest(String query) {
+        calls[0]++;
+        return new SuggestionPriorityQueue(1);
+      }
+
+      public boolean hasPersistableSuggestions() {
+        return true;
+      }
+    };
+
+    Dictionary dict = new MemoryDictionary();
+    dict.setSecondLevelNegativeCache(cache);
+    dict.getPrioritiesBySecondLevelSuggester().put(gibberish, 1d);
+
+    assertNull(dict.getSecondLevelSuggestion("xyzzy", 1));
+    assertNull(dict.getSecondLevelSuggestion("XYZZY", 1));
+    assertEquals(1, calls[0]);
+
+    time = 100;
+    assertNull(dict.getSecondLevelSuggestion("xyzzy", 1));
+    assertEquals(2, calls[0]);
+
+    // Changing the second level suggesters invalidates the cache
+    dict.getPrioritiesBySecondLevelSuggester().put(gibberish, 2d);
+    assertNull(dict.getSecondLevelSuggestion("xyzzy", 1));
+    assertEquals(3, calls[0]);
+
+    dict.setSecondLevelNegativeCache(null);
+    assertNull(dict.getSecondLevelSuggestion("xyzzy", 1));
+    assertEquals(4, calls[0]);
+  }
+
+  public void testClearedByTokenUpdates() throws Exception {
+    IndexFacade ngramIndex = new DirectoryIndexFacade(new RAMDirectory());
+    ngramIndex.indexWriterFactory(null, true).close();
+    final NgramTokenSuggester tokenSuggester = new NgramTokenSuggester(ngramIndex);
+    SecondLevelSuggester suggester = new SecondLevelSuggester() {
+      public SuggestionPriorityQueue suggest(String query) {
+        try {
+          return tokenSuggester.suggest(query, 1);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+      public boolean hasPersistableSuggestions() {
+        return true;
+      }
+    };
+
+    SuggestionFacade<Integer> facade = new SuggestionFacade<Integer>(new MemoryDictionary(), new MemoryQuerySessionManager<Integer>(), new DefaultSuggester(), new DefaultTrainer(), new DefaultQueryGoalTreeExtractor<Integer>(), new DefaultAprioriCorpusFactory());
+    Dictionary dict = facade.getDictionary();
+    dict.setSecondLevelNegativeCache(cache);
+    dict.getPrioritiesBySecondLevelSuggester().put(suggester, 1d);
+
+    assertNull(dict.getSecondLevelSuggestion("bananna", 1));
+    assertTrue(cache.contains(dict.formatQueryKey("bananna")));
+
+    // New tokens may fix the queries the suggesters could not fix before
+    facade.indexSecondLevelTokens(tokenSuggester, Arrays.asList("banana").iterator(), 3);
+    assertEquals(0, cache.size());
+    assertEquals("banana", dict.getSecondLevelSuggestion("bananna", 1)[0].getSuggested());
+
+    facade.removeSecondLevelTokens(tokenSuggester, Arrays.asList("banana").iterator());
+    assertNull(dict.getSecondLevelSuggestion("bananna", 1));
+    assertTrue(cache.contains(dict.formatQueryKey("bananna")));
+  }
+}
@@ -0,0 +1,56 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Run the generic dictionary tests against a {@link ShardedDictionary} of
+ * {@link MemoryDictionary}s, working on the shards in parallel
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 11, 2010
+ */
+public class TestShardedDictionary extends TestDictionary {
+
+  private ExecutorService executor;
+  private List<Dictionary> shards;
+
+  public void setUp() throws Exception {
+    executor = Executors.newFixedThreadPool(2);
+    shards = new ArrayList<Dictionary>();
+    for (int i = 0; i < 3; i++) {
+      shards.add(new MemoryDictionary());
+    }
+    dict = new ShardedDictionary(shards, executor);
+  }
+
+  public void tearDown() throws Exception {
+    dict.close();
+    executor.shutdown();
+  }
+
+  public void testPartitioning() throws Exception {
+    ShardedDictionary sharded = (ShardedDictionary) dict;
+    for (char c = 'a'; c <= 'z'; c++) {
+      SuggestionList suggestions = dict.suggestionListFactory("foo" + c);
+      suggestions.addSuggested("foobar", 1d, 1);
+      dict.put(suggestions);
+    }
+    assertEquals(26, dict.size());
+
+    int total = 0;
+    for (Dictionary shard : shards) {
+      assertTrue("Empty shard", shard.size() > 0);
+      total += shard.size();
+    }
+    assertEquals(26, total);
+
+    for (char c = 'a'; c <= 'z'; c++) {
+      Dictionary shard = sharded.getShard("foo" + c);
+      assertEquals(1, shard.getSuggestions("foo" + c).size());
+      assertEquals(1, dict.getSuggestions("FOO " + c).size());
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package org.apache.lucene.search.didyoumean.dictionary;
+
+import junit.framework.TestCase;
+import org.apache.lucene.search.didyoumean.Suggestion;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Test that the default and the compact forms of {@link SuggestionList}
+ * behave the same
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 3, 2010
+ */
+public class TestSuggestionList extends TestCase {
+
+  private SuggestedStringPool pool;
+
+  public void setUp() {
+    pool = new SuggestedStringPool();
+  }
+
+  public void testOrdering() {
+    assertOrdering(new SuggestionList("foo"));
+    assertOrdering(new SuggestionList("foo", pool));
+  }
+
+  private void assertOrdering(SuggestionList suggestions) {
+    suggestions.addSuggested("b", 1d, 10);
+    suggestions.addSuggested("a", 2d, 20);
+    suggestions.addSuggested("c", 0.5d, null);
+    suggestions.addSuggested("d", 1d, 5);
+
+    assertEquals(4, suggestions.size());
+    assertEquals("a", suggestions.get(0).getSuggested());
+    // Among equal scores the most recently added comes first
+    assertEquals("d", suggestions.get(1).getSuggested());
+    assertEquals("b", suggestions.get(2).getSuggested());
+    assertEquals("c", suggestions.get(3).getSuggested());
+    assertEquals(20, (int) suggestions.get(0).getCorpusQueryResults());
+    assertNull(suggestions.get(3).getCorpusQueryResults());
+
+    try {
+      suggestions.addSuggested("a", 3d, 1);
+      fail("Added the same suggestion twice");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testLookups() {
+    assertLookups(new SuggestionList("foo"));
+    assertLookups(new SuggestionList("foo", pool));
+  }
+
+  private void assertLookups(SuggestionList suggestions) {
+    suggestions.addSuggested("foobar", 1d, 1);
+    suggestions.addSuggested("foo bar", 2d, 2);
+
+    assertTrue(suggestions.containsSuggested("foobar"));
+    assertTrue(suggestions.containsSuggested("foo bar"));
+    assertFalse(suggestions.containsSuggested("bar"));
+    assertEquals(1d, suggestions.get("foobar").getScore());
+    assertNull(suggestions.get("bar"));
+
+    List<Suggestion> filtered = suggestions.filter(new SuggestionList.Filter() {
+      public boolean accept(Suggestion suggestion) {
+        return suggestion.getScore() > 1.5d;
+      }
+    });
+    assertEquals(1, filtered.size());
+    assertEquals("foo bar", filtered.get(0).getSuggested());
+
+    Suggestion[] array = suggestions.toArray(new Suggestion[3]);
+    assertEquals("foo bar", array[0].getSuggested());
+    assertEquals("foobar", array[1].getSuggested());
+    assertNull(array[2]);
+  }
+
+  public void testCompactCopy() {
+    SuggestionList suggestions = new SuggestionList("foo");
+    suggestions.addSuggested("a", 1d, 1);
+    suggestions.addSuggested("b", 2d, 2);
+    suggestions.addSuggested("c", 3d, 3);
+
+    // Modify a score without sorting, the compact copy must still be sorted
+    suggestions.get("a").setScore(4d);
+
+    SuggestionList compact = new SuggestionList(suggestions, pool);
+    assertTrue(compact.isCompact());
+    assertEquals(3, compact.size());
+    assertEquals("a", compact.get(0).getSuggested());
+    assertEquals("c", compact.get(1).getSuggested());
+    assertEquals("b", compact.get(2).getSuggested());
+    assertEquals(3, pool.size());
+
+    // Suggestions are detached copies in the compact form
+    compact.get(0).setScore(0d);
+    assertEquals(4d, compact.get(0).getScore());
+
+    // Copying back gives us a list we can modify in place
+    SuggestionList copy = new SuggestionList(compact);
+    assertFalse(copy.isCompact());
+    copy.get(0).setScore(0d);
+    copy.sort();
+    assertEquals("c", copy.get(0).getSuggested());
+    assertEquals("a", copy.get(2).getSuggested());
+    assertEquals("a", compact.get(0).getSuggested());
+  }
+
+  public void testCompactIteratorRemove() {
+    SuggestionList suggestions = new SuggestionList("foo", pool);
+    suggestions.addSuggested("a", 3d, 1);
+    suggestions.addSuggested("b", 2d, 2);
+    suggestions.addSuggested("c", 1d, 3);
+
+    for (Iterator<Suggestion> it = suggestions.iterator(); it.hasNext();) {
+      if ("b".equals(it.next().getSuggested())) {
+        it.remove();
+      }
+    }
+    assertEquals(2, suggestions.size());
+    assertEquals("a", suggestions.get(0).getSuggested());
+    assertEquals("c", suggestions.get(1).getSuggested());
+    assertFalse(suggestions.containsSuggested("b"));
+  }
+
+  public void testSharedPool() {
+    SuggestionList first = new SuggestionList("foo", pool);
+    SuggestionList second = new SuggestionList("fo", pool);
+    first.addSuggested("foobar", 1d, 1);
+    second.addSuggested("foobar", 1d, 1);
+    second.addSuggested("foo", 1d, 1);
+
+    assertEquals(2, pool.size());
+    assertEquals(pool.lookup("foobar"), pool.intern("foobar"));
+    assertEquals(-1, pool.lookup("bar"));
+    assertFalse(first.containsSuggested("foo"));
+  }
+}
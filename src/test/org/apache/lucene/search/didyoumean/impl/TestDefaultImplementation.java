@@ -25,6 +25,7 @@ import org.apache.lucene.search.didyoumean.Suggestion;
 import org.apache.lucene.search.didyoumean.SuggestionFacade;
 import org.apache.lucene.search.didyoumean.dictionary.MemoryDictionary;
 import org.apache.lucene.search.didyoumean.secondlevel.token.SecondLevelTokenPhraseSuggester;
+import org.apache.lucene.search.didyoumean.secondlevel.token.SpanNearTokenPhraseSuggester;
 import org.apache.lucene.search.didyoumean.secondlevel.token.ngram.NgramTokenSuggester;
 import org.apache.lucene.search.didyoumean.secondlevel.token.ngram.TermEnumIterator;
 import org.apache.lucene.index.facade.IndexFacade;
@@ -68,7 +69,7 @@ public class TestDefaultImplementation extends TestCase {
     int maxSuggestionsPerToken = 3;
 
     // add ngram suggester wrapped in a single token phrase suggester as second level suggester.
-    suggestionFacade.getDictionary().getPrioritiesBySecondLevelSuggester().put(new SecondLevelTokenPhraseSuggester(ngramSuggester, aprioriField, false, maxSuggestionsPerToken, new WhitespaceAnalyzer(), aprioriIndex), 1d);
+    suggestionFacade.getDictionary().getPrioritiesBySecondLevelSuggester().put(new SecondLevelTokenPhraseSuggester(new SpanNearTokenPhraseSuggester(ngramSuggester, aprioriField, false, maxSuggestionsPerToken, new WhitespaceAnalyzer(), aprioriIndex)), 1d);
   }
 
   public void testBasicTraining() throws Exception {
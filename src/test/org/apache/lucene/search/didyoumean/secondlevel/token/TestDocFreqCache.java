@@ -0,0 +1,160 @@
+package org.apache.lucene.search.didyoumean.secondlevel.token;
+
+import junit.framework.TestCase;
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.FilterIndexReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.facade.DirectoryIndexFacade;
+import org.apache.lucene.index.facade.IndexFacade;
+import org.apache.lucene.index.facade.IndexWriterFacade;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+
+/**
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class TestDocFreqCache extends TestCase {
+
+  private IndexFacade aprioriIndex;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    aprioriIndex = new DirectoryIndexFacade(new RAMDirectory());
+    aprioriIndex.indexWriterFactory(new SimpleAnalyzer(), true).close();
+    addDocuments("one two", "two three", "three");
+  }
+
+  private void addDocuments(String... texts) throws IOException {
+    IndexWriterFacade writer = aprioriIndex.indexWriterFactory(new SimpleAnalyzer(), false);
+    for (String text : texts) {
+      Document doc = new Document();
+      doc.add(new Field("field1", text, Field.Store.NO, Field.Index.ANALYZED));
+      doc.add(new Field("field2", "two", Field.Store.NO, Field.Index.ANALYZED));
+      writer.addDocument(doc);
+    }
+    writer.close();
+  }
+
+  public void testCache() throws Exception {
+    DocFreqCache cache = new DocFreqCache();
+    CountingReader reader = new CountingReader(aprioriIndex.indexReaderFactory());
+
+    assertEquals(1, cache.docFreq(reader, "field1", "one"));
+    assertEquals(2, cache.docFreq(reader, "field1", "two"));
+    assertEquals(0, cache.docFreq(reader, "field1", "four"));
+    assertEquals(3, reader.lookups);
+    assertEquals(3, cache.size());
+
+    assertEquals(1, cache.docFreq(reader, "field1", "one"));
+    assertEquals(2, cache.docFreq(reader, "field1", "two"));
+    assertEquals(0, cache.docFreq(reader, "field1", "four"));
+    assertEquals(3, reader.lookups);
+
+    // another field clears the cache
+    assertEquals(3, cache.docFreq(reader, "field2", "two"));
+    assertEquals(4, reader.lookups);
+    assertEquals(1, cache.size());
+
+    // so does a reopened reader
+    addDocuments("one four");
+    CountingReader reopened = new CountingReader(aprioriIndex.indexReaderFactory());
+    assertEquals(2, cache.docFreq(reopened, "field1", "one"));
+    assertEquals(1, cache.docFreq(reopened, "field1", "four"));
+    assertEquals(2, reopened.lookups);
+    assertEquals(2, cache.size());
+
+    reopened.close();
+    reader.close();
+  }
+
+  public void testBounded() throws Exception {
+    DocFreqCache cache = new DocFreqCache(10);
+    IndexReader reader = aprioriIndex.indexReaderFactory();
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(0, cache.docFreq(reader, "field1", "term" + i));
+      assertTrue(cache.size() <= cache.getMaxSize());
+    }
+    assertEquals(2, cache.docFreq(reader, "field1", "three"));
+    reader.close();
+  }
+
+  public void testConcurrentLookups() throws Exception {
+    // small enough to be grown and cleared while other threads look up
+    final DocFreqCache cache = new DocFreqCache(50);
+    final IndexReader reader = aprioriIndex.indexReaderFactory();
+    final String[] texts = {"one", "two", "three", "four"};
+    final int[] freqs = {1, 2, 2, 0};
+
+    final Throwable[] failure = new Throwable[1];
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int seed = t;
+      threads[t] = new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < 2000; i++) {
+              int term = (seed + i) % texts.length;
+              assertEquals(freqs[term], cache.docFreq(reader, "field1", texts[term]));
+              assertEquals(0, cache.docFreq(reader, "field1", "term" + seed + "_" + i));
+            }
+          } catch (Throwable e) {
+            failure[0] = e;
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(String.valueOf(failure[0]), failure[0]);
+    assertTrue(cache.size() <= cache.getMaxSize());
+    reader.close();
+  }
+
+  public void testReaderWithoutVersion() throws Exception {
+    DocFreqCache cache = new DocFreqCache();
+    UnversionedReader reader = new UnversionedReader(aprioriIndex.indexReaderFactory());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(1, cache.docFreq(reader, "field1", "one"));
+      assertEquals(2, cache.docFreq(reader, "field1", "two"));
+    }
+    assertEquals(2, reader.lookups);
+    // the reader is only asked for its version when the cache switches to it
+    assertEquals(1, reader.versionLookups);
+    reader.close();
+  }
+
+  private static class CountingReader extends FilterIndexReader {
+
+    int lookups = 0;
+
+    private CountingReader(IndexReader in) {
+      super(in);
+    }
+
+    public int docFreq(Term t) throws IOException {
+      lookups++;
+      return super.docFreq(t);
+    }
+  }
+
+  private static class UnversionedReader extends CountingReader {
+
+    private int versionLookups = 0;
+
+    private UnversionedReader(IndexReader in) {
+      super(in);
+    }
+
+    public long getVersion() {
+      versionLookups++;
+      throw new UnsupportedOperationException("This reader does not support this method.");
+    }
+  }
+}
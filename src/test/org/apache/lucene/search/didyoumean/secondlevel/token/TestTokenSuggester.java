@@ -0,0 +1,178 @@
+package org.apache.lucene.search.didyoumean.secondlevel.token;
+
+import junit.framework.TestCase;
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.facade.DirectoryIndexFacade;
+import org.apache.lucene.index.facade.IndexFacade;
+import org.apache.lucene.index.facade.IndexWriterFacade;
+import org.apache.lucene.search.didyoumean.SuggestionPriorityQueue;
+import org.apache.lucene.search.didyoumean.secondlevel.token.ngram.TermEnumIterator;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * The tests every {@link TokenSuggester} must pass, run against an a priori
+ * index of the numbers up to a thousand spelled out in English.
+ * Subclasses create the suggester to test and add their own tests.
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public abstract class TestTokenSuggester<S extends TokenSuggester> extends TestCase {
+
+  protected S suggester;
+  protected IndexFacade aprioriIndex;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    aprioriIndex = new DirectoryIndexFacade(new RAMDirectory());
+    IndexWriterFacade writer = aprioriIndex.indexWriterFactory(new SimpleAnalyzer(), true);
+    for (int i = 0; i < 1000; i++) {
+      Document doc = new Document();
+      doc.add(new Field("field1", intToEnglish(i), Field.Store.YES, Field.Index.ANALYZED));
+      doc.add(new Field("field2", intToEnglish(i + 1), Field.Store.YES, Field.Index.ANALYZED));
+      writer.addDocument(doc);
+    }
+    writer.close();
+
+    suggester = createSuggester();
+  }
+
+  /**
+   * @return a new suggester with no words indexed
+   */
+  protected abstract S createSuggester() throws Exception;
+
+  /**
+   * Add {@code tokens} to the words suggested by {@link #suggester}
+   */
+  protected abstract void indexDictionary(Iterator<String> tokens) throws IOException;
+
+  /**
+   * @return the number of words indexed by {@link #suggester}
+   */
+  protected abstract int size() throws IOException;
+
+  public void testBuild() throws Exception {
+    IndexReader reader = aprioriIndex.indexReaderFactory();
+
+    indexDictionary(new TermEnumIterator(reader, "field1"));
+    int numField1 = size();
+    indexDictionary(new TermEnumIterator(reader, "field2"));
+    assertEquals(numField1 + 1, size());
+
+    // test small word
+    assertEquals("five", suggest("fvie", 2).top().getSuggested());
+    // Don't suggest self
+    SuggestionPriorityQueue suggestions = suggest("five", 2);
+    while (suggestions.size() > 0) {
+      assertFalse("five".equals(suggestions.pop().getSuggested()));
+    }
+    assertEquals("five", suggest("fiv", 2).top().getSuggested());
+    assertEquals("five", suggest("ive", 20).top().getSuggested());
+    assertEquals("five", suggest("fives", 20).top().getSuggested());
+    assertEquals("five", suggest("fie", 20).top().getSuggested());
+    assertEquals(0, suggest("fi", 20).size());
+
+    // test restraint to a field
+    assertEquals(0, suggester.suggest("tousand", 100, false, reader, "field1", false).size());
+    assertEquals(1, suggester.suggest("tousand", 100, false, reader, "field2", false).size());
+    assertEquals("thousand", suggester.suggest("tousand", 100, false, reader, "field2", false).top().getSuggested());
+
+    // Test suggest self
+    // The queue pops the worst suggestion first
+    suggestions = suggester.suggest("five", 2, true, null, null, false);
+    while (suggestions.size() > 1) {
+      suggestions.pop();
+    }
+    assertEquals("five", suggestions.top().getSuggested());
+
+    reader.close();
+  }
+
+  protected SuggestionPriorityQueue suggest(String queryToken, int n) throws IOException {
+    return suggester.suggest(queryToken, n, false, null, null, false);
+  }
+
+  public static String intToEnglish(int i) {
+    StringBuffer result = new StringBuffer();
+    intToEnglish(i, result);
+    return result.toString();
+  }
+
+  public static void intToEnglish(int i, StringBuffer result) {
+    if (i == 0) {
+      result.append("zero");
+      return;
+    }
+    if (i < 0) {
+      result.append("minus ");
+      i = -i;
+    }
+    if (i >= 1000000000) {			  // billions
+      intToEnglish(i/1000000000, result);
+      result.append("billion, ");
+      i = i%1000000000;
+    }
+    if (i >= 1000000) {				  // millions
+      intToEnglish(i/1000000, result);
+      result.append("million, ");
+      i = i%1000000;
+    }
+    if (i >= 1000) {				  // thousands
+      intToEnglish(i/1000, result);
+      result.append("thousand, ");
+      i = i%1000;
+    }
+    if (i >= 100) {				  // hundreds
+      intToEnglish(i/100, result);
+      result.append("hundred ");
+      i = i%100;
+    }
+    if (i >= 20) {
+      switch (i/10) {
+      case 9 : result.append("ninety"); break;
+      case 8 : result.append("eighty"); break;
+      case 7 : result.append("seventy"); break;
+      case 6 : result.append("sixty"); break;
+      case 5 : result.append("fifty"); break;
+      case 4 : result.append("forty"); break;
+      case 3 : result.append("thirty"); break;
+      case 2 : result.append("twenty"); break;
+      }
+      i = i%10;
+      if (i == 0)
+        result.append(" ");
+      else
+        result.append("-");
+    }
+    switch (i) {
+    case 19 : result.append("nineteen "); break;
+    case 18 : result.append("eighteen "); break;
+    case 17 : result.append("seventeen "); break;
+    case 16 : result.append("sixteen "); break;
+    case 15 : result.append("fifteen "); break;
+    case 14 : result.append("fourteen "); break;
+    case 13 : result.append("thirteen "); break;
+    case 12 : result.append("twelve "); break;
+    case 11 : result.append("eleven "); break;
+    case 10 : result.append("ten "); break;
+    case 9 : result.append("nine "); break;
+    case 8 : result.append("eight "); break;
+    case 7 : result.append("seven "); break;
+    case 6 : result.append("six "); break;
+    case 5 : result.append("five "); break;
+    case 4 : result.append("four "); break;
+    case 3 : result.append("three "); break;
+    case 2 : result.append("two "); break;
+    case 1 : result.append("one "); break;
+    case 0 : result.append(""); break;
+    }
+  }
+}
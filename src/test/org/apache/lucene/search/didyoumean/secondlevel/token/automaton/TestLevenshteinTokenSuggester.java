@@ -0,0 +1,76 @@
+package org.apache.lucene.search.didyoumean.secondlevel.token.automaton;
+
+import org.apache.lucene.search.didyoumean.Levenshtein;
+import org.apache.lucene.search.didyoumean.RandomStrings;
+import org.apache.lucene.search.didyoumean.secondlevel.token.TestTokenSuggester;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * The {@link TestTokenSuggester} tests run against a {@link LevenshteinTokenSuggester},
+ * and the words its automaton accepts compared to a scan of all words
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class TestLevenshteinTokenSuggester extends TestTokenSuggester<LevenshteinTokenSuggester> {
+
+  protected LevenshteinTokenSuggester createSuggester() {
+    return new LevenshteinTokenSuggester();
+  }
+
+  protected void indexDictionary(Iterator<String> tokens) {
+    suggester.indexDictionary(tokens);
+  }
+
+  protected int size() {
+    return suggester.size();
+  }
+
+  public void testAutomaton() throws Exception {
+    suggester.indexDictionary(Arrays.asList("bandana", "banana", "cabana", "banana", "bonanza", "ban").iterator());
+    assertEquals(5, suggester.size());
+    assertEquals(Arrays.asList("ban", "banana", "bandana"), suggester.getWordsWithinDistance("banan"));
+    assertEquals(0, suggester.getWordsWithinDistance("qqqqq").size());
+
+    suggester = new LevenshteinTokenSuggester(1);
+    suggester.indexDictionary(Arrays.asList("banana", "bandana", "ban").iterator());
+    assertEquals(Arrays.asList("banana"), suggester.getWordsWithinDistance("banan"));
+  }
+
+  public void testAgreesWithScan() throws Exception {
+    Random random = new Random(87);
+    RandomStrings strings = new RandomStrings(random, "abcd");
+    TreeSet<String> vocabulary = new TreeSet<String>();
+    for (int batch = 0; batch < 3; batch++) {
+      // unsorted batches, merged into the dictionary
+      List<String> words = new ArrayList<String>();
+      for (int i = 0; i < 700; i++) {
+        words.add(strings.randomString(3 + random.nextInt(10)));
+      }
+      suggester.indexDictionary(words.iterator());
+      vocabulary.addAll(words);
+    }
+    assertEquals(vocabulary.size(), suggester.size());
+
+    List<String> vocabularyList = new ArrayList<String>(vocabulary);
+    for (int i = 0; i < 300; i++) {
+      String query = random.nextBoolean()
+          ? strings.randomString(1 + random.nextInt(12))
+          : strings.mutate(vocabularyList.get(random.nextInt(vocabularyList.size())), 1, 3);
+      List<String> expected = new ArrayList<String>();
+      Levenshtein levenshtein = new Levenshtein(query);
+      for (String word : vocabulary) {
+        if (levenshtein.getDistance(word) <= 2) {
+          expected.add(word);
+        }
+      }
+      assertEquals(query, expected, suggester.getWordsWithinDistance(query));
+    }
+  }
+}
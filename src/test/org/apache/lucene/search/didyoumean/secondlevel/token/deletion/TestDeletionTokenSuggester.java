@@ -0,0 +1,80 @@
+package org.apache.lucene.search.didyoumean.secondlevel.token.deletion;
+
+import org.apache.lucene.search.didyoumean.Levenshtein;
+import org.apache.lucene.search.didyoumean.RandomStrings;
+import org.apache.lucene.search.didyoumean.SuggestionPriorityQueue;
+import org.apache.lucene.search.didyoumean.secondlevel.token.TestTokenSuggester;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The {@link TestTokenSuggester} tests run against a {@link DeletionTokenSuggester},
+ * and its candidates compared to a scan of all words
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class TestDeletionTokenSuggester extends TestTokenSuggester<DeletionTokenSuggester> {
+
+  protected DeletionTokenSuggester createSuggester() {
+    return new DeletionTokenSuggester();
+  }
+
+  protected void indexDictionary(Iterator<String> tokens) {
+    suggester.indexDictionary(tokens);
+  }
+
+  protected int size() {
+    return suggester.size();
+  }
+
+  public void testDeletions() throws Exception {
+    assertEquals(new HashSet<String>(Arrays.asList("ab", "a", "b", "")), suggester.formDeletions("ab"));
+    // Deleting either s of "less" gives the same string
+    assertEquals(1 + 3 + 4, new DeletionTokenSuggester(2, 7).formDeletions("less").size());
+    // Only the prefix is formed deletions of
+    assertEquals(new DeletionTokenSuggester(1, 3).formDeletions("abc"),
+                 new DeletionTokenSuggester(1, 3).formDeletions("abcdef"));
+
+    suggester = new DeletionTokenSuggester(1, 7);
+    suggester.indexDictionary(Arrays.asList("banana", "bandana").iterator());
+    // bandana is two edits from banan
+    assertEquals(1, suggester.suggest("banan", 3).size());
+    assertEquals("banana", suggester.suggest("banan", 3).top().getSuggested());
+  }
+
+  public void testFindsAllWithinDistance() throws Exception {
+    Random random = new Random(87);
+    RandomStrings strings = new RandomStrings(random, "abcde");
+    List<String> words = new ArrayList<String>();
+    for (int i = 0; i < 2000; i++) {
+      words.add(strings.randomString(3 + random.nextInt(10)));
+    }
+    suggester.indexDictionary(words.iterator());
+    Set<String> vocabulary = new HashSet<String>(words);
+
+    for (int i = 0; i < 300; i++) {
+      String query = random.nextBoolean() ? strings.randomString(3 + random.nextInt(10)) : strings.mutate(words.get(random.nextInt(words.size())), 1, 2);
+      Set<String> expected = new HashSet<String>();
+      Levenshtein levenshtein = new Levenshtein(query);
+      for (String word : vocabulary) {
+        if (!word.equals(query) && levenshtein.getDistance(word) <= 2 && levenshtein.getNormalizedDistance(word) >= suggester.getAccuracy()) {
+          expected.add(word);
+        }
+      }
+
+      Set<String> suggested = new HashSet<String>();
+      SuggestionPriorityQueue suggestions = suggester.suggest(query, vocabulary.size());
+      while (suggestions.size() > 0) {
+        suggested.add(suggestions.pop().getSuggested());
+      }
+      assertEquals(query, expected, suggested);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package org.apache.lucene.search.didyoumean.secondlevel.token.ngram;
+
+import org.apache.lucene.search.didyoumean.SuggestionPriorityQueue;
+import org.apache.lucene.search.didyoumean.secondlevel.token.TestTokenSuggester;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * The {@link TestTokenSuggester} tests run against a {@link MemoryNgramTokenSuggester}
+ *
+ * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
+ * @since Feb 13, 2010
+ */
+public class TestMemoryNgramTokenSuggester extends TestTokenSuggester<MemoryNgramTokenSuggester> {
+
+  protected MemoryNgramTokenSuggester createSuggester() {
+    return new MemoryNgramTokenSuggester();
+  }
+
+  protected void indexDictionary(Iterator<String> tokens) {
+    suggester.indexDictionary(tokens);
+  }
+
+  protected int size() {
+    return suggester.size();
+  }
+
+  public void testCandidateRanking() throws Exception {
+    suggester.indexDictionary(Arrays.asList("banana", "bandana", "cabana", "bonanza", "zebra").iterator());
+    assertEquals(5, suggester.size());
+
+    // cabana and bonanza are three edits away, below the accuracy
+    SuggestionPriorityQueue suggestions = suggester.suggest("banan", 3);
+    assertEquals(2, suggestions.size());
+    assertEquals("bandana", suggestions.pop().getSuggested());
+    assertEquals("banana", suggestions.pop().getSuggested());
+
+    // Only the best candidate by shared grams is measured
+    assertEquals(1, suggester.suggest("banan", 1, false, null, null, false, 1).size());
+    assertEquals(0, suggester.suggest("qqqqq", 3).size());
+  }
+}
@@ -16,181 +16,193 @@ package org.apache.lucene.search.didyoumean.secondlevel.token.ngram;
  */
 
 
-import junit.framework.TestCase;
-import org.apache.lucene.analysis.SimpleAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.index.*;
-import org.apache.lucene.index.facade.IndexFacade;
-import org.apache.lucene.index.facade.IndexWriterFacade;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.index.facade.DirectoryIndexFacade;
+import org.apache.lucene.index.facade.IndexFacade;
+import org.apache.lucene.index.facade.InstantiatedIndexFacade;
+import org.apache.lucene.search.didyoumean.SuggestionPriorityQueue;
+import org.apache.lucene.search.didyoumean.secondlevel.token.TestTokenSuggester;
 import org.apache.lucene.store.RAMDirectory;
-import org.apache.lucene.search.didyoumean.Suggestion;
+import org.apache.lucene.store.instantiated.InstantiatedIndex;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
 
 /**
  * @author Karl Wettin <mailto:karl.wettin@gmail.com>
  *         Date: 2007-feb-03
  *         Time: 06:27:55
  */
-public class TestNgramTokenSuggester extends TestCase {
+public class TestNgramTokenSuggester extends TestTokenSuggester<NgramTokenSuggester> {
 
   // private static Log log = LogFactory.getLog(TestNgramTokenSuggester.class);
   // private static long serialVersionUID = 1l;
 
-  private NgramTokenSuggester ngramTokenSuggester;
-  private IndexFacade aprioriIndex;
-
-  protected void setUp() throws Exception {
-    super.setUp();
-
-    //create a user index
-    aprioriIndex = new DirectoryIndexFacade(new RAMDirectory());
-    IndexWriterFacade writer = aprioriIndex.indexWriterFactory(new SimpleAnalyzer(), true);
-
-    for (int i = 0; i < 1000; i++) {
-      Document doc = new Document();
-      doc.add(new Field("field1", intToEnglish(i), Field.Store.YES, Field.Index.ANALYZED));
-      doc.add(new Field("field2", intToEnglish(i + 1), Field.Store.YES, Field.Index.ANALYZED));
-      writer.addDocument(doc);
-    }
-
-
-    writer.close();
-
-    // create the spellChecker
+  protected NgramTokenSuggester createSuggester() throws IOException {
     IndexFacade ngramIndex = new DirectoryIndexFacade(new RAMDirectory());
     ngramIndex.indexWriterFactory(null, true).close();
-    ngramTokenSuggester = new NgramTokenSuggester(ngramIndex);
+    return new NgramTokenSuggester(ngramIndex);
   }
 
+  protected void indexDictionary(Iterator<String> tokens) throws IOException {
+    suggester.indexDictionary(tokens);
+  }
 
-  public void testBuild() {
-    try {
-
-      IndexReader reader = aprioriIndex.indexReaderFactory();
-
-      addwords(reader, "field1");
-      int num_field1 = ngramTokenSuggester.getNgramReader().numDocs();
-
-      addwords(reader, "field2");
-      int num_field2 = ngramTokenSuggester.getNgramReader().numDocs();
-
-
-      assertEquals(num_field2, num_field1 + 1);
+  protected int size() throws IOException {
+    return suggester.getNgramReader().numDocs();
+  }
 
-      // test small word
-      assertEquals("five", ngramTokenSuggester.suggest("fvie", 2).top().getSuggested());
-      assertEquals(0, ngramTokenSuggester.suggest("five", 2).size()); // Don't suggest self
-      assertEquals("five", ((Suggestion)ngramTokenSuggester.suggest("fiv", 2).top()).getSuggested());
-      assertEquals("five", ((Suggestion)ngramTokenSuggester.suggest("ive", 20).top()).getSuggested());
-      assertEquals("five", ((Suggestion)ngramTokenSuggester.suggest("fives", 20).top()).getSuggested());
-      assertEquals("five", ((Suggestion)ngramTokenSuggester.suggest("fie", 20).top()).getSuggested());
-      assertEquals(0, ngramTokenSuggester.suggest("fi", 20).size());
+  public void testHitEnumeration() throws Exception {
+    suggester.indexDictionary(Arrays.asList("recieve", "receive", "recipe", "receiver", "recieved", "recievers").iterator());
 
-      // test restraint to a field
-      assertEquals(0, ngramTokenSuggester.suggest("tousand", 100, false, reader, "field1", false).size());
-      assertEquals(1, ngramTokenSuggester.suggest("tousand", 100, false, reader, "field2", false).size());
-      assertEquals("thousand", ngramTokenSuggester.suggest("tousand", 100, false, reader, "field2", false).top().getSuggested());
+    // The best ngram match is the query token itself, which is not suggested,
+    // so only measuring one hit per suggestion finds nothing
+    assertEquals(0, suggester.suggest("recieve", 1, false, null, null, false, 1).size());
+    assertEquals("recieved", suggester.suggest("recieve", 1, false, null, null, false, 10).top().getSuggested());
 
-      // Test suggest self
-      ngramTokenSuggester.setSuggestSelf(true);
-      assertEquals(1, ngramTokenSuggester.suggest("five", 2).size());
-      assertEquals("five", ngramTokenSuggester.suggest("five", 2).top().getSuggested());
-      ngramTokenSuggester.setSuggestSelf(false);
+    // All hits are measured, and the best of them kept
+    SuggestionPriorityQueue suggestions = suggester.suggest("recieve", 3, false, null, null, false, 10);
+    assertEquals(3, suggestions.size());
+    assertEquals("receive", suggestions.pop().getSuggested());
+    assertEquals("recievers", suggestions.pop().getSuggested());
+    assertEquals("recieved", suggestions.pop().getSuggested());
+  }
 
-    } catch (IOException e) {
-      e.printStackTrace();
-      fail();
+  public void testLeanIndex() throws Exception {
+    IndexReader reader = aprioriIndex.indexReaderFactory();
+    indexDictionary(new TermEnumIterator(reader, "field1"));
+    reader.close();
+
+    // The grams are searchable but only the word is stored
+    IndexReader ngramReader = suggester.getNgramReader();
+    assertTrue(ngramReader.docFreq(new Term("gram2", "iv")) > 0);
+    for (int i = 0; i < ngramReader.maxDoc(); i++) {
+      Document doc = ngramReader.document(i);
+      assertEquals(1, doc.getFields().size());
+      assertNotNull(doc.get(NgramTokenSuggester.F_WORD));
     }
+    assertEquals("five", suggester.suggest("fvie", 2).top().getSuggested());
   }
 
+  public void testUpdates() throws Exception {
+    suggester.indexDictionary(Arrays.asList("banana", "bandana", "cabana").iterator());
+    assertEquals("banana", suggester.suggest("banan", 1).top().getSuggested());
 
-  private void addwords(IndexReader r, String field) throws IOException {
-    long time = System.currentTimeMillis();
-    ngramTokenSuggester.indexDictionary(new TermEnumIterator(r, field));
-    time = System.currentTimeMillis() - time;
-    //System.out.println("time to build " + field + ": " + time);
-  }
+    // a reader in use is kept open through updates
+    IndexReader reader = suggester.getNgramReader();
+    reader.incRef();
+
+    suggester.removeFromDictionary(Arrays.asList("banana").iterator());
+    assertEquals("bandana", suggester.suggest("banan", 1).top().getSuggested());
+    assertEquals(2, suggester.getNgramReader().numDocs());
 
+    suggester.indexDictionary(Arrays.asList("banana", "bonanza").iterator());
+    assertEquals("banana", suggester.suggest("banan", 1).top().getSuggested());
+    assertEquals(4, suggester.getNgramReader().numDocs());
 
-  public static String intToEnglish(int i) {
-    StringBuffer result = new StringBuffer();
-    intToEnglish(i, result);
-    return result.toString();
+    assertEquals(3, reader.numDocs());
+    reader.decRef();
   }
 
-  public static void intToEnglish(int i, StringBuffer result) {
-    if (i == 0) {
-      result.append("zero");
-      return;
+  public void testUpdatesWhileSuggesting() throws Exception {
+    suggester.indexDictionary(Arrays.asList("banana", "bandana", "cabana").iterator());
+
+    final Throwable[] failure = new Throwable[1];
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < 500; i++) {
+              // bandana is always suggested, banana only sometimes
+              assertTrue(suggester.suggest("banan", 3).size() >= 1);
+            }
+          } catch (Throwable e) {
+            failure[0] = e;
+          }
+        }
+      };
+      threads[i].start();
     }
-    if (i < 0) {
-      result.append("minus ");
-      i = -i;
+    for (int i = 0; i < 50; i++) {
+      suggester.removeFromDictionary(Arrays.asList("banana").iterator());
+      suggester.indexDictionary(Arrays.asList("banana", "bonanza" + i).iterator());
     }
-    if (i >= 1000000000) {			  // billions
-      intToEnglish(i/1000000000, result);
-      result.append("billion, ");
-      i = i%1000000000;
+    for (Thread thread : threads) {
+      thread.join();
     }
-    if (i >= 1000000) {				  // millions
-      intToEnglish(i/1000000, result);
-      result.append("million, ");
-      i = i%1000000;
+    assertNull(String.valueOf(failure[0]), failure[0]);
+    assertEquals(53, suggester.getNgramReader().numDocs());
+  }
+
+  /**
+   * An instantiated index is built while it is empty, updating it after that is rejected
+   */
+  public void testInstantiatedUpdates() throws Exception {
+    suggester = new NgramTokenSuggester(new InstantiatedIndexFacade(new InstantiatedIndex()));
+    suggester.indexDictionary(Arrays.asList("banana", "bandana", "cabana").iterator());
+    suggester.optimize();
+    assertEquals("banana", suggester.suggest("banan", 1).top().getSuggested());
+
+    try {
+      suggester.removeFromDictionary(Arrays.asList("banana").iterator());
+      fail("an instantiated index is not updated once built");
+    } catch (UnsupportedOperationException e) {
+      // expected
     }
-    if (i >= 1000) {				  // thousands
-      intToEnglish(i/1000, result);
-      result.append("thousand, ");
-      i = i%1000;
+    try {
+      suggester.indexDictionary(Arrays.asList("bonanza").iterator());
+      fail("an instantiated index is not updated once built");
+    } catch (UnsupportedOperationException e) {
+      // expected
     }
-    if (i >= 100) {				  // hundreds
-      intToEnglish(i/100, result);
-      result.append("hundred ");
-      i = i%100;
+
+    assertEquals("banana", suggester.suggest("banan", 1).top().getSuggested());
+    assertEquals(3, suggester.getNgramReader().numDocs());
+  }
+
+  public void testInstantiatedUpdatesWhileSuggesting() throws Exception {
+    suggester = new NgramTokenSuggester(new InstantiatedIndexFacade(new InstantiatedIndex()));
+    suggester.indexDictionary(Arrays.asList("banana", "bandana", "cabana").iterator());
+
+    final Throwable[] failure = new Throwable[1];
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < 500; i++) {
+              // the rejected updates never change what is suggested
+              assertEquals("banana", suggester.suggest("banan", 1).top().getSuggested());
+            }
+          } catch (Throwable e) {
+            failure[0] = e;
+          }
+        }
+      };
+      threads[i].start();
     }
-    if (i >= 20) {
-      switch (i/10) {
-      case 9 : result.append("ninety"); break;
-      case 8 : result.append("eighty"); break;
-      case 7 : result.append("seventy"); break;
-      case 6 : result.append("sixty"); break;
-      case 5 : result.append("fifty"); break;
-      case 4 : result.append("forty"); break;
-      case 3 : result.append("thirty"); break;
-      case 2 : result.append("twenty"); break;
+    int rejected = 0;
+    for (int i = 0; i < 50; i++) {
+      try {
+        suggester.removeFromDictionary(Arrays.asList("banana").iterator());
+      } catch (UnsupportedOperationException e) {
+        rejected++;
+      }
+      try {
+        suggester.indexDictionary(Arrays.asList("banana", "bonanza" + i).iterator());
+      } catch (UnsupportedOperationException e) {
+        rejected++;
       }
-      i = i%10;
-      if (i == 0)
-        result.append(" ");
-      else
-        result.append("-");
     }
-    switch (i) {
-    case 19 : result.append("nineteen "); break;
-    case 18 : result.append("eighteen "); break;
-    case 17 : result.append("seventeen "); break;
-    case 16 : result.append("sixteen "); break;
-    case 15 : result.append("fifteen "); break;
-    case 14 : result.append("fourteen "); break;
-    case 13 : result.append("thirteen "); break;
-    case 12 : result.append("twelve "); break;
-    case 11 : result.append("eleven "); break;
-    case 10 : result.append("ten "); break;
-    case 9 : result.append("nine "); break;
-    case 8 : result.append("eight "); break;
-    case 7 : result.append("seven "); break;
-    case 6 : result.append("six "); break;
-    case 5 : result.append("five "); break;
-    case 4 : result.append("four "); break;
-    case 3 : result.append("three "); break;
-    case 2 : result.append("two "); break;
-    case 1 : result.append("one "); break;
-    case 0 : result.append(""); break;
+    for (Thread thread : threads) {
+      thread.join();
     }
+    assertNull(String.valueOf(failure[0]), failure[0]);
+    assertEquals(100, rejected);
+    assertEquals(3, suggester.getNgramReader().numDocs());
   }
-
-
-
 }